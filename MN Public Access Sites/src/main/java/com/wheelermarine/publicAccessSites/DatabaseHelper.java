@@ -3,11 +3,16 @@ package com.wheelermarine.publicAccessSites;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.provider.BaseColumns;
 import android.util.Log;
+import com.wheelermarine.publicAccessSites.metrics.Metrics;
+import com.wheelermarine.publicAccessSites.metrics.Timer;
+import com.wheelermarine.publicAccessSites.store.ChangeSet;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,6 +30,7 @@ import java.util.List;
 public class DatabaseHelper extends SQLiteOpenHelper {
 
 	private static final String TAG = "PublicAccesses.DatabaseHelper";
+	private static final Timer LOAD_TIMER = Metrics.timer("db.getPublicAccess");
 	private static final String TEXT_TYPE = " TEXT";
 	private static final String INT_TYPE = " INTEGER";
 	private static final String REAL_TYPE = " REAL";
@@ -42,31 +48,112 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 			PublicAccessEntry.COLUMN_NAME_COUNTY + TEXT_TYPE + COMMA_SEP +
 			PublicAccessEntry.COLUMN_NAME_LATITUDE + REAL_TYPE + COMMA_SEP +
 			PublicAccessEntry.COLUMN_NAME_LONGITUDE + REAL_TYPE + COMMA_SEP +
-			PublicAccessEntry.COLUMN_NAME_RECORD_NUMBER + INT_TYPE +
+			PublicAccessEntry.COLUMN_NAME_RECORD_NUMBER + INT_TYPE + COMMA_SEP +
+			PublicAccessEntry.COLUMN_NAME_SOURCE_KEY + TEXT_TYPE + COMMA_SEP +
+			PublicAccessEntry.COLUMN_NAME_CONTENT_HASH + INT_TYPE +
 			" )";
 
+	private static final String SQL_CREATE_RECORD_NUMBER_INDEX =
+			"CREATE INDEX " + PublicAccessEntry.TABLE_NAME + "_" + PublicAccessEntry.COLUMN_NAME_RECORD_NUMBER +
+			" ON " + PublicAccessEntry.TABLE_NAME + " (" + PublicAccessEntry.COLUMN_NAME_RECORD_NUMBER + ")";
+
+	private static final String SQL_CREATE_SOURCE_KEY_INDEX =
+			"CREATE UNIQUE INDEX " + PublicAccessEntry.TABLE_NAME + "_" + PublicAccessEntry.COLUMN_NAME_SOURCE_KEY +
+			" ON " + PublicAccessEntry.TABLE_NAME + " (" + PublicAccessEntry.COLUMN_NAME_SOURCE_KEY + ")";
+
+	// These queries are kept as constants so that every lookup uses the same
+	// SQL text and reuses the prepared statement cached by the connection.
+	private static final String SQL_SELECT_BY_ID =
+			"SELECT * FROM " + PublicAccessEntry.TABLE_NAME + " WHERE " + PublicAccessEntry.COLUMN_NAME_ID + "=?";
+	private static final String SQL_SELECT_BY_RECORD_NUMBER =
+			"SELECT * FROM " + PublicAccessEntry.TABLE_NAME + " WHERE " + PublicAccessEntry.COLUMN_NAME_RECORD_NUMBER + "=?";
+
+	/**
+	 * Update the location of a public access.  The arguments are the
+	 * latitude, longitude and ID.
+	 */
+	static final String SQL_UPDATE_LOCATION =
+			"UPDATE " + PublicAccessEntry.TABLE_NAME + " SET " +
+			PublicAccessEntry.COLUMN_NAME_LATITUDE + "=?" + COMMA_SEP +
+			PublicAccessEntry.COLUMN_NAME_LONGITUDE + "=?" +
+			" WHERE " + PublicAccessEntry.COLUMN_NAME_ID + "=?";
+
+	/**
+	 * Update the record number of a public access which hasn't otherwise
+	 * changed.  The arguments are the record number and ID.
+	 */
+	static final String SQL_UPDATE_RECORD_NUMBER =
+			"UPDATE " + PublicAccessEntry.TABLE_NAME + " SET " +
+			PublicAccessEntry.COLUMN_NAME_RECORD_NUMBER + "=?" +
+			" WHERE " + PublicAccessEntry.COLUMN_NAME_ID + "=?";
+
+	/**
+	 * Select what an update needs to know about every public access to
+	 * compare it with the new data.
+	 */
+	static final String SQL_SELECT_SOURCE_ROWS =
+			"SELECT " + PublicAccessEntry.COLUMN_NAME_ID + COMMA_SEP +
+			PublicAccessEntry.COLUMN_NAME_SOURCE_KEY + COMMA_SEP +
+			PublicAccessEntry.COLUMN_NAME_CONTENT_HASH + COMMA_SEP +
+			PublicAccessEntry.COLUMN_NAME_RECORD_NUMBER + COMMA_SEP +
+			PublicAccessEntry.COLUMN_NAME_LATITUDE + COMMA_SEP +
+			PublicAccessEntry.COLUMN_NAME_LONGITUDE +
+			" FROM " + PublicAccessEntry.TABLE_NAME;
+
 	private static final String SQL_DELETE_ENTRIES =
 			"DROP TABLE IF EXISTS " + PublicAccessEntry.TABLE_NAME;
 
+	private static DatabaseHelper instance;
+
+	private final PublicAccessCache cache = new PublicAccessCache();
+	private final File searchIndexFile;
+
 	/**
-	 * Create a new DatabaseHelper.
+	 * Create a new DatabaseHelper.  Write-ahead logging is enabled so that
+	 * the list and detail screens can read while an update is being written.
 	 *
 	 * @param context to use to open or create the database.
 	 */
-	public DatabaseHelper(Context context) {
+	private DatabaseHelper(Context context) {
 
 		super(context, PublicAccessEntry.DATABASE_NAME, null, PublicAccessEntry.DATABASE_VERSION);
+		setWriteAheadLoggingEnabled(true);
+		searchIndexFile = context.getDatabasePath(PublicAccessEntry.DATABASE_NAME + ".idx");
+	}
+
+	/**
+	 * Get the DatabaseHelper shared by the whole application.  The shared
+	 * instance is never closed, every screen and the updater use the same
+	 * connection pool instead of reopening the database file.
+	 *
+	 * @param context any context, only its application context is retained.
+	 * @return the shared DatabaseHelper.
+	 */
+	public static synchronized DatabaseHelper getInstance(Context context) {
+
+		if (instance == null) instance = new DatabaseHelper(context.getApplicationContext());
+		return instance;
 	}
 
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 
 		db.execSQL(SQL_CREATE);
+		db.execSQL(SQL_CREATE_RECORD_NUMBER_INDEX);
+		db.execSQL(SQL_CREATE_SOURCE_KEY_INDEX);
 	}
 
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 
+		if (oldVersion == 3 && newVersion == 4) {
+			// The rows don't have source keys yet, so the next update
+			// replaces them once and only changes what differs after that.
+			db.execSQL("ALTER TABLE " + PublicAccessEntry.TABLE_NAME + " ADD COLUMN " + PublicAccessEntry.COLUMN_NAME_SOURCE_KEY + TEXT_TYPE);
+			db.execSQL("ALTER TABLE " + PublicAccessEntry.TABLE_NAME + " ADD COLUMN " + PublicAccessEntry.COLUMN_NAME_CONTENT_HASH + INT_TYPE);
+			db.execSQL(SQL_CREATE_SOURCE_KEY_INDEX);
+			return;
+		}
 		db.execSQL(SQL_DELETE_ENTRIES);
 		onCreate(db);
 	}
@@ -100,7 +187,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		values.put(PublicAccessEntry.COLUMN_NAME_LATITUDE, publicAccess.getLatitude());
 		values.put(PublicAccessEntry.COLUMN_NAME_LONGITUDE, publicAccess.getLongitude());
 		values.put(PublicAccessEntry.COLUMN_NAME_RECORD_NUMBER, publicAccess.getRecordNumber());
-		Log.v(TAG, "Created new PublicAccess(name=" + publicAccess.getName() + ")");
+		if (BuildConfig.DEBUG) Log.v(TAG, "Created new PublicAccess(name=" + publicAccess.getName() + ")");
 		return db.insert(PublicAccessEntry.TABLE_NAME, null, values);
 	}
 
@@ -112,41 +199,165 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	 */
 	public PublicAccess getPublicAccess(long id) {
 
+		PublicAccess access = cache.getById(id);
+		if (access != null) return access;
+
 		SQLiteDatabase db = this.getReadableDatabase();
 		if (db == null) throw new RuntimeException("Unable to find readable database.");
 
-		String whereSql = PublicAccessEntry.COLUMN_NAME_ID + "=?";
-		String[] args = {String.valueOf(id)};
-		Cursor cursor = db.query(PublicAccessEntry.TABLE_NAME, PublicAccessEntry.COLUMN_NAMES, whereSql, args, null, null, null, null);
+		long start = LOAD_TIMER.start();
+		try {
+			int generation = cache.getGeneration();
+			String[] args = {String.valueOf(id)};
+			access = load(db.rawQuery(SQL_SELECT_BY_ID, args));
+			cache.put(generation, access);
+		} finally {
+			LOAD_TIMER.stop(start);
+		}
+		if (BuildConfig.DEBUG) Log.v(TAG, "Loaded PublicAccess: " + id);
+		return access;
+	}
+
+	/**
+	 * Get a specific public access from the database based on its record
+	 * number in the DNR data.
+	 *
+	 * @param recordNumber the record number of the public access.
+	 * @return the public access if it exists or <code>null</code> if it doesn't.
+	 */
+	public PublicAccess getPublicAccessByRecordNumber(int recordNumber) {
+
+		PublicAccess access = cache.getByRecordNumber(recordNumber);
+		if (access != null) return access;
+
+		SQLiteDatabase db = this.getReadableDatabase();
+		if (db == null) throw new RuntimeException("Unable to find readable database.");
 
+		long start = LOAD_TIMER.start();
 		try {
-			if (cursor.moveToFirst()) {
-				Log.v(TAG, "Loaded PublicAccess: " + id);
-				return new PublicAccess(cursor);
-			} else {
-				return null;
-			}
+			int generation = cache.getGeneration();
+			String[] args = {String.valueOf(recordNumber)};
+			access = load(db.rawQuery(SQL_SELECT_BY_RECORD_NUMBER, args));
+			cache.put(generation, access);
+		} finally {
+			LOAD_TIMER.stop(start);
+		}
+		if (BuildConfig.DEBUG) Log.v(TAG, "Loaded PublicAccess: " + recordNumber);
+		return access;
+	}
+
+	private PublicAccess load(Cursor cursor) {
+
+		try {
+			return cursor.moveToFirst() ? new PublicAccess(cursor) : null;
 		} finally {
 			cursor.close();
 		}
 	}
 
-	public PublicAccess getPublicAccessByRecordNumber(int recordNumber) {
+	/**
+	 * Get the search index file, which is kept next to the database.
+	 *
+	 * @return the search index file.
+	 */
+	public File getSearchIndexFile() {
+
+		return searchIndexFile;
+	}
+
+	/**
+	 * Discard all of the cached public accesses.  This must be called after
+	 * new data has been committed to the database.
+	 */
+	public void invalidateCache() {
+
+		cache.invalidate();
+	}
+
+	/**
+	 * Discard the cached public accesses which were changed by an update.
+	 * This must be called after the update has been committed.
+	 *
+	 * @param changes the changes which were committed.
+	 */
+	public void applyChanges(ChangeSet changes) {
+
+		cache.apply(changes);
+	}
+
+	/**
+	 * Get the number of lookups which were served from the cache.
+	 *
+	 * @return the number of cache hits.
+	 */
+	public long getCacheHitCount() {
+
+		return cache.getHitCount();
+	}
+
+	/**
+	 * Get the number of lookups which had to go to the database.
+	 *
+	 * @return the number of cache misses.
+	 */
+	public long getCacheMissCount() {
+
+		return cache.getMissCount();
+	}
+
+	/**
+	 * Open a cursor over the public accesses in list order.  The cursor only
+	 * holds the rows in its current window in memory; rows are loaded from
+	 * the database as the cursor is moved.  The caller is responsible for
+	 * closing the cursor.
+	 *
+	 * @param columns the columns to select.
+	 * @return a cursor over all of the public accesses.
+	 */
+	public Cursor getPublicAccessCursor(String[] columns) {
+
+		SQLiteDatabase db = this.getReadableDatabase();
+		if (db == null) throw new RuntimeException("Unable to find readable database.");
+		return db.query(PublicAccessEntry.TABLE_NAME, columns, null, null, null, null, PublicAccessEntry.LIST_ORDER, null);
+	}
+
+	/**
+	 * Open a cursor over some of the public accesses in list order.  The
+	 * caller is responsible for closing the cursor.
+	 *
+	 * @param columns the columns to select.
+	 * @param ids     the IDs of the public accesses.
+	 * @return a cursor over the public accesses which exist.
+	 */
+	public Cursor getPublicAccessCursor(String[] columns, long[] ids) {
 
 		SQLiteDatabase db = this.getReadableDatabase();
 		if (db == null) throw new RuntimeException("Unable to find readable database.");
+		// The IDs are numbers, so they are written into the SQL rather than
+		// bound since there may be more of them than SQLite allows arguments.
+		StringBuilder where = new StringBuilder(PublicAccessEntry.COLUMN_NAME_ID).append(" IN (");
+		for (int i = 0; i < ids.length; i++) {
+			if (i > 0) where.append(',');
+			where.append(ids[i]);
+		}
+		where.append(')');
+		return db.query(PublicAccessEntry.TABLE_NAME, columns, where.toString(), null, null, null, PublicAccessEntry.LIST_ORDER, null);
+	}
 
-		String whereSql = PublicAccessEntry.COLUMN_NAME_RECORD_NUMBER + "=?";
-		String[] args = {String.valueOf(recordNumber)};
-		Cursor cursor = db.query(PublicAccessEntry.TABLE_NAME, PublicAccessEntry.COLUMN_NAMES, whereSql, args, null, null, null, null);
+	/**
+	 * Get the ID of every public access in list order.
+	 *
+	 * @return the IDs.
+	 */
+	public long[] getPublicAccessIds() {
 
+		Cursor cursor = getPublicAccessCursor(new String[]{PublicAccessEntry.COLUMN_NAME_ID});
 		try {
-			if (cursor.moveToFirst()) {
-				Log.v(TAG, "Loaded PublicAccess: " + recordNumber);
-				return new PublicAccess(cursor);
-			} else {
-				return null;
+			long[] ids = new long[cursor.getCount()];
+			while (cursor.moveToNext()) {
+				ids[cursor.getPosition()] = cursor.getLong(0);
 			}
+			return ids;
 		} finally {
 			cursor.close();
 		}
@@ -162,26 +373,30 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		List<PublicAccess> list = new ArrayList<PublicAccess>();
 		SQLiteDatabase db = this.getReadableDatabase();
 		if (db == null) throw new RuntimeException("Unable to find readable database.");
-		Cursor cursor = db.query(PublicAccessEntry.TABLE_NAME, PublicAccessEntry.COLUMN_NAMES, null, null, null, null, "name, lake", null);
+		Cursor cursor = db.query(PublicAccessEntry.TABLE_NAME, PublicAccessEntry.COLUMN_NAMES, null, null, null, null, PublicAccessEntry.LIST_ORDER, null);
 		try {
+			PublicAccessMapper mapper = new PublicAccessMapper(cursor);
 			while (cursor.moveToNext()) {
-				list.add(new PublicAccess(cursor));
+				list.add(mapper.toPublicAccess(cursor));
 			}
 		} finally {
 			cursor.close();
 		}
-		Log.v(TAG, "Loaded " + list.size() + " public accesses.");
+		if (BuildConfig.DEBUG) Log.v(TAG, "Loaded " + list.size() + " public accesses.");
 		return list;
 	}
 
 	/**
-	 * Get the number of public accesses in the database.
+	 * Get the number of public accesses in the database.  The rows are
+	 * counted by SQLite without being loaded.
 	 *
 	 * @return the number of public accesses.
 	 */
 	public int getPublicAccessesCount() {
 
-		return getAllPublicAccesses().size();
+		SQLiteDatabase db = this.getReadableDatabase();
+		if (db == null) throw new RuntimeException("Unable to find readable database.");
+		return (int) DatabaseUtils.queryNumEntries(db, PublicAccessEntry.TABLE_NAME);
 	}
 
 	/**
@@ -212,6 +427,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		String whereSql = PublicAccessEntry.COLUMN_NAME_ID + "=?";
 		String[] args = {String.valueOf(publicAccess.getId())};
 
+		cache.remove(publicAccess.getId());
 		return db.update(PublicAccessEntry.TABLE_NAME, values, whereSql, args);
 	}
 
@@ -224,7 +440,9 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
 		SQLiteDatabase db = this.getWritableDatabase();
 		if (db == null) throw new RuntimeException("Unable to find writable database.");
-		return db.delete(PublicAccessEntry.TABLE_NAME, null, null);
+		int count = db.delete(PublicAccessEntry.TABLE_NAME, null, null);
+		cache.invalidate();
+		return count;
 	}
 
 	/**
@@ -239,12 +457,13 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		String whereSql = PublicAccessEntry.COLUMN_NAME_ID + "=?";
 		String[] args = {String.valueOf(publicAccess.getId())};
 		if (db == null) throw new RuntimeException("Unable to find writable database.");
+		cache.remove(publicAccess.getId());
 		return db.delete(PublicAccessEntry.TABLE_NAME, whereSql, args);
 	}
 
 	public static abstract class PublicAccessEntry implements BaseColumns {
 
-		public static final int DATABASE_VERSION = 2;
+		public static final int DATABASE_VERSION = 4;
 		public static final String DATABASE_NAME = "wheelermarine";
 		public static final String TABLE_NAME = "public_access";
 		public static final String COLUMN_NAME_ID = "_id";
@@ -259,6 +478,23 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		public static final String COLUMN_NAME_LATITUDE = "latitude";
 		public static final String COLUMN_NAME_LONGITUDE = "longitude";
 		public static final String COLUMN_NAME_RECORD_NUMBER = "record_number";
+		public static final String COLUMN_NAME_SOURCE_KEY = "source_key";
+		public static final String COLUMN_NAME_CONTENT_HASH = "content_hash";
+		public static final String LIST_ORDER = COLUMN_NAME_NAME + ", " + COLUMN_NAME_LAKE + ", " + COLUMN_NAME_ID;
+
+		/**
+		 * The columns needed by a list row, its facets and its location.  Only
+		 * the start of the directions is selected, the full text is loaded with
+		 * the rest of the details.
+		 */
+		public static final String[] LIST_COLUMNS = {
+				PublicAccessEntry.COLUMN_NAME_ID, PublicAccessEntry.COLUMN_NAME_NAME,
+				PublicAccessEntry.COLUMN_NAME_LAKE, PublicAccessEntry.COLUMN_NAME_COUNTY,
+				PublicAccessEntry.COLUMN_NAME_LAUNCH, PublicAccessEntry.COLUMN_NAME_RAMP,
+				PublicAccessEntry.COLUMN_NAME_RAMPS, PublicAccessEntry.COLUMN_NAME_DOCKS,
+				PublicAccessEntry.COLUMN_NAME_LATITUDE, PublicAccessEntry.COLUMN_NAME_LONGITUDE,
+				"substr(" + PublicAccessEntry.COLUMN_NAME_DIRECTIONS + ", 1, " + (PublicAccessRow.SHORT_DIRECTIONS_LENGTH + 1) + ") AS " + PublicAccessEntry.COLUMN_NAME_DIRECTIONS
+		};
 
 		public static final String[] COLUMN_NAMES = {
 				PublicAccessEntry.COLUMN_NAME_ID, PublicAccessEntry.COLUMN_NAME_NAME,
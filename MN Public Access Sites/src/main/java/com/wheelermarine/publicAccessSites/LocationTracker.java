@@ -0,0 +1,217 @@
+package com.wheelermarine.publicAccessSites;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * This class shares a single subscription to the location providers between
+ * every screen which shows distances.  The providers are only asked for a
+ * new fix every <code>MIN_INTERVAL</code> milliseconds or
+ * <code>MIN_DISTANCE</code> meters, and each listener is only told about a
+ * new location once it has moved farther than the listener asked for, so a
+ * listener whose display can't change isn't woken up.
+ * </p>
+ * <p>
+ * The subscription is kept for a short time after the last listener is
+ * removed so that moving from one screen to the next doesn't restart the
+ * providers.  All of the methods must be called on the UI thread.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class LocationTracker {
+
+	private static final String TAG = "PublicAccesses.LocationTracker";
+	private static final long MIN_INTERVAL = 5000;
+	private static final float MIN_DISTANCE = 10;
+
+	/**
+	 * How long the providers are kept after the last listener is removed.
+	 */
+	private static final long LINGER = 3000;
+
+	/**
+	 * A fix older than this is replaced by any newer fix, however inaccurate.
+	 */
+	private static final long STALE_AGE = 2 * 60 * 1000;
+
+	private static final String[] PROVIDERS = {LocationManager.GPS_PROVIDER, LocationManager.NETWORK_PROVIDER};
+
+	private static LocationTracker instance;
+
+	private final LocationManager locationManager;
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final Map<Listener, Subscription> listeners = new IdentityHashMap<Listener, Subscription>();
+	private Location location;
+	private boolean subscribed;
+
+	private final LocationListener providerListener = new LocationListener() {
+		@Override
+		public void onLocationChanged(Location fix) {
+
+			if (!isBetter(fix, location)) return;
+			location = fix;
+			// A listener may remove itself when it is called.
+			for (Map.Entry<Listener, Subscription> listener : new ArrayList<Map.Entry<Listener, Subscription>>(listeners.entrySet())) {
+				if (listeners.get(listener.getKey()) == listener.getValue()) dispatch(listener.getKey(), listener.getValue());
+			}
+		}
+
+		@Override
+		public void onStatusChanged(String provider, int status, Bundle extras) {
+		}
+
+		@Override
+		public void onProviderEnabled(String provider) {
+		}
+
+		@Override
+		public void onProviderDisabled(String provider) {
+		}
+	};
+
+	private final Runnable unsubscribe = new Runnable() {
+		@Override
+		public void run() {
+
+			if (!listeners.isEmpty() || !subscribed) return;
+			Log.v(TAG, "Stopping location updates.");
+			locationManager.removeUpdates(providerListener);
+			subscribed = false;
+		}
+	};
+
+	private LocationTracker(Context context) {
+
+		locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+	}
+
+	/**
+	 * Get the tracker shared by the whole application.
+	 *
+	 * @param context any context, only its application context is retained.
+	 * @return the shared tracker.
+	 */
+	public static synchronized LocationTracker getInstance(Context context) {
+
+		if (instance == null) instance = new LocationTracker(context.getApplicationContext());
+		return instance;
+	}
+
+	/**
+	 * This interface receives location updates.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called when the location has moved farther than the listener's
+		 * minimum distance.
+		 *
+		 * @param location the current location.
+		 */
+		void onLocationChanged(Location location);
+	}
+
+	/**
+	 * The delivery policy of a listener and the last location it was sent.
+	 */
+	private static class Subscription {
+
+		final float minDistance;
+		Location delivered;
+
+		Subscription(float minDistance) {
+
+			this.minDistance = minDistance;
+		}
+	}
+
+	/**
+	 * Start sending location updates to a listener.  The current location is
+	 * sent right away if it is known.
+	 *
+	 * @param listener    the listener.
+	 * @param minDistance how far the location must move, in meters, before
+	 *                    the listener is sent the new location.
+	 * @return <code>true</code> if any location provider is enabled.
+	 */
+	public boolean addListener(Listener listener, float minDistance) {
+
+		Subscription subscription = new Subscription(minDistance);
+		listeners.put(listener, subscription);
+		handler.removeCallbacks(unsubscribe);
+
+		boolean enabled = false;
+		for (String provider : PROVIDERS) {
+			if (!locationManager.isProviderEnabled(provider)) continue;
+			enabled = true;
+			if (!subscribed) {
+				locationManager.requestLocationUpdates(provider, MIN_INTERVAL, MIN_DISTANCE, providerListener, Looper.getMainLooper());
+				Location last = locationManager.getLastKnownLocation(provider);
+				if (last != null && isBetter(last, location)) location = last;
+			}
+		}
+		if (enabled && !subscribed) Log.v(TAG, "Starting location updates.");
+		subscribed |= enabled;
+
+		if (location != null) dispatch(listener, subscription);
+		return enabled;
+	}
+
+	/**
+	 * Stop sending location updates to a listener.
+	 *
+	 * @param listener the listener.
+	 */
+	public void removeListener(Listener listener) {
+
+		listeners.remove(listener);
+		if (listeners.isEmpty()) handler.postDelayed(unsubscribe, LINGER);
+	}
+
+	/**
+	 * Get the most recent location.
+	 *
+	 * @return the location, or <code>null</code> if it isn't known.
+	 */
+	public Location getLocation() {
+
+		return location;
+	}
+
+	private void dispatch(Listener listener, Subscription subscription) {
+
+		if (subscription.delivered != null && subscription.delivered.distanceTo(location) < subscription.minDistance) return;
+		subscription.delivered = location;
+		listener.onLocationChanged(location);
+	}
+
+	/**
+	 * Check if a fix should replace the current location.  A newer fix is
+	 * used unless it is much less accurate than a recent current location.
+	 */
+	private static boolean isBetter(Location fix, Location current) {
+
+		if (current == null) return true;
+		long age = fix.getTime() - current.getTime();
+		if (age > STALE_AGE) return true;
+		if (age < -STALE_AGE) return false;
+		float accuracy = fix.getAccuracy() - current.getAccuracy();
+		if (accuracy < 0) return true;
+		return age > 0 && accuracy <= 200;
+	}
+}
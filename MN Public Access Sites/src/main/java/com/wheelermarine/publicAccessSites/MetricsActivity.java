@@ -0,0 +1,79 @@
+package com.wheelermarine.publicAccessSites;
+
+import android.app.ActionBar;
+import android.app.Activity;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+import com.wheelermarine.publicAccessSites.metrics.Metrics;
+
+/**
+ * <p>
+ * This debug screen shows the counters and the percentiles of the timers
+ * and histograms recorded since the process started or the metrics were
+ * reset.  The same text is written to the log so it can be collected with
+ * <code>adb logcat -s PublicAccesses.Metrics</code>.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class MetricsActivity extends Activity {
+
+	private static final String TAG = "PublicAccesses.Metrics";
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.metrics);
+
+		ActionBar actionBar = getActionBar();
+		if (actionBar != null) actionBar.setDisplayHomeAsUpEnabled(true);
+	}
+
+	@Override
+	protected void onResume() {
+
+		super.onResume();
+		show();
+	}
+
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+
+		getMenuInflater().inflate(R.menu.metrics, menu);
+		return super.onCreateOptionsMenu(menu);
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+
+		if (item.getItemId() == android.R.id.home) {
+			finish();
+			return true;
+		} else if (item.getItemId() == R.id.action_metrics_refresh) {
+			show();
+			return true;
+		} else if (item.getItemId() == R.id.action_metrics_reset) {
+			Metrics.reset();
+			show();
+			return true;
+		}
+		return super.onOptionsItemSelected(item);
+	}
+
+	private void show() {
+
+		String dump = Metrics.dump();
+		for (String line : dump.split("\n")) {
+			if (!line.isEmpty()) Log.i(TAG, line);
+		}
+		TextView text = (TextView) findViewById(R.id.metricsText);
+		text.setText(dump.isEmpty() ? getString(R.string.metricsEmpty) : dump);
+	}
+}
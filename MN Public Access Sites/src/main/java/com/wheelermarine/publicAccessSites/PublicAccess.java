@@ -2,11 +2,17 @@ package com.wheelermarine.publicAccessSites;
 
 import android.database.Cursor;
 import android.location.Location;
+import android.os.Parcel;
+import android.os.Parcelable;
 import com.google.android.gms.maps.model.LatLng;
+import com.wheelermarine.publicAccessSites.dnr.SiteRecord;
+import com.wheelermarine.publicAccessSites.store.SiteStore;
 
 /**
  * <p>
- * This class represents a public access.
+ * This class represents a public access.  It is parcelable so that it can be
+ * passed to the detail activity and kept in its saved state instead of being
+ * loaded from the database again.
  * </p>
  * <p/>
  * <p>
@@ -14,7 +20,21 @@ import com.google.android.gms.maps.model.LatLng;
  * Released under the GPLv3 license, see LICENSE file for details.
  * </p>
  */
-public class PublicAccess {
+public class PublicAccess implements Parcelable {
+
+	public static final Creator<PublicAccess> CREATOR = new Creator<PublicAccess>() {
+		@Override
+		public PublicAccess createFromParcel(Parcel in) {
+
+			return new PublicAccess(in);
+		}
+
+		@Override
+		public PublicAccess[] newArray(int size) {
+
+			return new PublicAccess[size];
+		}
+	};
 
 	private final Long id;
 	private final String name;
@@ -28,21 +48,92 @@ public class PublicAccess {
 	private final int recordNumber;
 	private double latitude;
 	private double longitude;
+	private final boolean summary;
 
 	public PublicAccess(Cursor cursor) {
 
-		id = cursor.getLong(cursor.getColumnIndex(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_ID));
-		name = cursor.getString(cursor.getColumnIndex(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_NAME));
-		launch = cursor.getString(cursor.getColumnIndex(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_LAUNCH));
-		ramp = cursor.getString(cursor.getColumnIndex(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_RAMP));
-		ramps = cursor.getInt(cursor.getColumnIndex(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_RAMPS));
-		docks = cursor.getInt(cursor.getColumnIndex(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_DOCKS));
-		directions = cursor.getString(cursor.getColumnIndex(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_DIRECTIONS));
-		lake = cursor.getString(cursor.getColumnIndex(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_LAKE));
-		county = cursor.getString(cursor.getColumnIndex(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_COUNTY));
-		latitude = cursor.getDouble(cursor.getColumnIndex(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_LATITUDE));
-		longitude = cursor.getDouble(cursor.getColumnIndex(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_LONGITUDE));
-		recordNumber = cursor.getInt(cursor.getColumnIndex(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_RECORD_NUMBER));
+		this(new PublicAccessMapper(cursor), cursor);
+	}
+
+	PublicAccess(PublicAccessMapper mapper, Cursor cursor) {
+
+		id = mapper.getLong(cursor, mapper.id);
+		name = value(mapper.getString(cursor, mapper.name));
+		launch = value(mapper.getString(cursor, mapper.launch));
+		ramp = value(mapper.getString(cursor, mapper.ramp));
+		ramps = mapper.getInt(cursor, mapper.ramps);
+		docks = mapper.getInt(cursor, mapper.docks);
+		directions = value(mapper.getString(cursor, mapper.directions));
+		lake = value(mapper.getString(cursor, mapper.lake));
+		county = value(mapper.getString(cursor, mapper.county));
+		latitude = mapper.getDouble(cursor, mapper.latitude);
+		longitude = mapper.getDouble(cursor, mapper.longitude);
+		recordNumber = mapper.getInt(cursor, mapper.recordNumber);
+		summary = mapper.recordNumber < 0;
+	}
+
+	/**
+	 * Create a summary from a row of the loaded list.
+	 *
+	 * @param store the loaded public accesses.
+	 * @param row   the position of the row.
+	 */
+	PublicAccess(SiteStore store, int row) {
+
+		id = store.getId(row);
+		name = store.getName(row);
+		launch = store.getLaunch(row);
+		ramp = store.getRamp(row);
+		ramps = store.getRamps(row);
+		docks = store.getDocks(row);
+		directions = store.getDirections(row);
+		lake = store.getLake(row);
+		county = store.getCounty(row);
+		latitude = store.getLatitude(row);
+		longitude = store.getLongitude(row);
+		recordNumber = 0;
+		summary = true;
+	}
+
+	private PublicAccess(Parcel in) {
+
+		id = in.readLong();
+		name = in.readString();
+		launch = in.readString();
+		ramp = in.readString();
+		ramps = in.readInt();
+		docks = in.readInt();
+		directions = in.readString();
+		lake = in.readString();
+		county = in.readString();
+		latitude = in.readDouble();
+		longitude = in.readDouble();
+		recordNumber = in.readInt();
+		summary = in.readInt() != 0;
+	}
+
+	@Override
+	public int describeContents() {
+
+		return 0;
+	}
+
+	@Override
+	public void writeToParcel(Parcel out, int flags) {
+
+		out.writeLong(id);
+		out.writeString(name);
+		out.writeString(launch);
+		out.writeString(ramp);
+		out.writeInt(ramps);
+		out.writeInt(docks);
+		out.writeString(directions);
+		out.writeString(lake);
+		out.writeString(county);
+		out.writeDouble(latitude);
+		out.writeDouble(longitude);
+		out.writeInt(recordNumber);
+		out.writeInt(summary ? 1 : 0);
 	}
 
 	public long getId() {
@@ -50,15 +141,15 @@ public class PublicAccess {
 	}
 
 	public String getName() {
-		return value(name);
+		return name;
 	}
 
 	public String getLaunch() {
-		return value(launch);
+		return launch;
 	}
 
 	public String getRamp() {
-		return value(ramp);
+		return ramp;
 	}
 
 	public int getRamps() {
@@ -70,15 +161,15 @@ public class PublicAccess {
 	}
 
 	public String getDirections() {
-		return value(directions);
+		return directions;
 	}
 
 	public String getLake() {
-		return value(lake);
+		return lake;
 	}
 
 	public String getCounty() {
-		return value(county);
+		return county;
 	}
 
 	public double getLatitude() {
@@ -101,6 +192,17 @@ public class PublicAccess {
 		return recordNumber;
 	}
 
+	/**
+	 * Check if this public access was loaded from the list columns rather
+	 * than the whole row.  A summary has shortened directions and no record
+	 * number.
+	 *
+	 * @return <code>true</code> if this is a summary.
+	 */
+	public boolean isSummary() {
+		return summary;
+	}
+
 	public Location getLocation() {
 
 		Location loc = new Location("DATABASE");
@@ -119,12 +221,16 @@ public class PublicAccess {
 		return getName();
 	}
 
-	private String value(Object o) {
+	/**
+	 * Clean up a value loaded from the database.  Leading and trailing white
+	 * space is removed and placeholder values are replaced with an empty
+	 * string.
+	 *
+	 * @param o the value to clean.
+	 * @return the cleaned value, never <code>null</code>.
+	 */
+	static String value(Object o) {
 
-		if (o == null) return "";
-		String s = String.valueOf(o).trim();
-		if (s.equalsIgnoreCase("Unknown")) s = "";
-		if (s.equalsIgnoreCase("Other")) s = "";
-		return s;
+		return SiteRecord.clean(o);
 	}
 }
\ No newline at end of file
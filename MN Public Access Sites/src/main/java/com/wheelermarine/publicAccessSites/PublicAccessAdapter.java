@@ -1,59 +1,477 @@
 package com.wheelermarine.publicAccessSites;
 
 import android.content.Context;
+import android.location.Location;
+import android.os.Handler;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.Filter;
 import android.widget.Filterable;
 import android.widget.TextView;
+import com.wheelermarine.publicAccessSites.geo.DistanceEngine;
+import com.wheelermarine.publicAccessSites.metrics.Counter;
+import com.wheelermarine.publicAccessSites.metrics.Histogram;
+import com.wheelermarine.publicAccessSites.metrics.Metrics;
+import com.wheelermarine.publicAccessSites.metrics.Timer;
+import com.wheelermarine.publicAccessSites.search.FacetIndex;
+import com.wheelermarine.publicAccessSites.search.SearchKeys;
+import com.wheelermarine.publicAccessSites.search.TrigramIndex;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 /**
+ * <p>
+ * This adapter displays the public accesses from the columns of a loaded
+ * <code>SiteStore</code>.  A row's strings are only created when it is
+ * bound to a view.  Filtering produces the list of matching row positions
+ * rather than a copy of the rows.  The
+ * text search is combined with the selected facets.  In near me mode the
+ * matching public accesses closest to the current location are shown instead,
+ * nearest first.  The distance and bearing of every row are computed in one
+ * batch for each location fix, so binding a row only looks them up.
+ * </p>
+ * <p>
+ * When an update changes the list, the displayed rows and distances are
+ * renumbered to the new list instead of being reset, and the search is run
+ * again so new matches appear.  The update listener is told before and after
+ * the rows change so the list can stay scrolled to the same public access.
+ * </p>
  * <p>
  * Copyright 2013 Steven Wheeler<br/>
  * Released under the GPLv3 license, see LICENSE file for details.
  * </p>
  */
-public class PublicAccessAdapter extends ArrayAdapter<PublicAccess> implements Filterable {
+public class PublicAccessAdapter extends BaseAdapter implements Filterable {
 
 	private static final String TAG = "PublicAccesses.PublicAccessAdapter";
+	private static final Timer REFRESH_TIMER = Metrics.timer("list.refresh");
+	private static final Timer FILTER_TIMER = Metrics.timer("search.filter");
+	private static final Histogram FILTER_RESULTS = Metrics.histogram("search.filter.results");
+	private static final Counter STALE_FILTERS = Metrics.counter("search.filter.abandoned");
+
+	/**
+	 * How long to wait for the next keystroke before filtering.
+	 */
+	private static final long SEARCH_DELAY = 150;
+
+	/**
+	 * The number of public accesses shown in near me mode.
+	 */
+	private static final int NEAREST_COUNT = 50;
+
+	private final int resource;
+	private final LayoutInflater inflater;
 	private final Filter filter;
-	private List<PublicAccess> original = new ArrayList<PublicAccess>();
-	private List<PublicAccess> fitems = new ArrayList<PublicAccess>();
+	private final PublicAccessRepository repository;
+	private volatile PublicAccessList list;
+
+	/**
+	 * The row positions which are currently displayed, or <code>null</code>
+	 * if every row is displayed.
+	 */
+	private int[] rows;
+
+	/**
+	 * The most recently requested query.  Filter runs for any other query are
+	 * abandoned and their results ignored.
+	 */
+	private volatile String latestQuery = "";
+
+	/**
+	 * The selected facet values.  The map is replaced rather than modified.
+	 */
+	private volatile Map<FacetIndex.Facet, Set<String>> facetSelection = Collections.emptyMap();
+
+	/**
+	 * The current location, or <code>null</code> if it isn't known.  The
+	 * location is replaced rather than modified.
+	 */
+	private volatile Location location;
+
+	/**
+	 * Whether the list is ranked by distance from the current location rather
+	 * than listed by name.
+	 */
+	private volatile boolean nearMode;
+
+	/**
+	 * The distances and bearings from the current location, indexed by row
+	 * position, or <code>null</code> if they haven't been computed.
+	 */
+	private RowDistances distances;
+	private PublicAccessRepository.Request distanceRequest;
+	private OnLoadListener onLoadListener;
+	private OnUpdateListener onUpdateListener;
+
+	/**
+	 * The generation of the updated list whose search results should keep
+	 * the list scrolled to the same public access, or -1.
+	 */
+	private long anchoredGeneration = -1;
+	private final PublicAccessRepository.OnListUpdateListener listUpdateListener = new PublicAccessRepository.OnListUpdateListener() {
+		@Override
+		public void onListUpdated(PublicAccessList.Update update) {
+
+			applyUpdate(update);
+		}
+	};
+	private final Handler handler = new Handler();
+	private final Runnable delayedSearch = new Runnable() {
+		@Override
+		public void run() {
+
+			filter.filter(latestQuery);
+		}
+	};
+
+	/**
+	 * This interface is notified every time the public accesses have been
+	 * loaded from the database and are displayed.
+	 */
+	public interface OnLoadListener {
 
-	public PublicAccessAdapter(Context context, int textViewResourceID) {
+		/**
+		 * Called on the UI thread once the list has been replaced.
+		 *
+		 * @param count the number of public accesses in the database.
+		 */
+		void onLoad(int count);
+	}
+
+	/**
+	 * This interface is notified around every change to the displayed rows
+	 * which is caused by an update rather than by the user.
+	 */
+	public interface OnUpdateListener {
+
+		/**
+		 * Called on the UI thread before the rows are replaced, while the
+		 * adapter still returns the previous rows.
+		 */
+		void onBeforeUpdate();
+
+		/**
+		 * Called on the UI thread once the rows have been replaced.
+		 */
+		void onUpdate();
+	}
+
+	public PublicAccessAdapter(Context context, int resource) {
 
-		super(context, textViewResourceID, new ArrayList<PublicAccess>());
+		this.resource = resource;
+		inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 		filter = new PublicAccessFilter();
-		refresh();
+		repository = PublicAccessRepository.getInstance(context);
+		repository.addOnListUpdateListener(listUpdateListener);
+		load(false);
 	}
 
+	/**
+	 * Reload the public accesses from the database.  The list is loaded in
+	 * the background and displayed once it is ready.
+	 */
 	public void refresh() {
 
-		final DatabaseHelper db = new DatabaseHelper(getContext());
-		try {
-			original.clear();
-			fitems.clear();
-			original = db.getAllPublicAccesses();
-			fitems.addAll(original);
-			super.clear();
-			super.addAll(original);
-			super.notifyDataSetChanged();
-		} finally {
-			db.close();
+		load(true);
+	}
+
+	/**
+	 * Display the shared list, loading it if it hasn't been loaded or if
+	 * <code>reload</code> is set.
+	 */
+	private void load(boolean reload) {
+
+		final long start = Timer.now();
+		repository.cancelAll(this);
+		PublicAccessRepository.Callback<PublicAccessList> callback = new PublicAccessRepository.Callback<PublicAccessList>() {
+			@Override
+			public void onResult(PublicAccessList result) {
+
+				REFRESH_TIMER.recordSince(start);
+				swapList(result);
+			}
+
+			@Override
+			public void onError(Exception e) {
+
+				Log.e(TAG, "Error loading public accesses.", e);
+			}
+		};
+		if (reload) {
+			repository.reloadPublicAccessList(this, callback);
+		} else {
+			repository.loadPublicAccessList(this, callback);
+		}
+	}
+
+	public void setOnLoadListener(OnLoadListener listener) {
+
+		onLoadListener = listener;
+	}
+
+	public void setOnUpdateListener(OnUpdateListener listener) {
+
+		onUpdateListener = listener;
+	}
+
+	private void swapList(PublicAccessList l) {
+
+		list = l;
+		rows = null;
+		distances = null;
+		notifyDataSetChanged();
+		computeDistances();
+
+		// Apply the current search to the new list.
+		if (!latestQuery.isEmpty() || !facetSelection.isEmpty() || nearMode) filter.filter(latestQuery);
+		if (onLoadListener != null) onLoadListener.onLoad(l.size());
+	}
+
+	/**
+	 * Switch to a list which was updated from the displayed one.  The
+	 * displayed rows and distances are renumbered, rows which were removed
+	 * disappear and the search is run again to pick up new matches.  Any
+	 * other update replaces the list.
+	 */
+	private void applyUpdate(PublicAccessList.Update update) {
+
+		PublicAccessList l = update.list;
+		if (onUpdateListener != null) onUpdateListener.onBeforeUpdate();
+		if (update.rowMap == null || list != update.previous) {
+			list = l;
+			rows = null;
+			distances = null;
+		} else {
+			list = l;
+			if (rows != null) rows = remap(rows, update.rowMap);
+			if (distances != null) distances = distances.remap(l, update.rowMap, update.changed);
+		}
+		notifyDataSetChanged();
+		if (onUpdateListener != null) onUpdateListener.onUpdate();
+		computeDistances();
+
+		if (!latestQuery.isEmpty() || !facetSelection.isEmpty() || nearMode) {
+			anchoredGeneration = l.generation;
+			filter.filter(latestQuery);
+		}
+		if (onLoadListener != null) onLoadListener.onLoad(l.size());
+	}
+
+	/**
+	 * Renumber rows to an updated list, dropping the ones which were removed
+	 * or modified.  The order is kept.
+	 */
+	private static int[] remap(int[] rows, int[] rowMap) {
+
+		int[] out = new int[rows.length];
+		int count = 0;
+		for (int row : rows) {
+			if (rowMap[row] >= 0) out[count++] = rowMap[row];
+		}
+		return Arrays.copyOf(out, count);
+	}
+
+	/**
+	 * Find the position of a public access in the displayed rows.
+	 *
+	 * @param id the ID of the public access.
+	 * @return the position, or -1 if it isn't displayed.
+	 */
+	public int getPosition(long id) {
+
+		for (int position = 0; position < getCount(); position++) {
+			if (list.store.getId(rowAt(position)) == id) return position;
+		}
+		return -1;
+	}
+
+	/**
+	 * Filter the list once the query hasn't changed for a short time.  This
+	 * should be used while the query is being typed.
+	 *
+	 * @param query the text to search for.
+	 */
+	public void search(CharSequence query) {
+
+		latestQuery = SearchKeys.normalize(query);
+		handler.removeCallbacks(delayedSearch);
+		handler.postDelayed(delayedSearch, SEARCH_DELAY);
+	}
+
+	/**
+	 * Filter the list immediately.
+	 *
+	 * @param query the text to search for.
+	 */
+	public void searchNow(CharSequence query) {
+
+		latestQuery = SearchKeys.normalize(query);
+		handler.removeCallbacks(delayedSearch);
+		filter.filter(latestQuery);
+	}
+
+	/**
+	 * Get the facets of the loaded list.
+	 *
+	 * @return the facets, or <code>null</code> if the list hasn't been loaded.
+	 */
+	public FacetIndex getFacets() {
+
+		PublicAccessList l = list;
+		return l == null ? null : l.facets;
+	}
+
+	public Map<FacetIndex.Facet, Set<String>> getFacetSelection() {
+
+		return facetSelection;
+	}
+
+	/**
+	 * Show only the public accesses with the selected facet values and filter
+	 * the list immediately.
+	 *
+	 * @param selection the selected values of each facet, empty to show every
+	 *                  public access.
+	 */
+	public void setFacetSelection(Map<FacetIndex.Facet, Set<String>> selection) {
+
+		Map<FacetIndex.Facet, Set<String>> copy = new EnumMap<FacetIndex.Facet, Set<String>>(FacetIndex.Facet.class);
+		for (Map.Entry<FacetIndex.Facet, Set<String>> facet : selection.entrySet()) {
+			if (!facet.getValue().isEmpty()) copy.put(facet.getKey(), Collections.unmodifiableSet(new HashSet<String>(facet.getValue())));
+		}
+		facetSelection = Collections.unmodifiableMap(copy);
+		handler.removeCallbacks(delayedSearch);
+		filter.filter(latestQuery);
+	}
+
+	/**
+	 * Update the current location.  This should be called for every location
+	 * fix.  The distance to every row is computed in the background, and in
+	 * near me mode the list is ranked again.  Only the cells of the spatial
+	 * grid around the location are searched so ranking is cheap enough to do
+	 * on every fix.
+	 *
+	 * @param location the current location.
+	 */
+	public void setLocation(Location location) {
+
+		this.location = new Location(location);
+		computeDistances();
+		if (nearMode) {
+			handler.removeCallbacks(delayedSearch);
+			filter.filter(latestQuery);
 		}
 	}
 
+	/**
+	 * Rank the list by distance from the current location, or list the
+	 * public accesses by name again.
+	 *
+	 * @param nearMode <code>true</code> to rank the list by distance.
+	 */
+	public void setNearMode(boolean nearMode) {
+
+		this.nearMode = nearMode;
+		handler.removeCallbacks(delayedSearch);
+		filter.filter(latestQuery);
+	}
+
+	/**
+	 * Compute the distance and bearing from the current location to every row
+	 * of the list in the background.  Any computation still running for an
+	 * earlier location is cancelled.  The list is only redrawn if a row would
+	 * be displayed differently.
+	 */
+	private void computeDistances() {
+
+		final PublicAccessList l = list;
+		final Location loc = location;
+		final RowDistances previous = distances;
+		if (l == null || loc == null) return;
+		if (distanceRequest != null) distanceRequest.cancel();
+		distanceRequest = repository.execute(this, new Callable<RowDistances>() {
+			@Override
+			public RowDistances call() {
+
+				RowDistances result = new RowDistances(l, l.engine.size());
+				l.engine.compute(loc.getLatitude(), loc.getLongitude(), result.distances, result.bearings);
+				result.changed = previous == null || previous.list != l || !previous.displaysSameAs(result);
+				return result;
+			}
+		}, new PublicAccessRepository.Callback<RowDistances>() {
+			@Override
+			public void onResult(RowDistances result) {
+
+				if (result.list != list) return;
+				distances = result;
+				if (result.changed) notifyDataSetChanged();
+			}
+
+			@Override
+			public void onError(Exception e) {
+
+				Log.e(TAG, "Error computing distances.", e);
+			}
+		});
+	}
+
+	/**
+	 * Release the list and cancel any pending loads.  The adapter cannot be
+	 * used after it has been closed.
+	 */
+	public void close() {
+
+		repository.cancelAll(this);
+		repository.removeOnListUpdateListener(listUpdateListener);
+		handler.removeCallbacks(delayedSearch);
+		list = null;
+	}
+
+	@Override
+	public int getCount() {
+
+		if (list == null) return 0;
+		return rows == null ? list.size() : rows.length;
+	}
+
+	@Override
+	public PublicAccessRow getItem(int position) {
+
+		int row = rowAt(position);
+		if (row < 0) return null;
+		PublicAccessRow item = new PublicAccessRow();
+		item.load(list.store, row);
+		return item;
+	}
+
+	/**
+	 * Get a summary of the public access at a position from the columns
+	 * which are already loaded.
+	 *
+	 * @param position the position in the list.
+	 * @return the summary, or <code>null</code> if the position is invalid.
+	 */
+	public PublicAccess getPublicAccess(int position) {
+
+		int row = rowAt(position);
+		return row < 0 ? null : new PublicAccess(list.store, row);
+	}
+
 	@Override
 	public long getItemId(int position) {
 
-		PublicAccess access = getItem(position);
-		return access.getId();
+		int row = rowAt(position);
+		return row < 0 ? -1 : list.store.getId(row);
 	}
 
 	@Override
@@ -70,68 +488,291 @@ public class PublicAccessAdapter extends ArrayAdapter<PublicAccess> implements F
 	public View getView(int position, View convertView, ViewGroup parent) {
 
 		View v = convertView;
+		ViewHolder holder;
 		if (v == null) {
-			LayoutInflater vi = (LayoutInflater) getContext().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-			v = vi.inflate(R.layout.public_access_text_view, null);
-		}
-		if (v == null) throw new RuntimeException("Unable to find view!");
-
-		PublicAccess access = fitems.get(position);
-		if (access != null) {
-			TextView name = (TextView) v.findViewById(R.id.publicAccessViewName);
-			TextView county = (TextView) v.findViewById(R.id.publicAccessViewCounty);
-			TextView directions = (TextView) v.findViewById(R.id.publicAccessViewDirections);
-			if (access.getName().toLowerCase().contains(access.getLake().toLowerCase()) || access.getLake().equalsIgnoreCase("unknown")) {
-				name.setText(access.getName());
+			v = inflater.inflate(resource, parent, false);
+			if (v == null) throw new RuntimeException("Unable to find view!");
+			holder = new ViewHolder(v);
+			v.setTag(holder);
+		} else {
+			holder = (ViewHolder) v.getTag();
+		}
+
+		int p = rowAt(position);
+		if (p >= 0) {
+			PublicAccessRow row = holder.row;
+			row.load(list.store, p);
+			holder.name.setText(row.getDisplayName());
+			holder.county.setText(row.getCounty() + " County");
+			holder.directions.setText(row.getDirections());
+
+			if (distances != null && !Float.isNaN(distances.distances[p])) {
+				holder.distance.setText(DistanceEngine.formatDistance(distances.distances[p]) + " " +
+						DistanceEngine.formatBearing(distances.bearings[p]));
 			} else {
-				name.setText(access.getName() + ", " + access.getLake());
+				holder.distance.setText("");
 			}
-			county.setText(access.getCounty() + " County");
-			directions.setText(access.getDirections());
 		}
 		return v;
 	}
 
+	/**
+	 * Get the row of the store displayed at a position.
+	 *
+	 * @return the row, or -1 if the position is invalid.
+	 */
+	private int rowAt(int position) {
+
+		if (list == null || position < 0 || position >= getCount()) return -1;
+		return rows == null ? position : rows[position];
+	}
+
+	/**
+	 * Holds the child views of a recycled list row so they don't need to be
+	 * looked up every time the row is bound.  The row object is recycled
+	 * along with the view.
+	 */
+	private static class ViewHolder {
+
+		final PublicAccessRow row = new PublicAccessRow();
+		final TextView name;
+		final TextView county;
+		final TextView directions;
+		final TextView distance;
+
+		ViewHolder(View v) {
+
+			name = (TextView) v.findViewById(R.id.publicAccessViewName);
+			county = (TextView) v.findViewById(R.id.publicAccessViewCounty);
+			directions = (TextView) v.findViewById(R.id.publicAccessViewDirections);
+			distance = (TextView) v.findViewById(R.id.publicAccessViewDistance);
+		}
+	}
+
+	/**
+	 * The distance and bearing from a location to every row of a list.
+	 */
+	private static class RowDistances {
+
+		final PublicAccessList list;
+		final float[] distances;
+		final float[] bearings;
+		boolean changed;
+
+		RowDistances(PublicAccessList list, int size) {
+
+			this.list = list;
+			distances = new float[size];
+			bearings = new float[size];
+		}
+
+		/**
+		 * Renumber the distances to an updated list.  The rows which changed
+		 * have no distance until they are computed again.
+		 */
+		RowDistances remap(PublicAccessList l, int[] rowMap, BitSet changed) {
+
+			RowDistances result = new RowDistances(l, l.engine.size());
+			Arrays.fill(result.distances, Float.NaN);
+			Arrays.fill(result.bearings, Float.NaN);
+			for (int i = 0; i < rowMap.length; i++) {
+				int row = rowMap[i];
+				if (row < 0 || changed.get(row)) continue;
+				result.distances[row] = distances[i];
+				result.bearings[row] = bearings[i];
+			}
+			return result;
+		}
+
+		/**
+		 * Check if every row would be displayed the same way with another set
+		 * of distances.
+		 */
+		boolean displaysSameAs(RowDistances other) {
+
+			for (int i = 0; i < distances.length; i++) {
+				if (Float.isNaN(distances[i]) != Float.isNaN(other.distances[i])) return false;
+				if (Float.isNaN(distances[i])) continue;
+				if (DistanceEngine.distanceStep(distances[i]) != DistanceEngine.distanceStep(other.distances[i]) ||
+						DistanceEngine.bearingStep(bearings[i]) != DistanceEngine.bearingStep(other.bearings[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * The result of a filter run, tagged with the generation of the list, the
+	 * query, the facet selection and the location it was computed for.
+	 */
+	private static class FilteredRows {
+
+		final long generation;
+		final String query;
+		final Map<FacetIndex.Facet, Set<String>> selection;
+		final Location location;
+		final int[] rows;
+
+		FilteredRows(long generation, String query, Map<FacetIndex.Facet, Set<String>> selection, Location location, int[] rows) {
+
+			this.generation = generation;
+			this.query = query;
+			this.selection = selection;
+			this.location = location;
+			this.rows = rows;
+		}
+	}
+
 	private class PublicAccessFilter extends Filter {
 
+		/**
+		 * How many rows are checked between checks for a newer query.
+		 */
+		private static final int CANCEL_CHECK_INTERVAL = 256;
+
+		// The previous results are only used on the filter thread.  They are
+		// the text matches before the facets are applied.  Fuzzy results
+		// aren't kept since they can't be refined.
+		private PublicAccessList lastList;
+		private String lastQuery = "";
+		private int[] lastRows;
+
 		@Override
 		protected FilterResults performFiltering(CharSequence query) {
 
+			long start = FILTER_TIMER.start();
+			try {
+				FilterResults results = filterRows(query);
+				if (results.values == null) {
+					STALE_FILTERS.increment();
+				} else if (results.count >= 0) {
+					FILTER_RESULTS.record(results.count);
+				}
+				return results;
+			} finally {
+				FILTER_TIMER.stop(start);
+			}
+		}
+
+		private FilterResults filterRows(CharSequence query) {
+
 			FilterResults results = new FilterResults();
-			String queryStr = normalize(query);
-			Log.v(TAG, "Filtering: " + queryStr);
+			String queryStr = SearchKeys.normalize(query);
+			if (BuildConfig.DEBUG) Log.v(TAG, "Filtering: " + queryStr);
 
-			List<PublicAccess> out = new ArrayList<PublicAccess>();
-			if (queryStr.isEmpty()) {
-				out.addAll(original);
-			} else {
-				for (PublicAccess access : new ArrayList<PublicAccess>(original)) {
-					if (normalize(access.getLake()).contains(queryStr) || normalize(access.getName()).contains(queryStr)) {
-						out.add(access);
+			final PublicAccessList l = list;
+			final Map<FacetIndex.Facet, Set<String>> selection = facetSelection;
+			final Location location = nearMode ? PublicAccessAdapter.this.location : null;
+			int[] out = null;
+			int count = 0;
+			boolean fuzzy = false;
+			if (!queryStr.isEmpty() && l != null) {
+				// When the query extends the previous one only the previous
+				// matches need to be checked again.
+				int[] candidates = null;
+				int candidateCount = l.size();
+				if (l == lastList && queryStr.startsWith(lastQuery) && lastRows != null) {
+					candidates = lastRows;
+					candidateCount = lastRows.length;
+				}
+
+				char[] q = queryStr.toCharArray();
+				if (candidates == null && q.length >= TrigramIndex.MIN_QUERY_LENGTH) {
+					// Longer queries are answered by the trigram index.
+					out = new int[l.size()];
+					count = l.index.search(q, q.length, out);
+				} else {
+					// The search keys were computed when the list was loaded,
+					// so matching doesn't need the database or allocate per row.
+					out = new int[candidateCount];
+					for (int i = 0; i < candidateCount; i++) {
+						if (i % CANCEL_CHECK_INTERVAL == 0 && isStale(queryStr)) return results;
+						int row = candidates == null ? i : candidates[i];
+						if (l.keys.contains(row, q, q.length)) out[count++] = row;
 					}
 				}
+				out = Arrays.copyOf(out, count);
+
+				// When nothing contains the query it may be misspelled, so
+				// show the closest names instead.
+				if (count == 0) {
+					out = l.getFuzzyIndex().search(queryStr);
+					count = out.length;
+					fuzzy = count > 0;
+				}
+			}
+			lastList = l;
+			lastQuery = queryStr;
+			lastRows = fuzzy ? null : out;
+
+			// The facets are combined as bit sets, so only the text matches
+			// need to be checked against them.
+			BitSet mask = l == null ? null : l.facets.select(selection);
+			if (mask != null) {
+				if (out == null) {
+					out = new int[mask.cardinality()];
+					count = 0;
+					for (int row = mask.nextSetBit(0); row >= 0; row = mask.nextSetBit(row + 1)) {
+						out[count++] = row;
+					}
+				} else {
+					int matches = 0;
+					for (int i = 0; i < count; i++) {
+						if (mask.get(out[i])) matches++;
+					}
+					int[] masked = new int[matches];
+					matches = 0;
+					for (int i = 0; i < count; i++) {
+						if (mask.get(out[i])) masked[matches++] = out[i];
+					}
+					out = masked;
+					count = matches;
+				}
 			}
-			results.values = out;
-			results.count = out.size();
-			return results;
-		}
 
-		private String normalize(CharSequence str) {
+			// Rank the matches by distance using the spatial grid.
+			if (location != null && l != null) {
+				BitSet allowed = mask;
+				if (out != null) {
+					allowed = new BitSet(l.size());
+					for (int i = 0; i < count; i++) {
+						allowed.set(out[i]);
+					}
+				}
+				int[] nearest = new int[NEAREST_COUNT];
+				count = l.grid.nearest(location.getLatitude(), location.getLongitude(), allowed, nearest, new double[NEAREST_COUNT]);
+				out = Arrays.copyOf(nearest, count);
+			}
 
-			return str == null?"":str.toString().toLowerCase().replaceAll("[^a-z0-9]", "");
+			results.values = new FilteredRows(l == null ? -1 : l.generation, queryStr, selection, location, out);
+			results.count = out == null ? -1 : count;
+			return results;
 		}
 
 		@Override
-		@SuppressWarnings("unchecked")
 		protected void publishResults(CharSequence charSequence, FilterResults filterResults) {
 
 			if (filterResults == null || filterResults.values == null) return;
-			fitems = (List<PublicAccess>) filterResults.values;
+			FilteredRows filtered = (FilteredRows) filterResults.values;
 
-			clear();
-			for (PublicAccess access : fitems) {
-				add(access);
-			}
+			// Ignore results computed against a list which has been replaced
+			// or for a query which has since been changed.
+			PublicAccessList l = list;
+			if (filtered.generation != (l == null ? -1 : l.generation) || isStale(filtered.query) || filtered.selection != facetSelection ||
+					filtered.location != (nearMode ? location : null)) return;
+			boolean anchored = onUpdateListener != null && filtered.generation == anchoredGeneration;
+			anchoredGeneration = -1;
+			if (Arrays.equals(rows, filtered.rows)) return;
+			if (anchored) onUpdateListener.onBeforeUpdate();
+			rows = filtered.rows;
+			notifyDataSetChanged();
+			if (anchored) onUpdateListener.onUpdate();
+		}
+
+		private boolean isStale(String queryStr) {
+
+			return !latestQuery.equals(queryStr);
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,117 @@
+package com.wheelermarine.publicAccessSites;
+
+import android.annotation.TargetApi;
+import android.app.Application;
+import android.content.Context;
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+import android.view.ViewConfiguration;
+import com.wheelermarine.publicAccessSites.metrics.Metrics;
+import com.wheelermarine.publicAccessSites.metrics.Timer;
+
+import java.lang.reflect.Field;
+
+/**
+ * <p>
+ * This class sets up the parts of the application shared by every screen
+ * before any of them are created.  The timers in the metrics registry are
+ * marked as sections of the system trace on devices which support it.
+ * </p>
+ * <p>
+ * Nothing else is done here because it delays the first frame of every cold
+ * start.  The time the process started is kept so the first screen can
+ * measure how long a cold start took.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class PublicAccessApplication extends Application {
+
+	private static final String TAG = "PublicAccesses.Application";
+
+	/**
+	 * When the process was created, in <code>Timer.now()</code> nanoseconds,
+	 * or 0 once a screen has measured the cold start.
+	 */
+	private static long processStart;
+	private static boolean overflowMenuForced;
+
+	@Override
+	public void onCreate() {
+
+		processStart = Timer.now();
+		super.onCreate();
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) Metrics.setTracer(new SystemTracer());
+	}
+
+	/**
+	 * Get when the process was created the first time this is called, so a
+	 * cold start is only measured by the first screen to be drawn.  Must be
+	 * called from the UI thread.
+	 *
+	 * @return the start of the process, or 0 if it has already been taken.
+	 */
+	static long takeProcessStart() {
+
+		long start = processStart;
+		processStart = 0;
+		return start;
+	}
+
+	/**
+	 * Show the overflow menu in the action bar even on devices with a menu
+	 * button.  The flag is shared by every screen so it is only changed once.
+	 * Must be called from the UI thread.
+	 *
+	 * @param context any context.
+	 * @return <code>true</code> if the flag was changed, so menus which
+	 * have already been created should be created again.
+	 */
+	static boolean forceOverflowMenu(Context context) {
+
+		if (overflowMenuForced) return false;
+		overflowMenuForced = true;
+		try {
+			ViewConfiguration config = ViewConfiguration.get(context);
+			if (!config.hasPermanentMenuKey()) return false;
+			Field menuKey = ViewConfiguration.class.getDeclaredField("sHasPermanentMenuKey");
+			if (menuKey != null) {
+				menuKey.setAccessible(true);
+				menuKey.setBoolean(config, false);
+				return true;
+			}
+		} catch (Exception e) {
+			Log.v(TAG, "Error updating menu button.", e);
+		}
+		return false;
+	}
+
+	/**
+	 * This class marks the sections with <code>android.os.Trace</code> so they
+	 * show up in systrace.
+	 */
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+	private static class SystemTracer implements Metrics.Tracer {
+
+		/**
+		 * Section names longer than this are rejected by the platform.
+		 */
+		private static final int MAX_NAME_LENGTH = 127;
+
+		@Override
+		public void begin(String name) {
+
+			Trace.beginSection(name.length() > MAX_NAME_LENGTH ? name.substring(0, MAX_NAME_LENGTH) : name);
+		}
+
+		@Override
+		public void end() {
+
+			Trace.endSection();
+		}
+	}
+}
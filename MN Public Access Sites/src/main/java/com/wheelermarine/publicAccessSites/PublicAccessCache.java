@@ -0,0 +1,146 @@
+package com.wheelermarine.publicAccessSites;
+
+import android.util.LruCache;
+import com.wheelermarine.publicAccessSites.metrics.Counter;
+import com.wheelermarine.publicAccessSites.metrics.Metrics;
+import com.wheelermarine.publicAccessSites.store.ChangeSet;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * This class caches recently loaded public accesses so that moving between
+ * the list and detail screens doesn't go back to the database every time.
+ * The cache is bounded by the approximate memory used by the cached public
+ * accesses.  Every time new data is committed the generation is incremented,
+ * which prevents loads which started before the commit from being cached.
+ * An update only evicts the public accesses it changed.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+class PublicAccessCache {
+
+	private static final int MAX_SIZE = 256 * 1024;
+	private static final int MAX_RECORD_NUMBERS = 512;
+	private static final Counter HITS = Metrics.counter("db.cache.hits");
+	private static final Counter MISSES = Metrics.counter("db.cache.misses");
+
+	private final LruCache<Long, PublicAccess> byId = new LruCache<Long, PublicAccess>(MAX_SIZE) {
+		@Override
+		protected int sizeOf(Long key, PublicAccess value) {
+
+			return estimateSize(value);
+		}
+	};
+	private final LruCache<Integer, Long> idsByRecordNumber = new LruCache<Integer, Long>(MAX_RECORD_NUMBERS);
+	private final AtomicInteger generation = new AtomicInteger();
+
+	/**
+	 * Get the current generation.  This must be read before loading a public
+	 * access from the database and passed to <code>put</code> afterwards.
+	 *
+	 * @return the current generation.
+	 */
+	int getGeneration() {
+
+		return generation.get();
+	}
+
+	PublicAccess getById(long id) {
+
+		return count(byId.get(id));
+	}
+
+	PublicAccess getByRecordNumber(int recordNumber) {
+
+		Long id = idsByRecordNumber.get(recordNumber);
+		return count(id == null ? null : byId.get(id));
+	}
+
+	/**
+	 * Add a public access to the cache.  The public access is discarded if the
+	 * cache has been invalidated since it was loaded.
+	 *
+	 * @param loadedGeneration the generation when the load started.
+	 * @param access           the public access which was loaded.
+	 */
+	synchronized void put(int loadedGeneration, PublicAccess access) {
+
+		if (access == null || loadedGeneration != generation.get()) return;
+		byId.put(access.getId(), access);
+		idsByRecordNumber.put(access.getRecordNumber(), access.getId());
+	}
+
+	synchronized void remove(long id) {
+
+		byId.remove(id);
+	}
+
+	/**
+	 * Discard the cached public accesses which an update changed and start a
+	 * new generation.  Record numbers shift whenever a record is added or
+	 * removed, so they are all discarded.
+	 *
+	 * @param changes the changes which were committed.
+	 */
+	synchronized void apply(ChangeSet changes) {
+
+		generation.incrementAndGet();
+		evict(changes.getModified());
+		evict(changes.getRemoved());
+		evict(changes.getMoved());
+		evict(changes.getRenumbered());
+		idsByRecordNumber.evictAll();
+	}
+
+	private void evict(long[] ids) {
+
+		for (long id : ids) {
+			byId.remove(id);
+		}
+	}
+
+	/**
+	 * Discard every cached public access and start a new generation.
+	 */
+	synchronized void invalidate() {
+
+		generation.incrementAndGet();
+		byId.evictAll();
+		idsByRecordNumber.evictAll();
+	}
+
+	long getHitCount() {
+
+		return HITS.getCount();
+	}
+
+	long getMissCount() {
+
+		return MISSES.getCount();
+	}
+
+	private PublicAccess count(PublicAccess access) {
+
+		if (access == null) {
+			MISSES.increment();
+		} else {
+			HITS.increment();
+		}
+		return access;
+	}
+
+	/**
+	 * Estimate the number of bytes of heap used by a public access.
+	 */
+	private static int estimateSize(PublicAccess access) {
+
+		int chars = access.getName().length() + access.getLaunch().length() + access.getRamp().length() +
+				access.getDirections().length() + access.getLake().length() + access.getCounty().length();
+		return 96 + 6 * 40 + 2 * chars;
+	}
+}
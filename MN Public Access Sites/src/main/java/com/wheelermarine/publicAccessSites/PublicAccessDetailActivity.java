@@ -6,24 +6,26 @@ import android.app.Dialog;
 import android.content.Context;
 import android.content.Intent;
 import android.location.Location;
-import android.location.LocationManager;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.view.ViewConfiguration;
+import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.TextView;
+import android.widget.Toast;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesUtil;
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.MapFragment;
-import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.MarkerOptions;
-
-import java.lang.reflect.Field;
+import com.wheelermarine.publicAccessSites.geo.DistanceEngine;
+import com.wheelermarine.publicAccessSites.metrics.Metrics;
+import com.wheelermarine.publicAccessSites.metrics.Timer;
 
 /**
  * <p>
@@ -34,33 +36,170 @@ import java.lang.reflect.Field;
 public class PublicAccessDetailActivity extends Activity {
 
 	private static final String TAG = "PublicAccesses.PublicAccessDetailActivity";
+	private static final String EXTRA_ACCESS = "access";
+	private static final String EXTRA_ID = "id";
+	private static final String STATE_ACCESS = "access";
+	private static final Timer LOAD_TIMER = Metrics.timer("detail.load");
+	private static final Timer FIRST_DRAW_TIMER = Metrics.timer("detail.firstDraw");
+	private static final Timer SHOW_TIMER = Metrics.timer("detail.show");
+	private static final Timer MAP_TIMER = Metrics.timer("detail.map");
+
+	/**
+	 * How far the location must move before the distance is computed again,
+	 * in meters.
+	 */
+	private static final float LOCATION_DISTANCE = 10;
 
 	private PublicAccess access;
+	private GoogleMap map;
+	private final Handler handler = new Handler();
+	private final LocationTracker.Listener locationListener = new LocationTracker.Listener() {
+		@Override
+		public void onLocationChanged(Location location) {
+
+			showDistance(location);
+		}
+	};
+
+	/**
+	 * Create an intent which shows a public access.  The public access is
+	 * passed along so it can be displayed without waiting for the database.
+	 *
+	 * @param context the context starting the activity.
+	 * @param access  the public access to show.
+	 * @return the intent.
+	 */
+	public static Intent newIntent(Context context, PublicAccess access) {
+
+		Intent intent = new Intent(context, PublicAccessDetailActivity.class);
+		intent.putExtra(EXTRA_ID, access.getId());
+		intent.putExtra(EXTRA_ACCESS, access);
+		return intent;
+	}
 
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		final long createStart = Timer.now();
 
 		setContentView(R.layout.public_access_detail);
 
-		try {
-			ViewConfiguration config = ViewConfiguration.get(this);
-			Field menuKey = ViewConfiguration.class.getDeclaredField("sHasPermanentMenuKey");
-			if (menuKey != null) {
-				menuKey.setAccessible(true);
-				menuKey.setBoolean(config, false);
-			}
-		} catch (Exception e) {
-			Log.v(TAG, "Error updating menu button.", e);
-		}
+		PublicAccessApplication.forceOverflowMenu(this);
 
 		ActionBar actionBar = getActionBar();
 		if (actionBar != null) actionBar.setDisplayHomeAsUpEnabled(true);
 
-		long id = getIntent().getLongExtra("id", -1);
-		Log.v(TAG, "Access ID: " + id);
-		DatabaseHelper db = new DatabaseHelper(getApplicationContext());
-		access = db.getPublicAccess(id);
-		db.close();
+		// Show whatever was passed in right away, the whole row is only
+		// loaded if all we have is the summary from the list.
+		PublicAccess initial = savedInstanceState == null ? null : (PublicAccess) savedInstanceState.getParcelable(STATE_ACCESS);
+		if (initial == null) initial = getIntent().getParcelableExtra(EXTRA_ACCESS);
+		if (initial != null) show(initial);
+		if (initial == null || initial.isSummary()) {
+			load(getIntent().getLongExtra(EXTRA_ID, -1), createStart);
+		} else {
+			LOAD_TIMER.recordSince(createStart);
+		}
+
+		// The map is the slowest part of the screen to create, so it is only
+		// added once the details have been drawn.
+		final View root = getWindow().getDecorView();
+		root.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+			@Override
+			public boolean onPreDraw() {
+
+				root.getViewTreeObserver().removeOnPreDrawListener(this);
+				FIRST_DRAW_TIMER.recordSince(createStart);
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+
+						if (!isFinishing()) createMap();
+					}
+				});
+				return true;
+			}
+		});
+	}
+
+	@Override
+	protected void onResume() {
+
+		super.onResume();
+		LocationTracker.getInstance(this).addListener(locationListener, LOCATION_DISTANCE);
+	}
+
+	@Override
+	protected void onPause() {
+
+		LocationTracker.getInstance(this).removeListener(locationListener);
+		super.onPause();
+	}
+
+	@Override
+	protected void onSaveInstanceState(Bundle outState) {
+
+		super.onSaveInstanceState(outState);
+		if (access != null) outState.putParcelable(STATE_ACCESS, access);
+	}
+
+	@Override
+	protected void onDestroy() {
+
+		PublicAccessRepository.getInstance(this).cancelAll(this);
+		handler.removeCallbacksAndMessages(null);
+		super.onDestroy();
+	}
+
+	/**
+	 * Load the whole public access from the database in the background.
+	 *
+	 * @param id    the ID of the public access.
+	 * @param start when the screen was created, for the load timer.
+	 */
+	private void load(long id, final long start) {
+
+		if (BuildConfig.DEBUG) Log.v(TAG, "Access ID: " + id);
+		PublicAccessRepository.getInstance(this).loadPublicAccess(this, id, new PublicAccessRepository.Callback<PublicAccess>() {
+			@Override
+			public void onResult(PublicAccess result) {
+
+				LOAD_TIMER.recordSince(start);
+				if (result != null) {
+					show(result);
+				} else if (access == null) {
+					Toast.makeText(PublicAccessDetailActivity.this, "Public access not found.", Toast.LENGTH_LONG).show();
+					finish();
+				}
+			}
+
+			@Override
+			public void onError(Exception e) {
+
+				Toast.makeText(PublicAccessDetailActivity.this, "Error loading public access: " + e.getLocalizedMessage(), Toast.LENGTH_LONG).show();
+			}
+		});
+	}
+
+	/**
+	 * Display a public access.  This is called again if the whole row is
+	 * loaded after a summary has been shown.
+	 *
+	 * @param access the public access to display.
+	 */
+	private void show(PublicAccess access) {
+
+		long start = SHOW_TIMER.start();
+		try {
+			showDetails(access);
+		} finally {
+			SHOW_TIMER.stop(start);
+		}
+	}
+
+	private void showDetails(PublicAccess access) {
+
+		boolean moved = this.access == null || this.access.getLatitude() != access.getLatitude() ||
+				this.access.getLongitude() != access.getLongitude();
+		this.access = access;
 
 		TextView name = (TextView) getWindow().findViewById(R.id.publicAccessName);
 		name.setText(access.getName());
@@ -80,82 +219,84 @@ public class PublicAccessDetailActivity extends Activity {
 		TextView directions = (TextView) getWindow().findViewById(R.id.publicAccessDirections);
 		directions.setText(access.getDirections());
 
-		int status = GooglePlayServicesUtil.isGooglePlayServicesAvailable(getBaseContext());
-		if (status != ConnectionResult.SUCCESS) {
-			Dialog dialog = GooglePlayServicesUtil.getErrorDialog(status, this, 10);
-			dialog.show();
-		} else {
-			// Load the map type from the user's preferences. The default is normal.
-			android.content.SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
-			String mapTypeStr = prefs.getString("mapType", String.valueOf(GoogleMap.MAP_TYPE_NORMAL));
-			if (mapTypeStr == null || !mapTypeStr.matches("[0-9]+")) mapTypeStr = String.valueOf(GoogleMap.MAP_TYPE_NORMAL);
-			int mapType = Integer.parseInt(mapTypeStr);
-
-			MapFragment mapFragment = (MapFragment) getFragmentManager().findFragmentById(R.id.map);
-			if (mapFragment != null) {
-				GoogleMap map = mapFragment.getMap();
-				map.setMyLocationEnabled(true);
-				map.setMapType(mapType);
-				map.moveCamera(CameraUpdateFactory.newLatLngZoom(access.getLatLon(), 13));
-				map.addMarker(new MarkerOptions().title(access.getName()).snippet(access.getLake()).position(access.getLatLon()));
-			}
+		if (moved) {
+			showOnMap();
+			showDistance(LocationTracker.getInstance(this).getLocation());
 		}
+	}
 
-		LocationManager locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
-		if (locationManager != null) {
-			// First try and get the last known GPS position.
-			Location location = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER);
-
-			// If GPS wasn't found try the last known network location.
-			if (location == null) location = locationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
+	/**
+	 * Display the distance and direction to the public access.  The text is
+	 * only replaced when it changes.
+	 *
+	 * @param location the current location, or <code>null</code> if it isn't
+	 *                 known.
+	 */
+	private void showDistance(Location location) {
 
-			if (location != null) {
-				TextView distance = (TextView) getWindow().findViewById(R.id.publicAccessDistance);
-				distance.setText(formatDistance(location.distanceTo(access.getLocation())) + " " + formatBearing(location.bearingTo(access.getLocation())));
-			} else {
-				TextView distance = (TextView) getWindow().findViewById(R.id.publicAccessDistance);
-				distance.setText("-");
-			}
+		if (access == null) return;
+		String text = "-";
+		if (location != null) {
+			Location target = access.getLocation();
+			text = DistanceEngine.formatDistance(location.distanceTo(target)) + " " + DistanceEngine.formatBearing(location.bearingTo(target));
 		}
+		TextView distance = (TextView) getWindow().findViewById(R.id.publicAccessDistance);
+		if (!text.contentEquals(distance.getText())) distance.setText(text);
 	}
 
-	private String formatDistance(double meters) {
-
-		double miles = meters * 0.00062137;
-		if (miles <= 0.25) {
-			return "< 1/4 mile";
-		} else if (miles <= 0.5) {
-			return "< 1/2 mile";
-		} else if (miles <= 0.75) {
-			return "< 3/4 mile";
-		} else if (miles <= 1) {
-			return "< 1 mile";
+	/**
+	 * Check for Google Play services and add the map fragment.  A fragment
+	 * restored along with the activity is reused.
+	 */
+	private void createMap() {
+
+		long start = MAP_TIMER.start();
+		try {
+			createMapFragment();
+		} finally {
+			MAP_TIMER.stop(start);
 		}
-		return ((int) miles) + " miles";
 	}
 
-	private String formatBearing(double degrees) {
-
-		double d = (360 + degrees) % 360;
-		if (337.5 <= d || d <= 22.5) {
-			return "N";
-		} else if (22.5 <= d && d <= 67.5) {
-			return "NE";
-		} else if (67.5 <= d && d <= 112.5) {
-			return "E";
-		} else if (112.5 <= d && d <= 157.5) {
-			return "SE";
-		} else if (157.5 <= d && d <= 202.5) {
-			return "S";
-		} else if (202.5 <= d && d <= 247.5) {
-			return "SW";
-		} else if (247.5 <= d && d <= 292.5) {
-			return "W";
-		} else if (292.5 <= d && d <= 337.5) {
-			return "NW";
-		} else {
-			throw new IllegalArgumentException("This should never happen!");
+	private void createMapFragment() {
+
+		int status = GooglePlayServicesUtil.isGooglePlayServicesAvailable(getBaseContext());
+		if (status != ConnectionResult.SUCCESS) {
+			Dialog dialog = GooglePlayServicesUtil.getErrorDialog(status, this, 10);
+			dialog.show();
+			return;
 		}
+
+		MapFragment mapFragment = (MapFragment) getFragmentManager().findFragmentById(R.id.map);
+		if (mapFragment == null) {
+			mapFragment = MapFragment.newInstance();
+			getFragmentManager().beginTransaction().add(R.id.map, mapFragment).commit();
+			getFragmentManager().executePendingTransactions();
+		}
+		map = mapFragment.getMap();
+		if (map == null) {
+			Log.e(TAG, "Unable to create the map.");
+			return;
+		}
+
+		// Load the map type from the user's preferences. The default is normal.
+		android.content.SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+		String mapTypeStr = prefs.getString("mapType", String.valueOf(GoogleMap.MAP_TYPE_NORMAL));
+		if (mapTypeStr == null || !mapTypeStr.matches("[0-9]+")) mapTypeStr = String.valueOf(GoogleMap.MAP_TYPE_NORMAL);
+		map.setMyLocationEnabled(true);
+		map.setMapType(Integer.parseInt(mapTypeStr));
+		showOnMap();
+	}
+
+	/**
+	 * Mark the public access on the map once both are available.
+	 */
+	private void showOnMap() {
+
+		if (map == null || access == null) return;
+		map.clear();
+		map.moveCamera(CameraUpdateFactory.newLatLngZoom(access.getLatLon(), 13));
+		map.addMarker(new MarkerOptions().title(access.getName()).snippet(access.getLake()).position(access.getLatLon()));
 	}
 
 	@Override
@@ -167,6 +308,12 @@ public class PublicAccessDetailActivity extends Activity {
 
 		MenuItem updateItem = menu.findItem(R.id.action_update);
 		if (updateItem != null) updateItem.setVisible(false);
+
+		MenuItem filterItem = menu.findItem(R.id.action_filter);
+		if (filterItem != null) filterItem.setVisible(false);
+
+		MenuItem nearItem = menu.findItem(R.id.action_near_me);
+		if (nearItem != null) nearItem.setVisible(false);
 		return super.onCreateOptionsMenu(menu);
 	}
 
@@ -176,7 +323,7 @@ public class PublicAccessDetailActivity extends Activity {
 		Log.v(TAG, "Selected: " + item.getItemId());
 		if (item.getItemId() == R.id.action_settings) {
 			startActivity(new Intent(getApplicationContext(), SettingsActivity.class));
-		} else if (item.getItemId() == R.id.action_view_map) {
+		} else if (item.getItemId() == R.id.action_view_map && access != null) {
 			String uri = String.format("geo:%1$f,%2$f?q=%1$f,%2$f(%3$s)", access.getLatitude(), access.getLongitude(), Uri.encode(access.getName().replace("(", "").replace(")", "")));
 			startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(uri)));
 		}
@@ -0,0 +1,393 @@
+package com.wheelermarine.publicAccessSites;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import com.wheelermarine.publicAccessSites.geo.DistanceEngine;
+import com.wheelermarine.publicAccessSites.geo.SpatialGrid;
+import com.wheelermarine.publicAccessSites.metrics.Metrics;
+import com.wheelermarine.publicAccessSites.metrics.Timer;
+import com.wheelermarine.publicAccessSites.search.FacetIndex;
+import com.wheelermarine.publicAccessSites.search.FuzzyIndex;
+import com.wheelermarine.publicAccessSites.search.SearchIndexFile;
+import com.wheelermarine.publicAccessSites.search.SearchKeys;
+import com.wheelermarine.publicAccessSites.search.TrigramIndex;
+import com.wheelermarine.publicAccessSites.store.ChangeSet;
+import com.wheelermarine.publicAccessSites.store.SiteStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * This class holds a loaded list of public accesses.  The list columns are
+ * read into a <code>SiteStore</code> in a single pass and the cursor is
+ * closed, so the rows are displayed from a few compact arrays rather than a
+ * cursor window.  The search keys and index used for filtering are memory
+ * mapped from the search index file written by the updater.  If the file is
+ * missing or doesn't match the database they are built during the same pass
+ * instead.  The facet index is built during the pass as well, and the
+ * spatial grid and distance engine share the store's location arrays.
+ * Rows are identified by their position in the store.
+ * </p>
+ * <p>
+ * A list is an immutable snapshot of the database, numbered by the order in
+ * which the loads were started.  Any number of threads can read it without
+ * locks, and when the database changes a new list is loaded and swapped in
+ * rather than the old one being modified.  After an update the new list is
+ * derived from the previous one and the update's change set: only the added
+ * and modified rows are loaded, and the search keys, trigram index, spatial
+ * grid and distance engine are renumbered rather than built again.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+class PublicAccessList {
+
+	private static final String TAG = "PublicAccesses.PublicAccessList";
+	private static final Timer LOAD_TIMER = Metrics.timer("list.load");
+	private static final Timer UPDATE_TIMER = Metrics.timer("list.update");
+	private static final Timer INDEX_TIMER = Metrics.timer("update.index");
+
+	final long generation;
+	final SiteStore store;
+	final SearchKeys keys;
+	final TrigramIndex index;
+	final FacetIndex facets;
+	final SpatialGrid grid;
+	final DistanceEngine engine;
+	private FuzzyIndex fuzzy;
+
+	/**
+	 * The result of applying a change set to a list.
+	 */
+	static class Update {
+
+		final PublicAccessList previous;
+		final PublicAccessList list;
+
+		/**
+		 * The row of the new list for every row of the previous list, or -1
+		 * if it was removed or modified.  It is <code>null</code> if the list
+		 * was loaded again instead of being updated.
+		 */
+		final int[] rowMap;
+
+		/**
+		 * The rows of the new list which were added, modified or moved.
+		 */
+		final BitSet changed;
+
+		Update(PublicAccessList previous, PublicAccessList list, int[] rowMap, BitSet changed) {
+
+			this.previous = previous;
+			this.list = list;
+			this.rowMap = rowMap;
+			this.changed = changed;
+		}
+	}
+
+	private PublicAccessList(long generation, SiteStore store, SearchKeys keys, TrigramIndex index,
+	                         FacetIndex facets, SpatialGrid grid, DistanceEngine engine) {
+
+		this.generation = generation;
+		this.store = store;
+		this.keys = keys;
+		this.index = index;
+		this.facets = facets;
+		this.grid = grid;
+		this.engine = engine;
+	}
+
+	/**
+	 * Load the list of public accesses.  This must not be called from the UI
+	 * thread.
+	 *
+	 * @param db         the database to load the list from.
+	 * @param generation the number of the load, later loads have higher
+	 *                   numbers.
+	 * @return the list.
+	 */
+	static PublicAccessList load(DatabaseHelper db, long generation) {
+
+		long start = LOAD_TIMER.start();
+		try {
+			return loadCursor(db, generation);
+		} finally {
+			LOAD_TIMER.stop(start);
+		}
+	}
+
+	private static PublicAccessList loadCursor(DatabaseHelper db, long generation) {
+
+		SearchIndexFile file = mapSearchIndex(db.getSearchIndexFile());
+		SiteStore.Builder store;
+		SearchKeys.Builder keys = null;
+		SearchIndexFile.Stamp stamp = null;
+		FacetIndex.Builder facets = new FacetIndex.Builder();
+		Cursor cursor = db.getPublicAccessCursor(DatabaseHelper.PublicAccessEntry.LIST_COLUMNS);
+		try {
+			store = new SiteStore.Builder(cursor.getCount());
+			if (file == null) keys = new SearchKeys.Builder(cursor.getCount());
+			else stamp = new SearchIndexFile.Stamp();
+			addRows(cursor, store, keys, stamp, facets);
+		} finally {
+			cursor.close();
+		}
+
+		SiteStore sites = store.build();
+		SpatialGrid grid = SpatialGrid.build(sites.getLatitudes(), sites.getLongitudes());
+		DistanceEngine engine = new DistanceEngine(sites.getLatitudes(), sites.getLongitudes());
+		if (file != null && file.size() == sites.size() && file.getStamp() == stamp.get()) {
+			return new PublicAccessList(generation, sites, file.getKeys(), file.getIndex(), facets.build(), grid, engine);
+		}
+		if (keys == null) {
+			Log.w(TAG, "The search index doesn't match the database, rebuilding it.");
+			keys = new SearchKeys.Builder(sites.size());
+			for (int row = 0; row < sites.size(); row++) keys.add(sites.getName(row), sites.getLake(row));
+		}
+		SearchKeys searchKeys = keys.build();
+		return new PublicAccessList(generation, sites, searchKeys, TrigramIndex.build(searchKeys), facets.build(), grid, engine);
+	}
+
+	/**
+	 * Add the rows of a cursor over the list columns.
+	 *
+	 * @param keys   receives the search keys, or <code>null</code> if they
+	 *               aren't needed.
+	 * @param stamp  receives the stamp of the rows, or <code>null</code> if
+	 *               it isn't needed.
+	 * @param facets receives the facet values, or <code>null</code> if they
+	 *               aren't needed.
+	 */
+	private static void addRows(Cursor cursor, SiteStore.Builder store, SearchKeys.Builder keys, SearchIndexFile.Stamp stamp,
+	                            FacetIndex.Builder facets) {
+
+		PublicAccessMapper mapper = new PublicAccessMapper(cursor);
+		while (cursor.moveToNext()) {
+			String name = PublicAccess.value(mapper.getString(cursor, mapper.name));
+			String lake = PublicAccess.value(mapper.getString(cursor, mapper.lake));
+			String county = PublicAccess.value(mapper.getString(cursor, mapper.county));
+			String launch = PublicAccess.value(mapper.getString(cursor, mapper.launch));
+			String ramp = PublicAccess.value(mapper.getString(cursor, mapper.ramp));
+			int ramps = mapper.getInt(cursor, mapper.ramps);
+			int docks = mapper.getInt(cursor, mapper.docks);
+			long id = mapper.getLong(cursor, mapper.id);
+			store.add(id, name, lake, county, launch, ramp, ramps, docks,
+					mapper.getDouble(cursor, mapper.latitude), mapper.getDouble(cursor, mapper.longitude),
+					PublicAccess.value(mapper.getString(cursor, mapper.directions)));
+			if (keys != null) keys.add(name, lake);
+			if (stamp != null) stamp.add(id, name, lake);
+			if (facets != null) facets.add(county, ramp, launch, ramps, docks);
+		}
+	}
+
+	/**
+	 * Apply the changes of an update to a list.  Only the added and modified
+	 * rows are loaded from the database, every other row is copied from the
+	 * previous list.  This must not be called from the UI thread.
+	 *
+	 * @param db         the database the changes were committed to.
+	 * @param previous   the list to update.
+	 * @param changes    the changes.
+	 * @param generation the number of the load.
+	 * @return the update, or <code>null</code> if the list should be loaded
+	 * again instead.
+	 */
+	static Update update(DatabaseHelper db, PublicAccessList previous, ChangeSet changes, long generation) {
+
+		long start = UPDATE_TIMER.start();
+		try {
+			return updateRows(db, previous, changes, generation);
+		} finally {
+			UPDATE_TIMER.stop(start);
+		}
+	}
+
+	private static Update updateRows(DatabaseHelper db, PublicAccessList previous, ChangeSet changes, long generation) {
+
+		// Loading the rows one at a time only pays off for a small update.
+		SiteStore old = previous.store;
+		if (changes.getLoadCount() > old.size() / 4) return null;
+
+		long[] loadIds = new long[changes.getLoadCount()];
+		System.arraycopy(changes.getAdded(), 0, loadIds, 0, changes.getAdded().length);
+		System.arraycopy(changes.getModified(), 0, loadIds, changes.getAdded().length, changes.getModified().length);
+		SiteStore loaded = null;
+		Map<Long, Integer> loadedRows = new HashMap<Long, Integer>();
+		long[] order = null;
+		if (loadIds.length > 0) {
+			SiteStore.Builder builder = new SiteStore.Builder(loadIds.length);
+			Cursor cursor = db.getPublicAccessCursor(DatabaseHelper.PublicAccessEntry.LIST_COLUMNS, loadIds);
+			try {
+				addRows(cursor, builder, null, null, null);
+			} finally {
+				cursor.close();
+			}
+			loaded = builder.build();
+			for (int row = 0; row < loaded.size(); row++) loadedRows.put(loaded.getId(row), row);
+			// The new rows can go anywhere, so get the new order of the IDs.
+			order = db.getPublicAccessIds();
+		}
+
+		Merge merge = new Merge(previous, changes, old.size() + loadIds.length);
+		if (order == null) {
+			for (int row = 0; row < old.size(); row++) {
+				if (!changes.isRemoved(old.getId(row))) merge.keep(row);
+			}
+		} else {
+			Map<Long, Integer> oldRows = new HashMap<Long, Integer>(old.size() * 2);
+			for (int row = 0; row < old.size(); row++) oldRows.put(old.getId(row), row);
+			int last = -1;
+			for (long id : order) {
+				Integer row = loadedRows.get(id);
+				if (row != null) {
+					merge.add(loaded, row);
+					continue;
+				}
+				row = oldRows.get(id);
+				// The kept rows must stay in the same order for the indexes to
+				// be renumbered, which they do unless the database was changed
+				// by something other than the update.
+				if (row == null || row <= last) {
+					Log.w(TAG, "The database doesn't match the change set, loading the list again.");
+					return null;
+				}
+				merge.keep(row);
+				last = row;
+			}
+		}
+		return merge.build(generation);
+	}
+
+	/**
+	 * This class builds a list from the rows kept from a previous list and
+	 * the rows loaded for an update.
+	 */
+	private static class Merge {
+
+		private final PublicAccessList previous;
+		private final ChangeSet changes;
+		private final SiteStore.Builder store;
+		private final SearchKeys.Builder keys;
+		private final int[] rowMap;
+		private final BitSet added = new BitSet();
+		private final BitSet relocated = new BitSet();
+
+		Merge(PublicAccessList previous, ChangeSet changes, int expectedSize) {
+
+			this.previous = previous;
+			this.changes = changes;
+			store = new SiteStore.Builder(expectedSize);
+			keys = new SearchKeys.Builder(expectedSize);
+			rowMap = new int[previous.store.size()];
+			Arrays.fill(rowMap, -1);
+		}
+
+		/**
+		 * Copy a row of the previous list along with its search key, moving
+		 * it if its location changed.
+		 */
+		void keep(int row) {
+
+			int to = store.copy(previous.store, row);
+			keys.copy(previous.keys, row);
+			rowMap[row] = to;
+			int moved = changes.indexOfMoved(previous.store.getId(row));
+			if (moved >= 0) {
+				store.setLocation(to, changes.getMovedLatitude(moved), changes.getMovedLongitude(moved));
+				relocated.set(to);
+			}
+		}
+
+		/**
+		 * Add a row which was loaded from the database.
+		 */
+		void add(SiteStore loaded, int row) {
+
+			int to = store.copy(loaded, row);
+			keys.add(loaded.getName(row), loaded.getLake(row));
+			added.set(to);
+			relocated.set(to);
+		}
+
+		Update build(long generation) {
+
+			SiteStore sites = store.build();
+			SearchKeys searchKeys = keys.build();
+			FacetIndex facets = FacetIndex.update(previous.facets, sites, rowMap, added);
+			TrigramIndex index = TrigramIndex.update(previous.index, searchKeys, rowMap, added);
+			SpatialGrid grid = SpatialGrid.update(previous.grid, sites.getLatitudes(), sites.getLongitudes(), rowMap, relocated);
+			DistanceEngine engine = DistanceEngine.update(previous.engine, sites.getLatitudes(), sites.getLongitudes(), rowMap, relocated);
+			PublicAccessList list = new PublicAccessList(generation, sites, searchKeys, index, facets, grid, engine);
+			Log.v(TAG, "Updated the list to " + sites.size() + " public accesses, " + added.cardinality() + " loaded and " +
+					relocated.cardinality() + " relocated.");
+			return new Update(previous, list, rowMap, relocated);
+		}
+	}
+
+	/**
+	 * Map the search index file.
+	 *
+	 * @return the search index or <code>null</code> if it can't be used.
+	 */
+	private static SearchIndexFile mapSearchIndex(File file) {
+
+		if (!file.exists()) return null;
+		try {
+			return SearchIndexFile.map(file);
+		} catch (IOException e) {
+			Log.w(TAG, "Error mapping the search index.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Write the search keys and trigram index of the list to the search index
+	 * file, so the next load can map them instead of building them.  This
+	 * must not be called from the UI thread.
+	 *
+	 * @param file the search index file.
+	 * @throws IOException if there is an error writing the index.
+	 */
+	void writeSearchIndex(File file) throws IOException {
+
+		long start = INDEX_TIMER.start();
+		try {
+			long[] ids = new long[store.size()];
+			SearchIndexFile.Stamp stamp = new SearchIndexFile.Stamp();
+			for (int row = 0; row < ids.length; row++) {
+				ids[row] = store.getId(row);
+				stamp.add(ids[row], store.getName(row), store.getLake(row));
+			}
+			SearchIndexFile.write(file, stamp.get(), ids, keys, index);
+			Log.v(TAG, "Wrote search index for " + ids.length + " public accesses.");
+		} finally {
+			INDEX_TIMER.stop(start);
+		}
+	}
+
+	int size() {
+
+		return keys.size();
+	}
+
+	/**
+	 * Get the fuzzy index.  It is built the first time it is needed since
+	 * most searches don't use it.
+	 *
+	 * @return the fuzzy index.
+	 */
+	synchronized FuzzyIndex getFuzzyIndex() {
+
+		if (fuzzy == null) fuzzy = FuzzyIndex.build(keys);
+		return fuzzy;
+	}
+}
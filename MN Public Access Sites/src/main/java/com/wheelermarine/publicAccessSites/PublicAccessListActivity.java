@@ -1,9 +1,15 @@
 package com.wheelermarine.publicAccessSites;
 
+import android.annotation.TargetApi;
+import android.app.AlertDialog;
 import android.app.ListActivity;
+import android.content.DialogInterface;
 import android.content.Intent;
+import android.location.Location;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.*;
@@ -11,12 +17,31 @@ import android.widget.AdapterView;
 import android.widget.ListView;
 import android.widget.SearchView;
 import android.widget.Toast;
+import com.wheelermarine.publicAccessSites.metrics.Metrics;
+import com.wheelermarine.publicAccessSites.metrics.Timer;
+import com.wheelermarine.publicAccessSites.search.FacetIndex;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
+ * <p>
+ * Only the list itself is created before the first frame.  The public
+ * accesses are loaded in the background, and locating the device, changing
+ * the menu button and checking whether the database needs to be downloaded
+ * wait until the list has been drawn.  The time to the first frame and to
+ * the populated list are recorded for every start, and for cold starts also
+ * from when the process was created.  The populated list is reported to the
+ * system as fully drawn so <code>am start -W</code> and the
+ * <code>startup-benchmark.sh</code> script can measure it.
+ * </p>
+ * <p/>
  * <p>
  * Copyright 2013 Steven Wheeler<br/>
  * Released under the GPLv3 license, see LICENSE file for details.
@@ -25,46 +50,104 @@ import java.net.URL;
 public class PublicAccessListActivity extends ListActivity {
 
 	private static final String TAG = "MNPAS.ListActivity";
+	private static final String STATE_NEAR_ME = "nearMe";
+	private static final Timer FIRST_DRAW_TIMER = Metrics.timer("startup.firstDraw");
+	private static final Timer POPULATED_TIMER = Metrics.timer("startup.populated");
+	private static final Timer COLD_FIRST_DRAW_TIMER = Metrics.timer("startup.cold.firstDraw");
+	private static final Timer COLD_POPULATED_TIMER = Metrics.timer("startup.cold.populated");
+
+	/**
+	 * How far the location must move before the distances are computed and
+	 * the list is ranked again, in meters.  This is well under the smallest
+	 * step of the displayed distances.
+	 */
+	private static final float LOCATION_DISTANCE = 50;
 
 	private PublicAccessAdapter adapter;
+	private LocationTracker locationTracker;
+	private boolean nearMe;
+	private final Handler handler = new Handler();
+
+	/**
+	 * When the activity and the process were created, the process start is 0
+	 * unless this is a cold start.
+	 */
+	private long createStart;
+	private long processStart;
+	private boolean drawn;
+	private boolean populated;
+	private boolean databaseEmpty;
+	private boolean resumed;
+	private boolean locating;
+	private final LocationTracker.Listener locationListener = new LocationTracker.Listener() {
+		@Override
+		public void onLocationChanged(Location location) {
+
+			adapter.setLocation(location);
+		}
+	};
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 
 		super.onCreate(savedInstanceState);
+		createStart = Timer.now();
+		processStart = PublicAccessApplication.takeProcessStart();
 		setContentView(R.layout.public_access_list);
-
-		try {
-			ViewConfiguration config = ViewConfiguration.get(this);
-			Field menuKey = ViewConfiguration.class.getDeclaredField("sHasPermanentMenuKey");
-			if (menuKey != null) {
-				menuKey.setAccessible(true);
-				menuKey.setBoolean(config, false);
-			}
-		} catch (Exception e) {
-			Log.v(TAG, "Error updating menu button.", e);
-		}
+		locationTracker = LocationTracker.getInstance(this);
+		nearMe = savedInstanceState != null && savedInstanceState.getBoolean(STATE_NEAR_ME);
 
 		try {
 			ListView listView = getListView();
 
 			adapter = new PublicAccessAdapter(this, R.layout.public_access_text_view);
+			adapter.setOnLoadListener(new PublicAccessAdapter.OnLoadListener() {
+				@Override
+				public void onLoad(int count) {
+
+					if (!populated) onPopulated(count);
+				}
+			});
+			adapter.setOnUpdateListener(new PublicAccessAdapter.OnUpdateListener() {
+
+				// The public access at the top of the list and its offset.
+				private long anchorId = AdapterView.INVALID_ROW_ID;
+				private int anchorTop;
+
+				@Override
+				public void onBeforeUpdate() {
+
+					ListView listView = getListView();
+					View top = listView.getChildAt(0);
+					anchorId = top == null ? AdapterView.INVALID_ROW_ID : listView.getItemIdAtPosition(listView.getFirstVisiblePosition());
+					anchorTop = top == null ? 0 : top.getTop();
+				}
+
+				@Override
+				public void onUpdate() {
+
+					// Keep the same public access at the top of the list even
+					// if rows were added or removed above it.
+					if (anchorId == AdapterView.INVALID_ROW_ID) return;
+					int position = adapter.getPosition(anchorId);
+					if (position >= 0) getListView().setSelectionFromTop(position + getListView().getHeaderViewsCount(), anchorTop);
+				}
+			});
+			if (nearMe) adapter.setNearMode(true);
 			listView.setAdapter(adapter);
 
 			listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
 				@Override
 				public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
 
-					final PublicAccess item = (PublicAccess) adapterView.getItemAtPosition(position);
+					final PublicAccess item = adapter.getPublicAccess(position - getListView().getHeaderViewsCount());
 					if (item == null) {
 						Log.v(TAG, "No item found at position: " + position);
 						return;
 					}
 					Log.v(TAG, item.getName());
-					Intent intent = new Intent(getApplicationContext(), PublicAccessDetailActivity.class);
 					Log.v(TAG, "Selected ID: " + item.getId());
-					intent.putExtra("id", item.getId());
-					startActivity(intent);
+					startActivity(PublicAccessDetailActivity.newIntent(getApplicationContext(), item));
 				}
 			});
 
@@ -73,19 +156,107 @@ public class PublicAccessListActivity extends ListActivity {
 			Log.e(TAG, "Error initializing view!", e);
 		}
 
-		try {
-			DatabaseHelper db = new DatabaseHelper(this);
-			if (db.getPublicAccessesCount() == 0) upgrade();
-			db.close();
-		} catch (Exception e) {
-			Log.e(TAG, "Error checking database size!", e);
-		}
+		final View root = getWindow().getDecorView();
+		root.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+			@Override
+			public boolean onPreDraw() {
+
+				root.getViewTreeObserver().removeOnPreDrawListener(this);
+				FIRST_DRAW_TIMER.recordSince(createStart);
+				if (processStart != 0) COLD_FIRST_DRAW_TIMER.recordSince(processStart);
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+
+						if (!isFinishing()) onFirstDraw();
+					}
+				});
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Start everything which isn't needed to draw the list, once it has been
+	 * drawn.
+	 */
+	private void onFirstDraw() {
+
+		drawn = true;
+		if (PublicAccessApplication.forceOverflowMenu(this)) invalidateOptionsMenu();
+		if (resumed) startLocating();
+		if (databaseEmpty) upgrade();
+	}
+
+	/**
+	 * Record the startup times once the public accesses are first displayed,
+	 * and download them if the database is empty.
+	 */
+	private void onPopulated(int count) {
+
+		populated = true;
+		long now = Timer.now();
+		POPULATED_TIMER.record(now - createStart);
+		if (processStart != 0) COLD_POPULATED_TIMER.record(now - processStart);
+		Log.i(TAG, "Populated " + count + " public accesses in " + (now - createStart) / 1000000 + " ms" +
+				(processStart != 0 ? ", " + (now - processStart) / 1000000 + " ms after the process started." : "."));
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) reportFullyDrawnCompat();
+
+		databaseEmpty = count == 0;
+		if (databaseEmpty && drawn) upgrade();
+	}
+
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	private void reportFullyDrawnCompat() {
+
+		reportFullyDrawn();
+	}
+
+	private void startLocating() {
+
+		locating = true;
+		boolean enabled = locationTracker.addListener(locationListener, LOCATION_DISTANCE);
+		if (!enabled && nearMe) Toast.makeText(this, R.string.locationUnavailable, Toast.LENGTH_LONG).show();
+	}
+
+	@Override
+	protected void onResume() {
+
+		super.onResume();
+		resumed = true;
+		if (drawn) startLocating();
+	}
+
+	@Override
+	protected void onPause() {
+
+		resumed = false;
+		if (locating) locationTracker.removeListener(locationListener);
+		locating = false;
+		super.onPause();
+	}
+
+	@Override
+	protected void onSaveInstanceState(Bundle outState) {
+
+		super.onSaveInstanceState(outState);
+		outState.putBoolean(STATE_NEAR_ME, nearMe);
+	}
+
+	@Override
+	protected void onDestroy() {
+
+		handler.removeCallbacksAndMessages(null);
+		PublicAccessRepository.getInstance(this).cancelAll(this);
+		if (adapter != null) adapter.close();
+		super.onDestroy();
 	}
 
 	private void upgrade() {
 
+		databaseEmpty = false;
 		try {
-			Updater updater = new Updater(this, this, adapter);
+			Updater updater = new Updater(this, this);
 			Log.v(TAG, "Starting updater...");
 			android.content.SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
 			updater.execute(new URL(prefs.getString("updateServer", getString(R.string.updateURL))));
@@ -112,9 +283,21 @@ public class PublicAccessListActivity extends ListActivity {
 
 		AdapterView.AdapterContextMenuInfo info = (AdapterView.AdapterContextMenuInfo) item.getMenuInfo();
 		if (item.getItemId() == R.id.context_view_on_map && info != null) {
-			PublicAccess access = adapter.getItem(info.position);
-			String uri = String.format("geo:%1$f,%2$f?q=%1$f,%2$f(%3$s)", access.getLatitude(), access.getLongitude(), Uri.encode(access.getName().replace("(", "").replace(")", "")));
-			startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(uri)));
+			PublicAccessRepository.getInstance(this).loadPublicAccess(this, adapter.getItemId(info.position), new PublicAccessRepository.Callback<PublicAccess>() {
+				@Override
+				public void onResult(PublicAccess access) {
+
+					if (access == null) return;
+					String uri = String.format("geo:%1$f,%2$f?q=%1$f,%2$f(%3$s)", access.getLatitude(), access.getLongitude(), Uri.encode(access.getName().replace("(", "").replace(")", "")));
+					startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(uri)));
+				}
+
+				@Override
+				public void onError(Exception e) {
+
+					Toast.makeText(PublicAccessListActivity.this, "Error loading public access: " + e.getLocalizedMessage(), Toast.LENGTH_LONG).show();
+				}
+			});
 			return true;
 		} else {
 			return super.onContextItemSelected(item);
@@ -127,29 +310,32 @@ public class PublicAccessListActivity extends ListActivity {
 		getMenuInflater().inflate(R.menu.main, menu);
 		MenuItem viewItem = menu.findItem(R.id.action_view_map);
 		MenuItem searchItem = menu.findItem(R.id.action_search);
+		MenuItem nearItem = menu.findItem(R.id.action_near_me);
 		SearchView searchView = searchItem == null ? null : (SearchView) searchItem.getActionView();
 
-		if (viewItem != null) viewItem.setVisible(false);
+		if (viewItem != null) viewItem.setTitle(R.string.mapAllLabel);
+		if (nearItem != null) nearItem.setChecked(nearMe);
+		MenuItem metricsItem = menu.findItem(R.id.action_metrics);
+		if (metricsItem != null) metricsItem.setVisible(BuildConfig.DEBUG);
 		if (searchView != null) {
 			searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
 				@Override
 				public boolean onQueryTextSubmit(String s) {
 					Log.v(TAG, "Searching: " + s);
-					adapter.getFilter().filter(s);
+					adapter.searchNow(s);
 					return true;
 				}
 
 				@Override
 				public boolean onQueryTextChange(String s) {
-					Log.v(TAG, "Searching: " + s);
-					adapter.getFilter().filter(s);
+					adapter.search(s);
 					return true;
 				}
 			});
 			searchView.setOnCloseListener(new SearchView.OnCloseListener() {
 				@Override
 				public boolean onClose() {
-					adapter.getFilter().filter("");
+					adapter.searchNow("");
 					return true;
 				}
 			});
@@ -166,7 +352,95 @@ public class PublicAccessListActivity extends ListActivity {
 			startActivity(new Intent(getApplicationContext(), SettingsActivity.class));
 		} else if (item.getItemId() == R.id.action_update) {
 			upgrade();
+		} else if (item.getItemId() == R.id.action_view_map) {
+			startActivity(new Intent(getApplicationContext(), PublicAccessMapActivity.class));
+		} else if (item.getItemId() == R.id.action_filter) {
+			showFacets();
+		} else if (item.getItemId() == R.id.action_metrics) {
+			startActivity(new Intent(getApplicationContext(), MetricsActivity.class));
+		} else if (item.getItemId() == R.id.action_near_me) {
+			nearMe = !nearMe;
+			item.setChecked(nearMe);
+			adapter.setNearMode(nearMe);
 		}
 		return super.onOptionsItemSelected(item);
 	}
+
+	/**
+	 * Show a dialog listing every facet value along with the number of public
+	 * accesses which have it.
+	 */
+	private void showFacets() {
+
+		FacetIndex facets = adapter.getFacets();
+		if (facets == null) return;
+
+		// Every choice is a facet and one of its values.
+		final List<FacetIndex.Facet> choiceFacets = new ArrayList<FacetIndex.Facet>();
+		final List<String> choiceValues = new ArrayList<String>();
+		List<String> labels = new ArrayList<String>();
+		for (FacetIndex.Facet facet : FacetIndex.Facet.values()) {
+			for (String value : facets.getValues(facet)) {
+				String label;
+				switch (facet) {
+					case HAS_RAMPS:
+						label = getString(R.string.facetHasRamps);
+						break;
+					case HAS_DOCKS:
+						label = getString(R.string.facetHasDocks);
+						break;
+					case RAMP:
+						label = getString(R.string.facetRamp, value);
+						break;
+					case LAUNCH:
+						label = getString(R.string.facetLaunch, value);
+						break;
+					default:
+						label = getString(R.string.facetCounty, value);
+				}
+				choiceFacets.add(facet);
+				choiceValues.add(value);
+				labels.add(getString(R.string.facetCount, label, facets.getCount(facet, value)));
+			}
+		}
+
+		Map<FacetIndex.Facet, Set<String>> selection = adapter.getFacetSelection();
+		final boolean[] checked = new boolean[labels.size()];
+		for (int i = 0; i < checked.length; i++) {
+			Set<String> values = selection.get(choiceFacets.get(i));
+			checked[i] = values != null && values.contains(choiceValues.get(i));
+		}
+
+		new AlertDialog.Builder(this)
+				.setTitle(R.string.action_filter)
+				.setMultiChoiceItems(labels.toArray(new String[labels.size()]), checked, new DialogInterface.OnMultiChoiceClickListener() {
+					@Override
+					public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+
+						checked[which] = isChecked;
+					}
+				})
+				.setPositiveButton(R.string.filterApply, new DialogInterface.OnClickListener() {
+					@Override
+					public void onClick(DialogInterface dialog, int which) {
+
+						Map<FacetIndex.Facet, Set<String>> selection = new EnumMap<FacetIndex.Facet, Set<String>>(FacetIndex.Facet.class);
+						for (int i = 0; i < checked.length; i++) {
+							if (!checked[i]) continue;
+							Set<String> values = selection.get(choiceFacets.get(i));
+							if (values == null) selection.put(choiceFacets.get(i), values = new HashSet<String>());
+							values.add(choiceValues.get(i));
+						}
+						adapter.setFacetSelection(selection);
+					}
+				})
+				.setNeutralButton(R.string.filterClear, new DialogInterface.OnClickListener() {
+					@Override
+					public void onClick(DialogInterface dialog, int which) {
+
+						adapter.setFacetSelection(new EnumMap<FacetIndex.Facet, Set<String>>(FacetIndex.Facet.class));
+					}
+				})
+				.show();
+	}
 }
\ No newline at end of file
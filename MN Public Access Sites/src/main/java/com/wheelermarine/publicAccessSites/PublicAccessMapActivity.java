@@ -0,0 +1,275 @@
+package com.wheelermarine.publicAccessSites;
+
+import android.app.ActionBar;
+import android.app.Activity;
+import android.app.Dialog;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import android.view.MenuItem;
+import android.widget.Toast;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.GooglePlayServicesUtil;
+import com.google.android.gms.maps.CameraUpdateFactory;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.MapFragment;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+import com.wheelermarine.publicAccessSites.geo.Clusterer;
+import com.wheelermarine.publicAccessSites.geo.SpatialGrid;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * <p>
+ * This activity shows every public access on a map.  Only the public
+ * accesses inside the visible part of the map are looked up, using the
+ * spatial grid of the loaded list, and they are clustered on a background
+ * thread every time the camera moves.  Markers are kept in a pool and moved
+ * to the new clusters rather than being removed and added again.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class PublicAccessMapActivity extends Activity {
+
+	private static final String TAG = "PublicAccesses.PublicAccessMapActivity";
+
+	/**
+	 * The size of a cluster in pixels of a 256 pixel map tile.
+	 */
+	private static final double CLUSTER_SIZE = 48;
+
+	/**
+	 * The initial camera position, which shows most of Minnesota.
+	 */
+	private static final LatLng MINNESOTA = new LatLng(46.3, -94.3);
+	private static final float INITIAL_ZOOM = 6;
+
+	private PublicAccessRepository repository;
+	private GoogleMap map;
+	private PublicAccessList list;
+
+	/**
+	 * The list the markers were clustered from.  The rows of the clusters
+	 * are positions in this list even after a newer list has been loaded.
+	 */
+	private PublicAccessList clusteredList;
+	private PublicAccessRepository.Request clusterRequest;
+	private final List<Marker> markers = new ArrayList<Marker>();
+	private final Map<Marker, Clusterer.Cluster> clusters = new HashMap<Marker, Clusterer.Cluster>();
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.public_access_map);
+
+		ActionBar actionBar = getActionBar();
+		if (actionBar != null) actionBar.setDisplayHomeAsUpEnabled(true);
+
+		int status = GooglePlayServicesUtil.isGooglePlayServicesAvailable(getBaseContext());
+		if (status != ConnectionResult.SUCCESS) {
+			Dialog dialog = GooglePlayServicesUtil.getErrorDialog(status, this, 10);
+			dialog.show();
+			return;
+		}
+
+		MapFragment mapFragment = (MapFragment) getFragmentManager().findFragmentById(R.id.map);
+		map = mapFragment == null ? null : mapFragment.getMap();
+		if (map == null) {
+			Log.e(TAG, "Unable to create the map.");
+			return;
+		}
+
+		// Load the map type from the user's preferences. The default is normal.
+		android.content.SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+		String mapTypeStr = prefs.getString("mapType", String.valueOf(GoogleMap.MAP_TYPE_NORMAL));
+		if (mapTypeStr == null || !mapTypeStr.matches("[0-9]+")) mapTypeStr = String.valueOf(GoogleMap.MAP_TYPE_NORMAL);
+		map.setMapType(Integer.parseInt(mapTypeStr));
+		map.setMyLocationEnabled(true);
+		if (savedInstanceState == null) map.moveCamera(CameraUpdateFactory.newLatLngZoom(MINNESOTA, INITIAL_ZOOM));
+
+		map.setOnCameraChangeListener(new GoogleMap.OnCameraChangeListener() {
+			@Override
+			public void onCameraChange(CameraPosition position) {
+
+				updateClusters();
+			}
+		});
+		map.setOnMarkerClickListener(new GoogleMap.OnMarkerClickListener() {
+			@Override
+			public boolean onMarkerClick(Marker marker) {
+
+				return showCluster(marker);
+			}
+		});
+		map.setOnInfoWindowClickListener(new GoogleMap.OnInfoWindowClickListener() {
+			@Override
+			public void onInfoWindowClick(Marker marker) {
+
+				Clusterer.Cluster cluster = clusters.get(marker);
+				if (cluster == null || cluster.getSize() != 1) return;
+				startActivity(PublicAccessDetailActivity.newIntent(getApplicationContext(), new PublicAccess(clusteredList.store, cluster.getRow())));
+			}
+		});
+
+		repository = PublicAccessRepository.getInstance(this);
+		repository.loadPublicAccessList(this, new PublicAccessRepository.Callback<PublicAccessList>() {
+			@Override
+			public void onResult(PublicAccessList result) {
+
+				list = result;
+				updateClusters();
+			}
+
+			@Override
+			public void onError(Exception e) {
+
+				Toast.makeText(PublicAccessMapActivity.this, "Error loading public accesses: " + e.getLocalizedMessage(), Toast.LENGTH_LONG).show();
+			}
+		});
+	}
+
+	@Override
+	protected void onResume() {
+
+		super.onResume();
+		// Show the public accesses again if they were reloaded while the map
+		// was in the background.
+		PublicAccessList current = repository.getPublicAccessList();
+		if (list != null && current != null && current != list) {
+			list = current;
+			updateClusters();
+		}
+	}
+
+	@Override
+	protected void onDestroy() {
+
+		if (repository != null) repository.cancelAll(this);
+		super.onDestroy();
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+
+		if (item.getItemId() == android.R.id.home) {
+			finish();
+			return true;
+		}
+		return super.onOptionsItemSelected(item);
+	}
+
+	/**
+	 * Cluster the public accesses in the visible part of the map.  Any
+	 * clustering which is still running for an earlier camera position is
+	 * cancelled.
+	 */
+	private void updateClusters() {
+
+		if (list == null || map == null) return;
+		if (clusterRequest != null) clusterRequest.cancel();
+
+		final LatLngBounds bounds = map.getProjection().getVisibleRegion().latLngBounds;
+		CameraPosition camera = map.getCameraPosition();
+		final double cellLongitude = CLUSTER_SIZE / 256 * 360 / Math.pow(2, camera.zoom);
+		final double cellLatitude = cellLongitude * Math.cos(Math.toRadians(camera.target.latitude));
+		final PublicAccessList l = list;
+		final SpatialGrid grid = l.grid;
+		clusterRequest = repository.execute(this, new Callable<List<Clusterer.Cluster>>() {
+			@Override
+			public List<Clusterer.Cluster> call() {
+
+				int[] rows = new int[grid.size()];
+				int count = grid.within(bounds.southwest.latitude, bounds.southwest.longitude,
+						bounds.northeast.latitude, bounds.northeast.longitude, rows);
+				return Clusterer.cluster(grid, rows, count, cellLatitude, cellLongitude);
+			}
+		}, new PublicAccessRepository.Callback<List<Clusterer.Cluster>>() {
+			@Override
+			public void onResult(List<Clusterer.Cluster> result) {
+
+				if (l != list) return;
+				clusteredList = l;
+				showClusters(result);
+			}
+
+			@Override
+			public void onError(Exception e) {
+
+				Log.e(TAG, "Error clustering public accesses.", e);
+			}
+		});
+	}
+
+	/**
+	 * Move the markers to a new set of clusters.  Markers are only added when
+	 * there are more clusters than there have ever been, the extra markers
+	 * are hidden.
+	 */
+	private void showClusters(List<Clusterer.Cluster> result) {
+
+		for (int i = 0; i < result.size(); i++) {
+			Clusterer.Cluster cluster = result.get(i);
+			LatLng position = new LatLng(cluster.getLatitude(), cluster.getLongitude());
+			boolean single = cluster.getSize() == 1;
+			if (i == markers.size()) {
+				markers.add(map.addMarker(new MarkerOptions().position(position)
+						.icon(single ? BitmapDescriptorFactory.defaultMarker() : BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE))));
+			} else {
+				Marker marker = markers.get(i);
+				Clusterer.Cluster previous = clusters.get(marker);
+				if (marker.isInfoWindowShown()) marker.hideInfoWindow();
+				marker.setPosition(position);
+				if (previous == null || (previous.getSize() == 1) != single) {
+					marker.setIcon(single ? BitmapDescriptorFactory.defaultMarker() : BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE));
+				}
+				marker.setVisible(true);
+			}
+			clusters.put(markers.get(i), cluster);
+		}
+		for (int i = result.size(); i < markers.size(); i++) {
+			markers.get(i).setVisible(false);
+			clusters.remove(markers.get(i));
+		}
+	}
+
+	/**
+	 * Zoom in to a cluster, or fill in the title of a single public access
+	 * before its info window is shown.
+	 *
+	 * @return <code>true</code> if the click was handled.
+	 */
+	private boolean showCluster(Marker marker) {
+
+		Clusterer.Cluster cluster = clusters.get(marker);
+		if (cluster == null) return false;
+		if (cluster.getSize() > 1) {
+			if (cluster.getSouth() == cluster.getNorth() && cluster.getWest() == cluster.getEast()) {
+				map.animateCamera(CameraUpdateFactory.newLatLngZoom(marker.getPosition(), map.getCameraPosition().zoom + 2));
+			} else {
+				map.animateCamera(CameraUpdateFactory.newLatLngBounds(new LatLngBounds(
+						new LatLng(cluster.getSouth(), cluster.getWest()),
+						new LatLng(cluster.getNorth(), cluster.getEast())), 64));
+			}
+			return true;
+		}
+
+		// The titles are only loaded for the markers which are clicked.
+		marker.setTitle(clusteredList.store.getName(cluster.getRow()));
+		marker.setSnippet(clusteredList.store.getLake(cluster.getRow()));
+		return false;
+	}
+}
@@ -0,0 +1,87 @@
+package com.wheelermarine.publicAccessSites;
+
+import android.database.Cursor;
+
+import com.wheelermarine.publicAccessSites.DatabaseHelper.PublicAccessEntry;
+
+/**
+ * <p>
+ * This class maps cursor rows to public accesses.  The column indices are
+ * resolved once when the mapper is created instead of once for every column
+ * of every row.  Columns which aren't part of the cursor's projection are
+ * left at their default values.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class PublicAccessMapper {
+
+	final int id;
+	final int name;
+	final int launch;
+	final int ramp;
+	final int ramps;
+	final int docks;
+	final int directions;
+	final int lake;
+	final int county;
+	final int latitude;
+	final int longitude;
+	final int recordNumber;
+
+	/**
+	 * Create a new mapper for the columns of the provided cursor.  The mapper
+	 * may be used for any cursor with the same projection.
+	 *
+	 * @param cursor the cursor to resolve the columns of.
+	 */
+	public PublicAccessMapper(Cursor cursor) {
+
+		id = cursor.getColumnIndex(PublicAccessEntry.COLUMN_NAME_ID);
+		name = cursor.getColumnIndex(PublicAccessEntry.COLUMN_NAME_NAME);
+		launch = cursor.getColumnIndex(PublicAccessEntry.COLUMN_NAME_LAUNCH);
+		ramp = cursor.getColumnIndex(PublicAccessEntry.COLUMN_NAME_RAMP);
+		ramps = cursor.getColumnIndex(PublicAccessEntry.COLUMN_NAME_RAMPS);
+		docks = cursor.getColumnIndex(PublicAccessEntry.COLUMN_NAME_DOCKS);
+		directions = cursor.getColumnIndex(PublicAccessEntry.COLUMN_NAME_DIRECTIONS);
+		lake = cursor.getColumnIndex(PublicAccessEntry.COLUMN_NAME_LAKE);
+		county = cursor.getColumnIndex(PublicAccessEntry.COLUMN_NAME_COUNTY);
+		latitude = cursor.getColumnIndex(PublicAccessEntry.COLUMN_NAME_LATITUDE);
+		longitude = cursor.getColumnIndex(PublicAccessEntry.COLUMN_NAME_LONGITUDE);
+		recordNumber = cursor.getColumnIndex(PublicAccessEntry.COLUMN_NAME_RECORD_NUMBER);
+	}
+
+	/**
+	 * Map the cursor's current row to a full public access.
+	 *
+	 * @param cursor the cursor positioned on the row to map.
+	 * @return the public access.
+	 */
+	public PublicAccess toPublicAccess(Cursor cursor) {
+
+		return new PublicAccess(this, cursor);
+	}
+
+	long getLong(Cursor cursor, int column) {
+
+		return column < 0 ? 0 : cursor.getLong(column);
+	}
+
+	int getInt(Cursor cursor, int column) {
+
+		return column < 0 ? 0 : cursor.getInt(column);
+	}
+
+	double getDouble(Cursor cursor, int column) {
+
+		return column < 0 ? 0 : cursor.getDouble(column);
+	}
+
+	String getString(Cursor cursor, int column) {
+
+		return column < 0 ? null : cursor.getString(column);
+	}
+}
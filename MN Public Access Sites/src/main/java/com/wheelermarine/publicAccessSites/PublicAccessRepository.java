@@ -0,0 +1,471 @@
+package com.wheelermarine.publicAccessSites;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import com.wheelermarine.publicAccessSites.store.ChangeSet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * This class loads public accesses from the database on a small pool of
+ * background threads and delivers the results to callbacks on the UI thread.
+ * Every request belongs to an owner, usually an activity, so that all of the
+ * owner's outstanding requests can be cancelled when it is destroyed.
+ * Results of cancelled requests are never delivered.
+ * </p>
+ * <p>
+ * The loaded list of public accesses is shared by every screen.  It is held
+ * in a single atomic reference and replaced as a whole when it is reloaded,
+ * so readers always see one consistent snapshot.  After an update the change
+ * set is applied to the shared list and the listeners are told which rows of
+ * the list changed.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class PublicAccessRepository {
+
+	private static final String TAG = "PublicAccesses.PublicAccessRepository";
+	private static final int THREADS = 2;
+	private static final int MAX_QUEUED = 64;
+
+	private static PublicAccessRepository instance;
+
+	private final DatabaseHelper db;
+	private final AtomicReference<PublicAccessList> snapshot = new AtomicReference<PublicAccessList>();
+	private final AtomicLong generations = new AtomicLong();
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final Map<Object, Set<Request>> requests = new IdentityHashMap<Object, Set<Request>>();
+	private final List<OnListUpdateListener> listeners = new ArrayList<OnListUpdateListener>();
+	private final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<Runnable>(MAX_QUEUED), new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(final Runnable r) {
+
+			return new Thread(new Runnable() {
+				@Override
+				public void run() {
+
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					r.run();
+				}
+			}, "PublicAccessRepository-" + count.incrementAndGet());
+		}
+	});
+
+	private PublicAccessRepository(Context context) {
+
+		db = DatabaseHelper.getInstance(context);
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Get the repository shared by the whole application.
+	 *
+	 * @param context any context, only its application context is retained.
+	 * @return the shared repository.
+	 */
+	public static synchronized PublicAccessRepository getInstance(Context context) {
+
+		if (instance == null) instance = new PublicAccessRepository(context.getApplicationContext());
+		return instance;
+	}
+
+	/**
+	 * This interface receives the result of a request on the UI thread.
+	 *
+	 * @param <T> the type of the result.
+	 */
+	public interface Callback<T> {
+
+		/**
+		 * Called when the request completed successfully.
+		 *
+		 * @param result the result of the request.
+		 */
+		void onResult(T result);
+
+		/**
+		 * Called when the request failed.
+		 *
+		 * @param e the reason the request failed.
+		 */
+		void onError(Exception e);
+	}
+
+	/**
+	 * This interface is notified on the UI thread whenever the shared list
+	 * is replaced after an update.
+	 */
+	interface OnListUpdateListener {
+
+		/**
+		 * Called once the updated list has been swapped in.
+		 *
+		 * @param update the previous and new list and how their rows relate.
+		 */
+		void onListUpdated(PublicAccessList.Update update);
+	}
+
+	/**
+	 * This class represents a request which has been submitted to the
+	 * repository.
+	 */
+	public class Request {
+
+		private final Object owner;
+		private volatile boolean cancelled;
+		private Future<?> future;
+
+		private Request(Object owner) {
+
+			this.owner = owner;
+		}
+
+		/**
+		 * Cancel the request.  If the request hasn't started it is skipped,
+		 * otherwise its result is discarded.  Either way the request is no
+		 * longer outstanding for its owner.
+		 */
+		public void cancel() {
+
+			cancelled = true;
+			if (future != null) future.cancel(false);
+			remove(this);
+		}
+
+		public boolean isCancelled() {
+
+			return cancelled;
+		}
+	}
+
+	/**
+	 * The work done by a request on the background thread.
+	 *
+	 * @param <T> the type of the result.
+	 */
+	private static abstract class Query<T> {
+
+		abstract T run() throws Exception;
+	}
+
+	/**
+	 * Load a single public access.
+	 *
+	 * @param owner    the owner of the request.
+	 * @param id       the ID of the public access.
+	 * @param callback receives the public access, or <code>null</code> if it
+	 *                 doesn't exist.
+	 * @return the request.
+	 */
+	public Request loadPublicAccess(Object owner, final long id, Callback<PublicAccess> callback) {
+
+		return submit(owner, new Query<PublicAccess>() {
+			@Override
+			PublicAccess run() {
+
+				return db.getPublicAccess(id);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Count the public accesses in the database.
+	 *
+	 * @param owner    the owner of the request.
+	 * @param callback receives the number of public accesses.
+	 * @return the request.
+	 */
+	public Request countPublicAccesses(Object owner, Callback<Integer> callback) {
+
+		return submit(owner, new Query<Integer>() {
+			@Override
+			Integer run() {
+
+				return db.getPublicAccessesCount();
+			}
+		}, callback);
+	}
+
+	/**
+	 * Get the list of public accesses along with their search keys.  The
+	 * list which was loaded most recently is shared, it is only loaded if no
+	 * list has been loaded yet.
+	 *
+	 * @param owner    the owner of the request.
+	 * @param callback receives the list.
+	 * @return the request.
+	 */
+	Request loadPublicAccessList(Object owner, Callback<PublicAccessList> callback) {
+
+		return submit(owner, new Query<PublicAccessList>() {
+			@Override
+			PublicAccessList run() {
+
+				PublicAccessList list = snapshot.get();
+				return list != null ? list : reload();
+			}
+		}, callback);
+	}
+
+	/**
+	 * Load the list of public accesses again after the database has changed.
+	 *
+	 * @param owner    the owner of the request.
+	 * @param callback receives the new list.
+	 * @return the request.
+	 */
+	Request reloadPublicAccessList(Object owner, Callback<PublicAccessList> callback) {
+
+		return submit(owner, new Query<PublicAccessList>() {
+			@Override
+			PublicAccessList run() {
+
+				return reload();
+			}
+		}, callback);
+	}
+
+	/**
+	 * Apply the changes of a committed update to the shared list and write
+	 * the search index for the new list.  If no list has been loaded, or the
+	 * changes are too large to apply row by row, the list is loaded again.
+	 * The listeners are notified once the new list has been swapped in.
+	 *
+	 * @param changes the changes which were committed.
+	 * @return the request.
+	 */
+	Request applyChanges(final ChangeSet changes) {
+
+		return submit(this, new Query<PublicAccessList.Update>() {
+			@Override
+			PublicAccessList.Update run() {
+
+				PublicAccessList previous = snapshot.get();
+				PublicAccessList.Update update = null;
+				if (previous != null && changes.isEmpty()) {
+					if (!db.getSearchIndexFile().exists()) writeSearchIndex(previous);
+					return null;
+				}
+				if (previous != null) update = PublicAccessList.update(db, previous, changes, generations.incrementAndGet());
+				PublicAccessList list = update == null ? reload() : publish(update.list);
+				if (update == null || list != update.list) update = new PublicAccessList.Update(previous, list, null, null);
+				writeSearchIndex(list);
+				return update;
+			}
+		}, new Callback<PublicAccessList.Update>() {
+			@Override
+			public void onResult(PublicAccessList.Update update) {
+
+				if (update == null) return;
+				for (OnListUpdateListener listener : new ArrayList<OnListUpdateListener>(listeners)) {
+					listener.onListUpdated(update);
+				}
+			}
+
+			@Override
+			public void onError(Exception e) {
+
+				Log.e(TAG, "Error applying the changes.", e);
+			}
+		});
+	}
+
+	private void writeSearchIndex(PublicAccessList list) {
+
+		try {
+			list.writeSearchIndex(db.getSearchIndexFile());
+		} catch (IOException e) {
+			// The next load will build the index itself.
+			Log.e(TAG, "Error writing search index.", e);
+		}
+	}
+
+	/**
+	 * Add a listener for updated lists.  This must be called on the UI
+	 * thread.
+	 */
+	void addOnListUpdateListener(OnListUpdateListener listener) {
+
+		listeners.add(listener);
+	}
+
+	void removeOnListUpdateListener(OnListUpdateListener listener) {
+
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Get the list which was loaded most recently.
+	 *
+	 * @return the list, or <code>null</code> if it hasn't been loaded.
+	 */
+	PublicAccessList getPublicAccessList() {
+
+		return snapshot.get();
+	}
+
+	/**
+	 * Load the list and swap it in, unless a load which was started later
+	 * has already finished.
+	 *
+	 * @return the newest list.
+	 */
+	private PublicAccessList reload() {
+
+		return publish(PublicAccessList.load(db, generations.incrementAndGet()));
+	}
+
+	/**
+	 * Swap in a list unless a list which was started later has already been
+	 * swapped in.
+	 *
+	 * @return the newest list.
+	 */
+	private PublicAccessList publish(PublicAccessList list) {
+
+		while (true) {
+			PublicAccessList current = snapshot.get();
+			if (current != null && current.generation > list.generation) return current;
+			if (snapshot.compareAndSet(current, list)) return list;
+		}
+	}
+
+	/**
+	 * Run a task on the background threads.
+	 *
+	 * @param owner    the owner of the request.
+	 * @param task     the task to run.
+	 * @param callback receives the result of the task.
+	 * @return the request.
+	 */
+	<T> Request execute(Object owner, final Callable<T> task, Callback<T> callback) {
+
+		return submit(owner, new Query<T>() {
+			@Override
+			T run() throws Exception {
+
+				return task.call();
+			}
+		}, callback);
+	}
+
+	/**
+	 * Cancel all of the outstanding requests made by an owner.
+	 *
+	 * @param owner the owner whose requests should be cancelled.
+	 */
+	public void cancelAll(Object owner) {
+
+		Set<Request> owned;
+		synchronized (requests) {
+			owned = requests.remove(owner);
+		}
+		if (owned == null) return;
+		for (Request request : owned) {
+			request.cancel();
+		}
+	}
+
+	private <T> Request submit(Object owner, final Query<T> query, final Callback<T> callback) {
+
+		final Request request = new Request(owner);
+		synchronized (requests) {
+			Set<Request> owned = requests.get(owner);
+			if (owned == null) requests.put(owner, owned = new HashSet<Request>());
+			owned.add(request);
+		}
+
+		try {
+			request.future = executor.submit(new Runnable() {
+				@Override
+				public void run() {
+
+					if (request.isCancelled()) return;
+					try {
+						final T result = query.run();
+						handler.post(new Runnable() {
+							@Override
+							public void run() {
+
+								if (finish(request)) callback.onResult(result);
+							}
+						});
+					} catch (final Exception e) {
+						Log.e(TAG, "Error loading public accesses.", e);
+						handler.post(new Runnable() {
+							@Override
+							public void run() {
+
+								if (finish(request)) callback.onError(e);
+							}
+						});
+					}
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			Log.e(TAG, "Too many requests queued.", e);
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+
+					if (finish(request)) callback.onError(e);
+				}
+			});
+		}
+		return request;
+	}
+
+	/**
+	 * Remove a completed request from its owner.
+	 *
+	 * @return <code>true</code> if the result should be delivered.
+	 */
+	private boolean finish(Request request) {
+
+		remove(request);
+		return !request.isCancelled();
+	}
+
+	/**
+	 * Remove a request from the outstanding requests of its owner.  A
+	 * cancelled request which never ran is never finished, so it is removed
+	 * here as well.
+	 */
+	private void remove(Request request) {
+
+		synchronized (requests) {
+			Set<Request> owned = requests.get(request.owner);
+			if (owned != null) {
+				owned.remove(request);
+				if (owned.isEmpty()) requests.remove(request.owner);
+			}
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.wheelermarine.publicAccessSites;
+
+import com.wheelermarine.publicAccessSites.store.SiteStore;
+
+/**
+ * <p>
+ * This class is the lightweight version of a public access used by the list.
+ * It only contains the fields which are displayed in a list row and the
+ * directions are shortened to a preview.  The full public access is loaded
+ * from the database when it is needed.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class PublicAccessRow {
+
+	/**
+	 * The maximum number of characters of the directions kept in a row.
+	 */
+	static final int SHORT_DIRECTIONS_LENGTH = 120;
+
+	private long id;
+	private String name;
+	private String lake;
+	private String county;
+	private String directions;
+
+	/**
+	 * Replace the contents of this row with a row of the store.  List rows
+	 * are reused as views are recycled.
+	 *
+	 * @param store the loaded public accesses.
+	 * @param row   the position of the row to load.
+	 */
+	void load(SiteStore store, int row) {
+
+		id = store.getId(row);
+		name = store.getName(row);
+		lake = store.getLake(row);
+		county = store.getCounty(row);
+		directions = store.getDirections(row);
+		if (directions.length() > SHORT_DIRECTIONS_LENGTH) {
+			directions = directions.substring(0, SHORT_DIRECTIONS_LENGTH).trim() + "\u2026";
+		}
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getLake() {
+		return lake;
+	}
+
+	public String getCounty() {
+		return county;
+	}
+
+	public String getDirections() {
+		return directions;
+	}
+
+	/**
+	 * Get the name displayed in the list.  The lake is appended unless it is
+	 * already part of the name.
+	 *
+	 * @return the display name.
+	 */
+	public String getDisplayName() {
+
+		if (name.toLowerCase().contains(lake.toLowerCase())) return name;
+		return name + ", " + lake;
+	}
+
+	public String toString() {
+
+		return getName();
+	}
+}
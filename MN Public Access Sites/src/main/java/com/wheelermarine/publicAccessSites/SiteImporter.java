@@ -0,0 +1,304 @@
+package com.wheelermarine.publicAccessSites;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import com.wheelermarine.publicAccessSites.DatabaseHelper.PublicAccessEntry;
+import com.wheelermarine.publicAccessSites.dnr.SiteRecord;
+import com.wheelermarine.publicAccessSites.dnr.SourceKeys;
+import com.wheelermarine.publicAccessSites.store.ChangeSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>
+ * This class applies a new archive to the database as the difference from
+ * the data which is already there, instead of deleting every row and
+ * inserting them again.  Every record is matched to a row by its source key
+ * and only inserted if it is new or updated if its content hash differs.
+ * Locations are compared as they are read and only written if they moved.
+ * Rows which aren't in the archive are deleted once it has been read.  The
+ * IDs of the rows which are kept don't change.  Every change is recorded in
+ * a <code>ChangeSet</code> so the data in memory can be updated the same way.
+ * </p>
+ * <p>
+ * The importer must be used inside a transaction, which is committed once
+ * <code>removeMissing</code> has been called.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+class SiteImporter {
+
+	private static final String WHERE_ID = PublicAccessEntry.COLUMN_NAME_ID + "=?";
+
+	private final SQLiteDatabase database;
+	private final SourceKeys keys = new SourceKeys();
+
+	/**
+	 * The rows which were in the database before the update and haven't been
+	 * matched to a record yet, by source key.
+	 */
+	private final Map<String, ExistingRow> existing = new HashMap<String, ExistingRow>();
+
+	/**
+	 * Rows without a source key, which were written before they were kept.
+	 * They are replaced by the update.
+	 */
+	private final List<Long> unkeyed = new ArrayList<Long>();
+
+	// The ID and previous location of every record, indexed by record number
+	// minus one.  New rows have no previous location.
+	private long[] ids = new long[256];
+	private double[] latitudes = new double[256];
+	private double[] longitudes = new double[256];
+	private final BitSet inserted = new BitSet();
+	private final ChangeSet.Builder changes = new ChangeSet.Builder();
+
+	private final SQLiteStatement updateLocation;
+	private final SQLiteStatement updateRecordNumber;
+	private int added;
+	private int modified;
+	private int unchanged;
+	private int moved;
+	private int removed;
+
+	/**
+	 * The part of an existing row which is compared with a record.
+	 */
+	private static class ExistingRow {
+
+		final long id;
+		final long contentHash;
+		final int recordNumber;
+		final double latitude;
+		final double longitude;
+
+		ExistingRow(long id, long contentHash, int recordNumber, double latitude, double longitude) {
+
+			this.id = id;
+			this.contentHash = contentHash;
+			this.recordNumber = recordNumber;
+			this.latitude = latitude;
+			this.longitude = longitude;
+		}
+	}
+
+	/**
+	 * Read the rows which are already in the database.
+	 *
+	 * @param database the database, with a transaction in progress.
+	 */
+	SiteImporter(SQLiteDatabase database) {
+
+		this.database = database;
+		Cursor cursor = database.rawQuery(DatabaseHelper.SQL_SELECT_SOURCE_ROWS, null);
+		try {
+			while (cursor.moveToNext()) {
+				if (cursor.isNull(1)) {
+					unkeyed.add(cursor.getLong(0));
+					continue;
+				}
+				existing.put(cursor.getString(1), new ExistingRow(cursor.getLong(0), cursor.getLong(2), cursor.getInt(3),
+						cursor.isNull(4) ? Double.NaN : cursor.getDouble(4), cursor.isNull(5) ? Double.NaN : cursor.getDouble(5)));
+			}
+		} finally {
+			cursor.close();
+		}
+		updateLocation = database.compileStatement(DatabaseHelper.SQL_UPDATE_LOCATION);
+		updateRecordNumber = database.compileStatement(DatabaseHelper.SQL_UPDATE_RECORD_NUMBER);
+	}
+
+	/**
+	 * Insert a record if it is new or update its row if it has changed.
+	 * Records must be imported in the order they are read.
+	 *
+	 * @param record the record.
+	 * @throws SQLException if the row can't be written, which must roll back
+	 *                      the update.
+	 */
+	void importRecord(SiteRecord record) {
+
+		String key = keys.next(record);
+		long hash = record.getContentHash();
+		ExistingRow row = existing.remove(key);
+		long id;
+		if (row == null) {
+			ContentValues values = toValues(record, hash);
+			values.put(PublicAccessEntry.COLUMN_NAME_SOURCE_KEY, key);
+			id = database.insertOrThrow(PublicAccessEntry.TABLE_NAME, null, values);
+			changes.added(id);
+			added++;
+		} else if (row.contentHash != hash) {
+			id = row.id;
+			int updated = database.update(PublicAccessEntry.TABLE_NAME, toValues(record, hash), WHERE_ID, new String[]{String.valueOf(id)});
+			if (updated != 1) throw new SQLException("Updated " + updated + " rows for public access " + id);
+			changes.modified(id);
+			modified++;
+		} else {
+			id = row.id;
+			if (row.recordNumber != record.getRecordNumber()) {
+				// Records before this one were added or removed, the record
+				// number is only needed to join the shape file.
+				updateRecordNumber.bindLong(1, record.getRecordNumber());
+				updateRecordNumber.bindLong(2, id);
+				updateOne(updateRecordNumber, id);
+				changes.renumbered(id);
+			}
+			unchanged++;
+		}
+
+		int index = record.getRecordNumber() - 1;
+		if (index < 0) return;
+		if (index >= ids.length) {
+			int capacity = Math.max(ids.length * 2, index + 1);
+			ids = Arrays.copyOf(ids, capacity);
+			latitudes = Arrays.copyOf(latitudes, capacity);
+			longitudes = Arrays.copyOf(longitudes, capacity);
+		}
+		ids[index] = id;
+		inserted.set(index, row == null);
+		latitudes[index] = row == null ? Double.NaN : row.latitude;
+		longitudes[index] = row == null ? Double.NaN : row.longitude;
+	}
+
+	private static ContentValues toValues(SiteRecord record, long hash) {
+
+		ContentValues values = new ContentValues();
+		values.put(PublicAccessEntry.COLUMN_NAME_NAME, record.getName());
+		values.put(PublicAccessEntry.COLUMN_NAME_LAUNCH, record.getLaunch());
+		values.put(PublicAccessEntry.COLUMN_NAME_RAMP, record.getRamp());
+		values.put(PublicAccessEntry.COLUMN_NAME_RAMPS, record.getRamps());
+		values.put(PublicAccessEntry.COLUMN_NAME_DOCKS, record.getDocks());
+		values.put(PublicAccessEntry.COLUMN_NAME_DIRECTIONS, record.getDirections());
+		values.put(PublicAccessEntry.COLUMN_NAME_LAKE, record.getLake());
+		values.put(PublicAccessEntry.COLUMN_NAME_COUNTY, record.getCounty());
+		values.put(PublicAccessEntry.COLUMN_NAME_RECORD_NUMBER, record.getRecordNumber());
+		values.put(PublicAccessEntry.COLUMN_NAME_CONTENT_HASH, hash);
+		return values;
+	}
+
+	/**
+	 * Set the location of a record unless it is where it was before.
+	 *
+	 * @param recordNumber the record number.
+	 * @param latitude     the latitude.
+	 * @param longitude    the longitude.
+	 */
+	void importLocation(int recordNumber, double latitude, double longitude) {
+
+		int index = recordNumber - 1;
+		if (index < 0 || index >= ids.length || ids[index] == 0) return;
+		if (latitudes[index] == latitude && longitudes[index] == longitude) return;
+		// A new row has no previous location, so it hasn't moved.
+		if (!inserted.get(index)) {
+			changes.moved(ids[index], latitude, longitude);
+			moved++;
+		}
+		updateLocation.bindDouble(1, latitude);
+		updateLocation.bindDouble(2, longitude);
+		updateLocation.bindLong(3, ids[index]);
+		updateOne(updateLocation, ids[index]);
+	}
+
+	/**
+	 * Run an update of one row and fail unless exactly that row changed.
+	 */
+	private static void updateOne(SQLiteStatement statement, long id) {
+
+		int updated = statement.executeUpdateDelete();
+		if (updated != 1) throw new SQLException("Updated " + updated + " rows for public access " + id);
+	}
+
+	/**
+	 * Delete the rows which weren't in the archive.  This must be called once
+	 * the whole archive has been imported.
+	 */
+	void removeMissing() {
+
+		for (ExistingRow row : existing.values()) {
+			delete(row.id);
+		}
+		for (long id : unkeyed) {
+			delete(id);
+		}
+		existing.clear();
+		unkeyed.clear();
+	}
+
+	private void delete(long id) {
+
+		if (database.delete(PublicAccessEntry.TABLE_NAME, WHERE_ID, new String[]{String.valueOf(id)}) == 0) return;
+		changes.removed(id);
+		removed++;
+	}
+
+	void close() {
+
+		updateLocation.close();
+		updateRecordNumber.close();
+	}
+
+	int getAdded() {
+
+		return added;
+	}
+
+	int getModified() {
+
+		return modified;
+	}
+
+	int getUnchanged() {
+
+		return unchanged;
+	}
+
+	int getMoved() {
+
+		return moved;
+	}
+
+	int getRemoved() {
+
+		return removed;
+	}
+
+	/**
+	 * Get the changes which were made to the database.
+	 *
+	 * @return the changes.
+	 */
+	ChangeSet getChanges() {
+
+		return changes.build();
+	}
+
+	/**
+	 * Check if the update changed anything.
+	 *
+	 * @return <code>true</code> if a row was written or deleted.
+	 */
+	boolean hasChanges() {
+
+		return added + modified + moved + removed > 0;
+	}
+
+	@Override
+	public String toString() {
+
+		return String.format(Locale.US, "%d added, %d modified, %d moved, %d removed, %d unchanged",
+				added, modified, moved, removed, unchanged);
+	}
+}
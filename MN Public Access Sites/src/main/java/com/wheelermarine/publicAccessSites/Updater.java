@@ -2,19 +2,19 @@ package com.wheelermarine.publicAccessSites;
 
 import android.app.Activity;
 import android.app.ProgressDialog;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
-import android.location.Location;
 import android.os.AsyncTask;
 import android.util.Log;
 import android.widget.Toast;
-import com.wheelermarine.publicAccessSites.dbase.DBaseReader;
-import com.wheelermarine.publicAccessSites.dbase.Record;
+import com.wheelermarine.publicAccessSites.dbase.Header;
+import com.wheelermarine.publicAccessSites.dnr.ArchiveCache;
+import com.wheelermarine.publicAccessSites.dnr.DnrArchiveReader;
+import com.wheelermarine.publicAccessSites.dnr.SiteRecord;
+import com.wheelermarine.publicAccessSites.metrics.Metrics;
+import com.wheelermarine.publicAccessSites.metrics.Timer;
+import com.wheelermarine.publicAccessSites.store.ChangeSet;
 
-import org.apache.commons.net.ftp.FTP;
-import org.apache.commons.net.ftp.FTPClient;
-import org.apache.commons.net.ftp.FTPClientConfig;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
@@ -24,29 +24,28 @@ import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.parser.Tag;
-import org.nocrala.tools.gis.data.esri.shapefile.ShapeFileReader;
-import org.nocrala.tools.gis.data.esri.shapefile.exception.InvalidShapeFileException;
-import org.nocrala.tools.gis.data.esri.shapefile.header.ShapeFileHeader;
-import org.nocrala.tools.gis.data.esri.shapefile.shape.AbstractShape;
-import org.nocrala.tools.gis.data.esri.shapefile.shape.ShapeType;
-import org.nocrala.tools.gis.data.esri.shapefile.shape.shapes.PointShape;
-
-import java.io.FileNotFoundException;
+
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 /**
  * <p>
  * This class downloads updates from the MN DNR's data deli web site.  It
  * first requests the quick download page which contains a link to the ZIP
- * archive on the FTP server.  It then downloads and uncompresses the ZIP
- * archive while simultaneously loading the public access data from the
- * DBase database file and loading it into the SQLite database.
+ * archive on the FTP server.  It then spools the ZIP archive to the cache
+ * directory and loads the public access data from the DBase database file
+ * into the SQLite database, while the shape file with the locations is
+ * parsed on another thread.  The archive is kept, so a later update only
+ * downloads it again if the server has a newer one.
+ * </p>
+ * <p>
+ * Only the difference from the data already in the database is written: new
+ * public accesses are inserted, changed ones are updated and the ones which
+ * are no longer in the archive are deleted.  Unchanged public accesses keep
+ * their rows and IDs.  Once the update has been committed its change set is
+ * applied to the cache and the loaded list, which updates the search index
+ * and the displayed rows without loading everything again.
  * </p>
  * <p>
  * Copyright 2013 Steven Wheeler<br/>
@@ -56,51 +55,25 @@ import java.util.zip.ZipInputStream;
 public class Updater extends AsyncTask<URL, Integer, Integer> {
 
 	private static final String TAG = "PublicAccesses.Updater";
+	private static final Timer TOTAL_TIMER = Metrics.timer("update.total");
+	private static final Timer DOWNLOAD_TIMER = Metrics.timer("update.download");
+	private static final Timer RECORDS_TIMER = Metrics.timer("update.records");
+	private static final Timer LOCATIONS_TIMER = Metrics.timer("update.locations");
+	private static final Timer COMMIT_TIMER = Metrics.timer("update.commit");
 	private static final int timeout = 60;
+	private static final String ARCHIVE_FILE = "shor_waspt3.zip";
 	private static final String userAgent = "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.17 (KHTML, like Gecko) Chrome/24.0.1312.57 Safari/537.17";
-	private static final String entryName = "shor_waspt3.dbf";
-	private static final String shapeEntryName = "shor_waspt3.shp";
 
 	private Activity activity;
 	private Context context;
-	private PublicAccessAdapter adapter;
 	private ProgressDialog progress;
 	private Exception error;
+	private String summary;
+	private ChangeSet changes = ChangeSet.EMPTY;
 
-	public Updater(Activity activity, Context context, PublicAccessAdapter adapter) {
+	public Updater(Activity activity, Context context) {
 		this.activity = activity;
 		this.context = context;
-		this.adapter = adapter;
-	}
-
-	/**
-	 * Convert a UTM location to a latitude and longitude location.
-	 *
-	 * @param north the northing value.
-	 * @param east  the easting value.
-	 * @param zone  the UTM zone.
-	 * @return a Location containing the latitude and longitude.
-	 */
-	public static Location fromUTM(double north, double east, double zone) {
-
-		double d = 0.99960000000000004;
-		double d1 = 6378137;
-		double d2 = 0.0066943799999999998;
-		double d4 = (1 - Math.sqrt(1 - d2)) / (1 + Math.sqrt(1 - d2));
-		double d3 = d2 / (1 - d2);
-		double d12 = (north / d) / (d1 * (1 - d2 / 4 - (3 * d2 * d2) / 64 - (5 * Math.pow(d2, 3)) / 256));
-		double d14 = d12 + ((3 * d4) / 2 - (27 * Math.pow(d4, 3)) / 32) * Math.sin(2 * d12) + ((21 * d4 * d4) / 16 - (55 * Math.pow(d4, 4)) / 32) * Math.sin(4 * d12) + ((151 * Math.pow(d4, 3)) / 96) * Math.sin(6 * d12);
-		double d5 = d1 / Math.sqrt(1 - d2 * Math.sin(d14) * Math.sin(d14));
-		double d6 = Math.tan(d14) * Math.tan(d14);
-		double d7 = d3 * Math.cos(d14) * Math.cos(d14);
-		double d8 = (d1 * (1 - d2)) / Math.pow(1 - d2 * Math.sin(d14) * Math.sin(d14), 1.5);
-		double d9 = (east - 500000) / (d5 * d);
-		double lat = (d14 - ((d5 * Math.tan(d14)) / d8) * (((d9 * d9) / 2 - (((5 + 3 * d6 + 10 * d7) - 4 * d7 * d7 - 9 * d3) * Math.pow(d9, 4)) / 24) + (((61 + 90 * d6 + 298 * d7 + 45 * d6 * d6) - 252 * d3 - 3 * d7 * d7) * Math.pow(d9, 6)) / 720)) * 180 / Math.PI;
-		double lon = (((zone - 1) * 6 - 180) + 3) + (((d9 - ((1 + 2 * d6 + d7) * Math.pow(d9, 3)) / 6) + (((((5 - 2 * d7) + 28 * d6) - 3 * d7 * d7) + 8 * d3 + 24 * d6 * d6) * Math.pow(d9, 5)) / 120) / Math.cos(d14)) * 180 / Math.PI;
-		Location loc = new Location("MNDNR");
-		loc.setLatitude(lat);
-		loc.setLongitude(lon);
-		return loc;
 	}
 
 	@Override
@@ -119,99 +92,98 @@ public class Updater extends AsyncTask<URL, Integer, Integer> {
 	@Override
 	protected Integer doInBackground(URL... urls) {
 
+		long start = TOTAL_TIMER.start();
+		try {
+			int count = update(urls);
+			Metrics.counter(count >= 0 ? "update.succeeded" : "update.failed").increment();
+			return count;
+		} finally {
+			TOTAL_TIMER.stop(start);
+		}
+	}
+
+	private int update(URL... urls) {
+
 		try {
-			final DatabaseHelper db = new DatabaseHelper(context);
+			final DatabaseHelper db = DatabaseHelper.getInstance(context);
 
 			SQLiteDatabase database = db.getWritableDatabase();
 			if (database == null)
 				throw new IllegalStateException("Unable to open database!");
 
-			database.beginTransaction();
+			// Make sure the download URL was fund.
+			final URL url;
+			if (urls == null || urls.length == 0) {
+				throw new IllegalArgumentException("No URL was provided.");
+			} else if (urls.length > 1) {
+				throw new IllegalArgumentException("Too many URLs were provided.");
+			} else {
+				url = urls[0];
+			}
+
+			// Connect to the FTP server and download the update, unless the
+			// archive from the last update is still current.
+			Log.v(TAG, "Downloading update: " + url);
+			activity.runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					progress.setMessage("Downloading update...");
+					progress.setIndeterminate(true);
+				}
+			});
+			ArchiveCache cache = new ArchiveCache(new File(context.getCacheDir(), ARCHIVE_FILE), ArchiveCache.DAY);
+			long downloadStart = DOWNLOAD_TIMER.start();
+			boolean downloaded;
 			try {
-				// Clear out the old data.
-				database.delete(DatabaseHelper.PublicAccessEntry.TABLE_NAME, null, null);
-
-				// Make sure the download URL was fund.
-				final URL url;
-				if (urls == null || urls.length == 0) {
-					throw new IllegalArgumentException("No URL was provided.");
-				} else if (urls.length > 1) {
-					throw new IllegalArgumentException("Too many URLs were provided.");
-				} else {
-					url = urls[0];
+				downloaded = cache.fetch(url, timeout * 1000);
+			} finally {
+				DOWNLOAD_TIMER.stop(downloadStart);
+			}
+			Log.v(TAG, (downloaded ? "Downloaded " : "Reusing ") + cache.getFile() + ", " + cache.getFile().length() + " bytes");
+			Metrics.counter(downloaded ? "update.archive.downloaded" : "update.archive.reused").increment();
+			activity.runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					progress.setMessage("Loading update...");
 				}
+			});
 
-				// Connect to the FTP server and download the update.
-				Log.v(TAG, "Downloading update: " + url);
-				activity.runOnUiThread(new Runnable() {
-					@Override
-					public void run() {
-						progress.setMessage("Downloading update...");
-						progress.setIndeterminate(true);
-					}
-				});
-
-                final FTPClient client = new FTPClient();
-                final int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
-                client.connect(url.getHost(), port);
-                client.login("anonymous", "");
-                client.enterLocalPassiveMode();
-                Log.v(TAG, "Reply Code: " + client.getReplyCode());
-                try {
-                    Log.v(TAG, "Connected to " + url.getHost() + ":" + port);
-                    client.setFileType(FTP.BINARY_FILE_TYPE);
-
-                    // Download the ZIP archive.
-                    Log.v(TAG, "Downloading: " + url.getFile());
-                    try (InputStream in = client.retrieveFileStream(url.getFile())) {
-                        Log.v(TAG, "Reply Code: " + client.getReplyCode());
-                        if (in == null) throw new FileNotFoundException(url.getFile() + " was not found!");
-
-                        Map<Integer, Location> locations = null;
-
-                        try (ZipInputStream zin = new ZipInputStream(in)) {
-                            // Locate the .dbf entry in the ZIP archive.
-                            ZipEntry entry;
-                            while ((entry = zin.getNextEntry()) != null) {
-                                if (entry.getName().endsWith(entryName)) {
-                                    readDBaseFile(zin, database);
-                                } else if (entry.getName().endsWith(shapeEntryName)) {
-                                    locations = readShapeFile(zin);
-                                }
-                            }
-                        }
-
-                        if (locations != null) {
-                            final int recordCount = locations.size();
-                            activity.runOnUiThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    progress.setIndeterminate(false);
-                                    progress.setMessage("Updating locations...");
-                                    progress.setMax(recordCount);
-                                }
-                            });
-
-                            int progress = 0;
-                            for (int recordNumber : locations.keySet()) {
-                                PublicAccess access = db.getPublicAccessByRecordNumber(recordNumber);
-                                Location loc = locations.get(recordNumber);
-                                access.setLatitude(loc.getLatitude());
-                                access.setLongitude(loc.getLongitude());
-                                db.updatePublicAccess(access);
-                                publishProgress(++progress);
-                            }
-                        }
-                    }
-                } finally {
-                    client.disconnect();
-                }
+			// The search index won't match the new data, so remove it until
+			// the update has been committed.
+			if (db.getSearchIndexFile().exists() && !db.getSearchIndexFile().delete())
+				throw new IOException("Unable to delete " + db.getSearchIndexFile());
+
+			// A non-exclusive transaction lets the other screens keep reading
+			// the previous data until the update is committed.
+			database.beginTransactionNonExclusive();
+			try {
+				SiteImporter importer = new SiteImporter(database);
+				ArchiveListener listener = new ArchiveListener(importer);
+				try {
+					DnrArchiveReader.read(cache.getFile(), listener);
+					importer.removeMissing();
+				} catch (IOException e) {
+					// The archive may be damaged, so download it again next time.
+					cache.clear();
+					throw e;
+				} finally {
+					listener.endRecords();
+					importer.close();
+				}
+				countChanges(importer);
+				changes = importer.getChanges();
 
 				database.setTransactionSuccessful();
-				return db.getPublicAccessesCount();
 			} finally {
+				long commitStart = COMMIT_TIMER.start();
 				database.endTransaction();
+				COMMIT_TIMER.stop(commitStart);
 			}
+
+			// Only the public accesses which changed are evicted from the
+			// cache, the list and search index are updated afterwards.
+			db.applyChanges(changes);
+			return db.getPublicAccessesCount();
 		} catch (Exception e) {
 			error = e;
 			Log.e(TAG, "Error loading data: " + e.getLocalizedMessage(), e);
@@ -219,67 +191,101 @@ public class Updater extends AsyncTask<URL, Integer, Integer> {
 		}
 	}
 
-	private Map<Integer, Location> readShapeFile(ZipInputStream zin) throws IOException, InvalidShapeFileException {
+	private void countChanges(SiteImporter importer) {
+
+		Log.i(TAG, "Update: " + importer);
+		Metrics.counter("update.rows.added").add(importer.getAdded());
+		Metrics.counter("update.rows.modified").add(importer.getModified());
+		Metrics.counter("update.rows.moved").add(importer.getMoved());
+		Metrics.counter("update.rows.removed").add(importer.getRemoved());
+		Metrics.counter("update.rows.unchanged").add(importer.getUnchanged());
+		if (!importer.hasChanges()) {
+			summary = "nothing changed";
+		} else {
+			summary = importer.getAdded() + " new, " + (importer.getModified() + importer.getMoved()) + " changed, " +
+					importer.getRemoved() + " removed";
+		}
+	}
+
+	/**
+	 * This class applies the contents of the archive to the database as it
+	 * is read.
+	 */
+	private class ArchiveListener implements DnrArchiveReader.Listener {
 
-		ShapeFileReader reader = new ShapeFileReader(zin);
-		ShapeFileHeader header = reader.getHeader();
+		private final SiteImporter importer;
+		private int imported;
+		private long recordsStart = -1;
 
-		if (header.getShapeType() != ShapeType.POINT)
-			throw new InvalidShapeFileException("Unable to read " + header.getShapeType() + " shape files.");
+		ArchiveListener(SiteImporter importer) {
 
-		Map<Integer, Location> locations = new HashMap<>();
-		AbstractShape s;
-		while ((s = reader.next()) != null) {
-			if (s.getShapeType() == ShapeType.POINT) {
-				PointShape point = (PointShape) s;
-				int recordNumber = point.getHeader().getRecordNumber();
-				Location location = fromUTM(point.getY(), point.getX(), 15);
-				locations.put(recordNumber, location);
-			} else {
-				Log.d(TAG, "Unknown shape type: " + s.getShapeType());
+			this.importer = importer;
+		}
+
+		@Override
+		public void onHeader(Header header) {
+
+			recordsStart = RECORDS_TIMER.start();
+			final int recordCount = header.getNumberOfRecords();
+			activity.runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					progress.setIndeterminate(false);
+					progress.setMax(recordCount);
+				}
+			});
+			Log.v(TAG, "DBase version: " + header.getSignature());
+			Log.v(TAG, "Last Update: " + header.getLastUpdate());
+			Log.v(TAG, "Record Count: " + recordCount);
+		}
+
+		@Override
+		public void onRecord(SiteRecord record) {
+
+			importer.importRecord(record);
+			publishProgress(++imported);
+		}
+
+		/**
+		 * End the records stage.  The locations are only known once the
+		 * records have been imported and the shape file has been read.
+		 */
+		void endRecords() {
+
+			if (recordsStart < 0) return;
+			RECORDS_TIMER.stop(recordsStart);
+			recordsStart = -1;
+			Metrics.counter("update.records.imported").add(imported);
+		}
+
+		@Override
+		public void onLocations(DnrArchiveReader.Locations locations) {
+
+			endRecords();
+			long start = LOCATIONS_TIMER.start();
+			try {
+				updateLocations(locations);
+			} finally {
+				LOCATIONS_TIMER.stop(start);
 			}
 		}
-		return locations;
-	}
 
-	private void readDBaseFile(ZipInputStream zin, SQLiteDatabase database) throws IOException {
+		private void updateLocations(DnrArchiveReader.Locations locations) {
+
+			final int recordCount = locations.size();
+			activity.runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					progress.setIndeterminate(false);
+					progress.setMessage("Updating locations...");
+					progress.setMax(recordCount);
+				}
+			});
 
-		// Begin parsing the DBase data.
-		DBaseReader reader = new DBaseReader(zin);
-		final int recordCount = reader.size();
-		activity.runOnUiThread(new Runnable() {
-			@Override
-			public void run() {
-				progress.setIndeterminate(false);
-				progress.setMax(recordCount);
+			for (int i = 0; i < recordCount; i++) {
+				importer.importLocation(locations.getRecordNumber(i), locations.getLatitude(i), locations.getLongitude(i));
+				publishProgress(i + 1);
 			}
-		});
-		Log.v(TAG, "DBase version: " + reader.getHeader().getSignature());
-		Log.v(TAG, "Last Update: " + reader.getHeader().getLastUpdate());
-		Log.v(TAG, "Record Count: " + reader.size());
-
-		// Insert the records into the local database.
-		int progress = 0;
-		for (Record access : reader) {
-			String lake = (String) access.getValue("LAKENAME");
-			if (lake == null || lake.isEmpty())
-				lake = (String) access.getValue("LAKE_NAME");
-			if (lake == null || lake.isEmpty())
-				lake = (String) access.getValue("ALT_NAME");
-			if (lake == null || lake.isEmpty()) lake = String.valueOf(progress);
-
-			ContentValues values = new ContentValues();
-			values.put(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_NAME, (String) access.getValue("FAC_NAME"));
-			values.put(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_LAUNCH, (String) access.getValue("LAUNCHTYPE"));
-			values.put(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_RAMP, (String) access.getValue("RAMPTYPE"));
-			values.put(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_RAMPS, (Double) access.getValue("NUMRAMPS"));
-			values.put(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_DOCKS, (Double) access.getValue("NUMDOCKS"));
-			values.put(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_DIRECTIONS, (String) access.getValue("DIRECTIONS"));
-			values.put(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_LAKE, lake);
-			values.put(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_COUNTY, (String) access.getValue("COUNTYNAME"));
-			values.put(DatabaseHelper.PublicAccessEntry.COLUMN_NAME_RECORD_NUMBER, progress + 1);
-			database.insert(DatabaseHelper.PublicAccessEntry.TABLE_NAME, null, values);
-			publishProgress(++progress);
 		}
 	}
 
@@ -299,13 +305,14 @@ public class Updater extends AsyncTask<URL, Integer, Integer> {
 		} catch (IllegalArgumentException e) {
 			Log.e(TAG, "Error dismissing progress dialog.", e);
 		}
-		// Update list view.
-		adapter.refresh();
+		// Update the loaded list with the changes.  If the update failed
+		// nothing changed, but the search index still has to be written.
+		PublicAccessRepository.getInstance(context).applyChanges(error == null ? changes : ChangeSet.EMPTY);
 		String message;
 		if (error != null) {
 			message = "Error loading data: " + error.getLocalizedMessage();
 		} else {
-			message = "Loaded " + integer + " public accesses.";
+			message = "Loaded " + integer + " public accesses, " + summary + ".";
 		}
 		Toast.makeText(context, message, Toast.LENGTH_LONG).show();
 	}
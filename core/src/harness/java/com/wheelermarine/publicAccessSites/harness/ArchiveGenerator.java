@@ -0,0 +1,144 @@
+package com.wheelermarine.publicAccessSites.harness;
+
+import com.wheelermarine.publicAccessSites.dnr.DnrArchiveReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * <p>
+ * This class generates a ZIP archive laid out like the one published by the
+ * MN DNR: a dBASE III file with the fields the application reads followed by
+ * a point shape file with a UTM location for every record.  The values are
+ * random but repeatable for a seed, and include the awkward cases the real
+ * data has such as missing lake names and quotes in the text.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class ArchiveGenerator {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final String[] LAUNCHES = {"Carry-in", "Trailer", "Carry-in & Trailer"};
+	private static final String[] RAMPS = {"Concrete", "Gravel", "Plank", "Earthen"};
+
+	// The names and widths of the DBase fields, numeric fields are marked
+	// with an N.
+	private static final String[] FIELD_NAMES = {"FAC_NAME", "LAUNCHTYPE", "RAMPTYPE", "NUMRAMPS", "NUMDOCKS", "DIRECTIONS", "LAKENAME", "ALT_NAME", "COUNTYNAME"};
+	private static final char[] FIELD_TYPES = {'C', 'C', 'C', 'N', 'N', 'C', 'C', 'C', 'C'};
+	private static final int[] FIELD_LENGTHS = {60, 20, 20, 4, 4, 200, 40, 40, 20};
+
+	// Minnesota in UTM zone 15.
+	private static final double MIN_EAST = 190000, MAX_EAST = 760000;
+	private static final double MIN_NORTH = 4820000, MAX_NORTH = 5470000;
+
+	private ArchiveGenerator() {
+
+	}
+
+	/**
+	 * Generate an archive.
+	 *
+	 * @param records the number of public accesses.
+	 * @param seed    the seed for the random values.
+	 * @return the ZIP archive.
+	 * @throws IOException if there is an error compressing the archive.
+	 */
+	public static byte[] generate(int records, long seed) throws IOException {
+
+		Random random = new Random(seed);
+		double[] east = new double[records];
+		double[] north = new double[records];
+		for (int i = 0; i < records; i++) {
+			east[i] = MIN_EAST + random.nextDouble() * (MAX_EAST - MIN_EAST);
+			north[i] = MIN_NORTH + random.nextDouble() * (MAX_NORTH - MIN_NORTH);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+			zip.putNextEntry(new ZipEntry("shor_waspt3.txt"));
+			zip.write("Generated public access test data.\n".getBytes(ASCII));
+			zip.putNextEntry(new ZipEntry(DnrArchiveReader.DBASE_ENTRY));
+			zip.write(dbase(records, random));
+			zip.putNextEntry(new ZipEntry(DnrArchiveReader.SHAPE_ENTRY));
+			zip.write(shapes(east, north));
+			zip.closeEntry();
+		}
+		return bytes.toByteArray();
+	}
+
+	private static byte[] dbase(int records, Random random) {
+
+		int recordLength = 1;
+		for (int length : FIELD_LENGTHS) recordLength += length;
+		int headerLength = 32 + 32 * FIELD_NAMES.length + 1;
+
+		ByteBuffer buffer = ByteBuffer.allocate(headerLength + records * recordLength + 1).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put((byte) 3).put((byte) 113).put((byte) 6).put((byte) 1);
+		buffer.putInt(records).putShort((short) headerLength).putShort((short) recordLength);
+		buffer.position(32);
+		for (int i = 0; i < FIELD_NAMES.length; i++) {
+			int start = buffer.position();
+			buffer.put(FIELD_NAMES[i].getBytes(ASCII));
+			buffer.position(start + 11);
+			buffer.put((byte) FIELD_TYPES[i]);
+			buffer.position(start + 16);
+			buffer.put((byte) FIELD_LENGTHS[i]).put((byte) 0);
+			buffer.position(start + 32);
+		}
+		buffer.put((byte) 0x0d);
+
+		String[] values = new String[FIELD_NAMES.length];
+		for (int i = 0; i < records; i++) {
+			int lake = random.nextInt(Math.max(1, records / 4));
+			values[0] = i % 13 == 0 ? "Lake " + lake + " \"North\" Access, Public" : "Lake " + lake + " Access " + i;
+			values[1] = LAUNCHES[random.nextInt(LAUNCHES.length)];
+			values[2] = RAMPS[random.nextInt(RAMPS.length)];
+			values[3] = Integer.toString(random.nextInt(4));
+			values[4] = Integer.toString(random.nextInt(3));
+			values[5] = "From Hwy " + random.nextInt(400) + " go " + (1 + random.nextInt(20)) + " mi to the county's road, access is on the left.";
+			values[6] = i % 17 == 0 ? "" : "Lake " + lake;
+			values[7] = i % 34 == 0 ? "" : "Alternate " + lake;
+			values[8] = "County " + random.nextInt(87);
+
+			buffer.put((byte) ' ');
+			for (int f = 0; f < values.length; f++) {
+				byte[] value = values[f].getBytes(ASCII);
+				byte[] field = new byte[FIELD_LENGTHS[f]];
+				Arrays.fill(field, (byte) ' ');
+				int length = Math.min(value.length, field.length);
+				// Numbers are right aligned, text is left aligned.
+				System.arraycopy(value, 0, field, FIELD_TYPES[f] == 'N' ? field.length - length : 0, length);
+				buffer.put(field);
+			}
+		}
+		buffer.put((byte) 0x1a);
+		return buffer.array();
+	}
+
+	private static byte[] shapes(double[] east, double[] north) {
+
+		int recordLength = 8 + 20;
+		int fileLength = 100 + east.length * recordLength;
+		ByteBuffer buffer = ByteBuffer.allocate(fileLength);
+		buffer.order(ByteOrder.BIG_ENDIAN).putInt(9994).putInt(0).putInt(0).putInt(0).putInt(0).putInt(0).putInt(fileLength / 2);
+		buffer.order(ByteOrder.LITTLE_ENDIAN).putInt(1000).putInt(1);
+		buffer.putDouble(MIN_EAST).putDouble(MIN_NORTH).putDouble(MAX_EAST).putDouble(MAX_NORTH);
+		buffer.putDouble(0).putDouble(0).putDouble(0).putDouble(0);
+		for (int i = 0; i < east.length; i++) {
+			buffer.order(ByteOrder.BIG_ENDIAN).putInt(i + 1).putInt(10);
+			buffer.order(ByteOrder.LITTLE_ENDIAN).putInt(1).putDouble(east[i]).putDouble(north[i]);
+		}
+		return buffer.array();
+	}
+}
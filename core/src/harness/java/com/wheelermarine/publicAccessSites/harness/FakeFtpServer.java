@@ -0,0 +1,313 @@
+package com.wheelermarine.publicAccessSites.harness;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * This class is a small FTP server which runs in the same process as the
+ * harness.  It only understands the commands the updater sends for an
+ * anonymous passive download and the modification time check before it, and
+ * it serves files from memory.  The network
+ * can be made worse with <code>Conditions</code>: a slower link, a delay
+ * before every reply, a stall part way through a transfer, or a connection
+ * which is dropped part way through a transfer.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class FakeFtpServer implements Closeable {
+
+	/**
+	 * Transfers are written in chunks of this size so the bandwidth can be
+	 * limited smoothly.
+	 */
+	private static final int CHUNK = 4096;
+
+	/**
+	 * How long to wait for the client to open a data connection.
+	 */
+	private static final int DATA_TIMEOUT = 30000;
+
+	private final ServerSocket server;
+	private final Map<String, byte[]> files = new ConcurrentHashMap<String, byte[]>();
+	private final Map<String, String> modified = new ConcurrentHashMap<String, String>();
+	private volatile Conditions conditions = Conditions.NONE;
+	private final Thread acceptThread;
+
+	/**
+	 * The network conditions for the transfers.
+	 */
+	public static class Conditions {
+
+		public static final Conditions NONE = new Conditions(0, 0, -1, 0, -1);
+
+		private final long bytesPerSecond;
+		private final long latency;
+		private final long stallAt;
+		private final long stallFor;
+		private final long disconnectAt;
+
+		/**
+		 * Create the conditions.
+		 *
+		 * @param bytesPerSecond the bandwidth of a transfer, or 0 for no limit.
+		 * @param latency        the delay before every reply and before the
+		 *                       first byte of a transfer, in milliseconds.
+		 * @param stallAt        the offset at which a transfer stops sending,
+		 *                       or -1 for no stall.
+		 * @param stallFor       how long a transfer stalls, in milliseconds.
+		 * @param disconnectAt   the offset at which both connections are
+		 *                       dropped, or -1 to send the whole file.
+		 */
+		public Conditions(long bytesPerSecond, long latency, long stallAt, long stallFor, long disconnectAt) {
+
+			this.bytesPerSecond = bytesPerSecond;
+			this.latency = latency;
+			this.stallAt = stallAt;
+			this.stallFor = stallFor;
+			this.disconnectAt = disconnectAt;
+		}
+
+		@Override
+		public String toString() {
+
+			return String.format(Locale.US, "%s, %d ms latency%s%s",
+					bytesPerSecond > 0 ? bytesPerSecond / 1024 + " KB/s" : "unlimited",
+					latency,
+					stallAt >= 0 ? ", " + stallFor + " ms stall at " + stallAt : "",
+					disconnectAt >= 0 ? ", disconnect at " + disconnectAt : "");
+		}
+	}
+
+	/**
+	 * Start a server on a free port of the loopback address.
+	 *
+	 * @throws IOException if the server can't be started.
+	 */
+	public FakeFtpServer() throws IOException {
+
+		server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		acceptThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+
+				accept();
+			}
+		}, "FakeFtpServer");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	public int getPort() {
+
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Serve a file.  Its modification time is the time it was put.
+	 *
+	 * @param path the path of the file, starting with a slash.
+	 * @param data the contents of the file.
+	 */
+	public void putFile(String path, byte[] data) {
+
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss.SSS", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		files.put(path, data);
+		modified.put(path, format.format(new Date()));
+	}
+
+	public void setConditions(Conditions conditions) {
+
+		this.conditions = conditions;
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		server.close();
+	}
+
+	private void accept() {
+
+		while (!server.isClosed()) {
+			try {
+				final Socket socket = server.accept();
+				Thread session = new Thread(new Runnable() {
+					@Override
+					public void run() {
+
+						session(socket, conditions);
+					}
+				}, "FakeFtpServer session");
+				session.setDaemon(true);
+				session.start();
+			} catch (IOException e) {
+				// The server was closed.
+			}
+		}
+	}
+
+	/**
+	 * Answer the commands of one control connection.
+	 */
+	private void session(Socket control, Conditions conditions) {
+
+		ServerSocket passive = null;
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(control.getInputStream(), "US-ASCII"));
+			Writer out = new OutputStreamWriter(control.getOutputStream(), "US-ASCII");
+			reply(out, conditions, "220 Fake FTP server ready.");
+			String line;
+			while ((line = in.readLine()) != null) {
+				int space = line.indexOf(' ');
+				String command = (space < 0 ? line : line.substring(0, space)).toUpperCase(Locale.US);
+				String argument = space < 0 ? "" : line.substring(space + 1);
+				if ("USER".equals(command)) {
+					reply(out, conditions, "331 Send a password.");
+				} else if ("PASS".equals(command)) {
+					reply(out, conditions, "230 Logged in.");
+				} else if ("SYST".equals(command)) {
+					reply(out, conditions, "215 UNIX Type: L8");
+				} else if ("TYPE".equals(command) || "MODE".equals(command) || "STRU".equals(command)) {
+					reply(out, conditions, "200 OK.");
+				} else if ("PASV".equals(command)) {
+					if (passive != null) passive.close();
+					passive = new ServerSocket(0, 1, control.getLocalAddress());
+					passive.setSoTimeout(DATA_TIMEOUT);
+					int port = passive.getLocalPort();
+					String host = control.getLocalAddress().getHostAddress().replace('.', ',');
+					reply(out, conditions, "227 Entering Passive Mode (" + host + "," + (port >> 8) + "," + (port & 0xff) + ").");
+				} else if ("EPSV".equals(command)) {
+					if (passive != null) passive.close();
+					passive = new ServerSocket(0, 1, control.getLocalAddress());
+					passive.setSoTimeout(DATA_TIMEOUT);
+					reply(out, conditions, "229 Entering Extended Passive Mode (|||" + passive.getLocalPort() + "|).");
+				} else if ("MDTM".equals(command)) {
+					String time = modified.get(argument);
+					reply(out, conditions, time == null ? "550 " + argument + ": No such file." : "213 " + time);
+				} else if ("RETR".equals(command)) {
+					byte[] data = files.get(argument);
+					if (data == null) {
+						reply(out, conditions, "550 " + argument + ": No such file.");
+					} else if (passive == null) {
+						reply(out, conditions, "425 Use PASV first.");
+					} else {
+						reply(out, conditions, "150 Opening BINARY mode data connection (" + data.length + " bytes).");
+						Socket socket = passive.accept();
+						passive.close();
+						passive = null;
+						if (!send(socket, data, conditions)) {
+							control.close();
+							return;
+						}
+						reply(out, conditions, "226 Transfer complete.");
+					}
+				} else if ("QUIT".equals(command)) {
+					reply(out, conditions, "221 Goodbye.");
+					return;
+				} else {
+					reply(out, conditions, "502 " + command + " not implemented.");
+				}
+			}
+		} catch (IOException e) {
+			// The client went away.
+		} finally {
+			try {
+				if (passive != null) passive.close();
+				control.close();
+			} catch (IOException e) {
+				// Nothing else to do.
+			}
+		}
+	}
+
+	private static void reply(Writer out, Conditions conditions, String reply) throws IOException {
+
+		sleep(conditions.latency);
+		out.write(reply);
+		out.write("\r\n");
+		out.flush();
+	}
+
+	/**
+	 * Send a file over a data connection.
+	 *
+	 * @return <code>false</code> if the connection was dropped on purpose.
+	 */
+	private static boolean send(Socket socket, byte[] data, Conditions conditions) throws IOException {
+
+		try {
+			OutputStream out = socket.getOutputStream();
+			sleep(conditions.latency);
+			long start = System.nanoTime();
+			long stalled = 0;
+			boolean stall = conditions.stallAt >= 0;
+			for (int offset = 0; offset < data.length; ) {
+				int length = Math.min(CHUNK, data.length - offset);
+				if (stall && offset + length > conditions.stallAt) length = (int) Math.max(1, conditions.stallAt - offset);
+				if (conditions.disconnectAt >= 0 && offset + length > conditions.disconnectAt) {
+					length = (int) (conditions.disconnectAt - offset);
+					if (length > 0) out.write(data, offset, length);
+					out.flush();
+					// Drop the connection without a FIN so the client sees a reset.
+					socket.setSoLinger(true, 0);
+					return false;
+				}
+				out.write(data, offset, length);
+				offset += length;
+				if (stall && offset >= conditions.stallAt) {
+					out.flush();
+					sleep(conditions.stallFor);
+					stalled += conditions.stallFor;
+					stall = false;
+				}
+				if (conditions.bytesPerSecond > 0) {
+					// Wait until the bytes sent so far are within the bandwidth.
+					long due = offset * 1000L / conditions.bytesPerSecond + stalled;
+					long elapsed = (System.nanoTime() - start) / 1000000;
+					if (due > elapsed) {
+						out.flush();
+						sleep(due - elapsed);
+					}
+				}
+			}
+			out.flush();
+			return true;
+		} catch (SocketException e) {
+			// The client closed the connection.
+			return true;
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static void sleep(long millis) {
+
+		if (millis <= 0) return;
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,292 @@
+package com.wheelermarine.publicAccessSites.harness;
+
+import com.wheelermarine.publicAccessSites.cli.Convert;
+import com.wheelermarine.publicAccessSites.cli.SqlScriptWriter;
+import com.wheelermarine.publicAccessSites.dbase.Header;
+import com.wheelermarine.publicAccessSites.dnr.ArchiveCache;
+import com.wheelermarine.publicAccessSites.dnr.DnrArchiveReader;
+import com.wheelermarine.publicAccessSites.dnr.SiteRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>
+ * This harness runs the whole update the way <code>Updater</code> does,
+ * against a generated archive served by <code>FakeFtpServer</code> under a
+ * range of network conditions.  The archive is spooled to disk and parsed
+ * with the shape file on a second thread, the records are inserted and then
+ * their locations are updated in a SQL script which stands in for the SQLite
+ * database, and the search index is written last.  Every scenario downloads
+ * the archive except <code>reimport</code>, which reuses the cached archive
+ * while every transfer would be dropped.  For every scenario it prints
+ * whether the update succeeded, the total time and the time of each stage,
+ * the peak heap and the size of the database and index.
+ * </p>
+ * <p>
+ * A scenario which is expected to succeed and fails, or is expected to fail
+ * and doesn't fail within its timeout, makes the harness exit with 1 so it
+ * can be run as a build step:
+ * </p>
+ * <pre>
+ *     gradle :core:runHarness -Pargs="-records 5000 mobile stall"
+ * </pre>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class UpdateHarness {
+
+	private static final String USAGE = "Usage: harness [-records n] [-seed n] [scenario...]";
+	private static final String PATH = "/pub/gisftp/shor_waspt3.zip";
+	private static final Map<String, Scenario> SCENARIOS = new LinkedHashMap<String, Scenario>();
+
+	static {
+		add(new Scenario("baseline", true, 60000, 0, 0, -1, 0, -1, false));
+		add(new Scenario("broadband", true, 60000, 2 * 1024 * 1024, 20, -1, 0, -1, false));
+		add(new Scenario("mobile", true, 60000, 96 * 1024, 150, -1, 0, -1, false));
+		add(new Scenario("stall", true, 10000, 512 * 1024, 50, 0.5, 3000, -1, false));
+		add(new Scenario("stall-timeout", false, 2000, 512 * 1024, 50, 0.5, 30000, -1, false));
+		add(new Scenario("disconnect", false, 60000, 512 * 1024, 50, -1, 0, 0.5, false));
+		add(new Scenario("disconnect-early", false, 60000, 0, 0, -1, 0, 0.01, false));
+		add(new Scenario("reimport", true, 60000, 0, 0, -1, 0, 0.01, true));
+	}
+
+	private UpdateHarness() {
+
+	}
+
+	private static void add(Scenario scenario) {
+
+		SCENARIOS.put(scenario.name, scenario);
+	}
+
+	/**
+	 * A named set of network conditions.  Offsets are fractions of the
+	 * archive so they work for any number of records.
+	 */
+	private static class Scenario {
+
+		final String name;
+		final boolean succeeds;
+		final int timeout;
+		final long bytesPerSecond;
+		final long latency;
+		final double stallAt;
+		final long stallFor;
+		final double disconnectAt;
+		final boolean cached;
+
+		Scenario(String name, boolean succeeds, int timeout, long bytesPerSecond, long latency,
+		         double stallAt, long stallFor, double disconnectAt, boolean cached) {
+
+			this.name = name;
+			this.succeeds = succeeds;
+			this.timeout = timeout;
+			this.bytesPerSecond = bytesPerSecond;
+			this.latency = latency;
+			this.stallAt = stallAt;
+			this.stallFor = stallFor;
+			this.disconnectAt = disconnectAt;
+			this.cached = cached;
+		}
+
+		FakeFtpServer.Conditions conditions(int length) {
+
+			return new FakeFtpServer.Conditions(bytesPerSecond, latency,
+					stallAt < 0 ? -1 : (long) (length * stallAt), stallFor,
+					disconnectAt < 0 ? -1 : (long) (length * disconnectAt));
+		}
+	}
+
+	/**
+	 * The measurements of one run.
+	 */
+	private static class Result {
+
+		long download;
+		boolean downloaded;
+		long records;
+		long locations;
+		long index;
+		long total;
+		long peakHeap;
+		long databaseSize;
+		long indexSize;
+		int recordCount;
+		Exception error;
+	}
+
+	public static void main(String[] args) throws IOException {
+
+		int records = 2000;
+		long seed = 1;
+		List<Scenario> scenarios = new ArrayList<Scenario>();
+		for (int i = 0; i < args.length; i++) {
+			if ("-records".equals(args[i]) && i + 1 < args.length) {
+				records = Integer.parseInt(args[++i]);
+			} else if ("-seed".equals(args[i]) && i + 1 < args.length) {
+				seed = Long.parseLong(args[++i]);
+			} else if (SCENARIOS.containsKey(args[i])) {
+				scenarios.add(SCENARIOS.get(args[i]));
+			} else {
+				System.err.println("Unknown scenario: " + args[i] + ", expected one of " + SCENARIOS.keySet());
+				System.err.println(USAGE);
+				System.exit(2);
+			}
+		}
+		if (scenarios.isEmpty()) scenarios.addAll(SCENARIOS.values());
+
+		byte[] archive = ArchiveGenerator.generate(records, seed);
+		System.out.println(String.format(Locale.US, "Archive: %d records, %d bytes", records, archive.length));
+		System.out.println(String.format(Locale.US, "%-17s %-6s %9s %9s %9s %9s %9s %9s %10s %10s  %s",
+				"scenario", "result", "total ms", "download", "records", "locations", "index", "heap MB", "db bytes", "idx bytes", "conditions / error"));
+
+		boolean regression = false;
+		File dir = createTempDir();
+		try (FakeFtpServer server = new FakeFtpServer()) {
+			server.putFile(PATH, archive);
+			URL url = new URL("ftp", "127.0.0.1", server.getPort(), PATH);
+			// Warm up the JIT so the first scenario isn't penalized.
+			server.setConditions(FakeFtpServer.Conditions.NONE);
+			run(url, 60000, dir, false);
+
+			for (Scenario scenario : scenarios) {
+				if (scenario.cached) {
+					// Make sure there is a good archive to reuse.
+					server.setConditions(FakeFtpServer.Conditions.NONE);
+					run(url, 60000, dir, false);
+				}
+				FakeFtpServer.Conditions conditions = scenario.conditions(archive.length);
+				server.setConditions(conditions);
+				Result result = run(url, scenario.timeout, dir, scenario.cached);
+				boolean ok = result.error == null && result.recordCount == records;
+				boolean expected = ok == scenario.succeeds;
+				regression |= !expected;
+				System.out.println(String.format(Locale.US, "%-17s %-6s %9d %9d %9d %9d %9d %9.1f %10d %10d  %s",
+						scenario.name, (ok ? "ok" : "failed") + (expected ? "" : "!"),
+						result.total, result.download, result.records, result.locations, result.index,
+						result.peakHeap / (1024.0 * 1024.0), result.databaseSize, result.indexSize,
+						result.error == null ? (result.downloaded ? "" : "cached, ") + conditions : result.error.getClass().getSimpleName() + ": " + result.error.getMessage()));
+			}
+		} finally {
+			delete(dir);
+		}
+		if (regression) {
+			System.out.println("A scenario did not end as expected, marked with !");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Run one update and measure it.
+	 */
+	private static Result run(URL url, int timeout, File dir, boolean cached) {
+
+		final Result result = new Result();
+		File database = new File(dir, "wheelermarine.sql");
+		File index = new File(dir, "search.idx");
+		ArchiveCache cache = new ArchiveCache(new File(dir, "shor_waspt3.zip"), ArchiveCache.DAY);
+		database.delete();
+		index.delete();
+		if (!cached) cache.clear();
+
+		System.gc();
+		List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() != MemoryType.HEAP) continue;
+			pool.resetPeakUsage();
+			pools.add(pool);
+		}
+
+		final long start = System.nanoTime();
+		final long[] mark = {start};
+		final List<SiteRecord> records = new ArrayList<SiteRecord>();
+		try (final SqlScriptWriter script = new SqlScriptWriter(database)) {
+			result.downloaded = cache.fetch(url, timeout);
+			result.download = lap(mark);
+			DnrArchiveReader.read(cache.getFile(), new DnrArchiveReader.Listener() {
+				@Override
+				public void onHeader(Header header) {
+
+					records.clear();
+				}
+
+				@Override
+				public void onRecord(SiteRecord record) throws IOException {
+
+					records.add(record);
+					script.insert(0, record);
+				}
+
+				@Override
+				public void onLocations(DnrArchiveReader.Locations locations) throws IOException {
+
+					result.records = lap(mark);
+					for (int i = 0; i < locations.size(); i++) {
+						script.updateLocation(locations.getRecordNumber(i), locations.getLatitude(i), locations.getLongitude(i));
+					}
+					result.locations = lap(mark);
+				}
+			});
+			result.recordCount = records.size();
+		} catch (Exception e) {
+			result.error = e;
+		}
+
+		if (result.error == null) {
+			try {
+				Convert.writeIndex(records, index);
+				result.index = lap(mark);
+			} catch (IOException e) {
+				result.error = e;
+			}
+		}
+		result.total = (System.nanoTime() - start) / 1000000;
+		for (MemoryPoolMXBean pool : pools) {
+			result.peakHeap += pool.getPeakUsage().getUsed();
+		}
+		// A failed update is rolled back, so it leaves nothing behind.
+		result.databaseSize = result.error == null ? database.length() : 0;
+		result.indexSize = index.length();
+		return result;
+	}
+
+	/**
+	 * Get the milliseconds since the last lap and start a new one.
+	 */
+	private static long lap(long[] mark) {
+
+		long now = System.nanoTime();
+		long elapsed = (now - mark[0]) / 1000000;
+		mark[0] = now;
+		return elapsed;
+	}
+
+	private static File createTempDir() throws IOException {
+
+		File dir = File.createTempFile("harness", "");
+		if (!dir.delete() || !dir.mkdir()) throw new IOException("Unable to create " + dir);
+		return dir;
+	}
+
+	private static void delete(File dir) {
+
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) file.delete();
+		}
+		dir.delete();
+	}
+}
@@ -0,0 +1,271 @@
+package com.wheelermarine.publicAccessSites.cli;
+
+import com.wheelermarine.publicAccessSites.dnr.DnrArchiveReader;
+import com.wheelermarine.publicAccessSites.dnr.SiteRecord;
+import com.wheelermarine.publicAccessSites.search.SearchIndexFile;
+import com.wheelermarine.publicAccessSites.search.SearchKeys;
+import com.wheelermarine.publicAccessSites.search.TrigramIndex;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <p>
+ * This is a command line converter for the public access ZIP archive
+ * published by the MN DNR.  It reads the archive with the same code the
+ * application uses and writes the public accesses as:
+ * </p>
+ * <ul>
+ * <li><code>sql</code> - a script which creates the application's table,
+ * for example <code>sqlite3 wheelermarine &lt; accesses.sql</code>.</li>
+ * <li><code>csv</code> - one row per public access with a header.</li>
+ * <li><code>index</code> - the search index file the application maps at
+ * startup.  The row IDs are the ones assigned by the <code>sql</code>
+ * script.</li>
+ * </ul>
+ * <p>
+ * The archive can be read several times with <code>-n</code> to benchmark
+ * it, and the time and throughput of every stage is printed to standard
+ * error.
+ * </p>
+ * <pre>
+ *     java -jar core.jar [-f sql|csv|index] [-n repeat] archive.zip output
+ * </pre>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class Convert {
+
+	private static final String USAGE = "Usage: convert [-f sql|csv|index] [-n repeat] archive.zip output";
+	private static final String CSV_HEADER = "id,name,launch,ramp,ramps,docks,directions,lake,county,latitude,longitude,record_number\n";
+
+	private Convert() {
+
+	}
+
+	public static void main(String[] args) {
+
+		String format = null;
+		int repeat = 1;
+		String archive = null;
+		String output = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if ("-f".equals(args[i]) && i + 1 < args.length) {
+					format = args[++i];
+				} else if ("-n".equals(args[i]) && i + 1 < args.length) {
+					repeat = Integer.parseInt(args[++i]);
+				} else if (archive == null) {
+					archive = args[i];
+				} else if (output == null) {
+					output = args[i];
+				} else {
+					throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+				}
+			}
+			if (archive == null || output == null || repeat < 1) throw new IllegalArgumentException(USAGE);
+			if (format == null) format = formatOf(output);
+			convert(new File(archive), new File(output), format, repeat);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+		} catch (IOException e) {
+			System.err.println("Error converting " + archive + ": " + e.getLocalizedMessage());
+			System.exit(1);
+		}
+	}
+
+	private static String formatOf(String output) {
+
+		String name = output.toLowerCase(Locale.US);
+		if (name.endsWith(".sql")) return "sql";
+		if (name.endsWith(".csv")) return "csv";
+		if (name.endsWith(".idx") || name.endsWith(".index")) return "index";
+		throw new IllegalArgumentException("Unable to tell the format of " + output + ", use -f.\n" + USAGE);
+	}
+
+	/**
+	 * Read an archive and write it in one of the output formats.
+	 *
+	 * @param archive the ZIP archive.
+	 * @param output  the file to write.
+	 * @param format  <code>sql</code>, <code>csv</code> or <code>index</code>.
+	 * @param repeat  how many times the archive is read.  Only the last read
+	 *                is written.
+	 * @throws IOException if there is an error reading or writing.
+	 */
+	public static void convert(File archive, File output, String format, int repeat) throws IOException {
+
+		if (!"sql".equals(format) && !"csv".equals(format) && !"index".equals(format))
+			throw new IllegalArgumentException("Unknown format: " + format + "\n" + USAGE);
+
+		List<SiteRecord> records = null;
+		long[] times = new long[repeat];
+		long bytes = archive.length();
+		for (int i = 0; i < repeat; i++) {
+			long start = System.nanoTime();
+			records = DnrArchiveReader.readAll(archive);
+			times[i] = System.nanoTime() - start;
+		}
+		int located = 0;
+		for (SiteRecord record : records) {
+			if (record.hasLocation()) located++;
+		}
+		System.err.println(String.format(Locale.US, "Read %d records (%d with locations) from %s, %d bytes.",
+				records.size(), located, archive, bytes));
+		report("read", times, records.size(), bytes);
+
+		long start = System.nanoTime();
+		if ("sql".equals(format)) {
+			writeSql(records, output);
+		} else if ("csv".equals(format)) {
+			writeCsv(records, output);
+		} else {
+			writeIndex(records, output);
+		}
+		report("write " + format, new long[]{System.nanoTime() - start}, records.size(), output.length());
+	}
+
+	/**
+	 * Print the time and throughput of a stage.  The fastest and median times
+	 * are printed when it was run more than once.
+	 */
+	private static void report(String stage, long[] times, int records, long bytes) {
+
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		long best = sorted[0];
+		long median = sorted[sorted.length / 2];
+		double seconds = Math.max(best, 1) / 1e9;
+		String line = String.format(Locale.US, "%-12s %9.2f ms %12.0f records/s %8.2f MB/s",
+				stage, best / 1e6, records / seconds, bytes / seconds / (1024 * 1024));
+		if (times.length > 1) line += String.format(Locale.US, "  (best of %d, median %.2f ms)", times.length, median / 1e6);
+		System.err.println(line);
+	}
+
+	private static Writer openWriter(File output) throws IOException {
+
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), "UTF-8"), 64 * 1024);
+	}
+
+	/**
+	 * Write a SQL script which inserts every public access.  The row IDs are
+	 * written out so they match the search index.
+	 */
+	private static void writeSql(List<SiteRecord> records, File output) throws IOException {
+
+		try (SqlScriptWriter out = new SqlScriptWriter(output)) {
+			long id = 1;
+			for (SiteRecord record : records) {
+				out.insert(id++, record);
+			}
+		}
+	}
+
+	/**
+	 * Write a CSV file as described by RFC 4180.
+	 */
+	private static void writeCsv(List<SiteRecord> records, File output) throws IOException {
+
+		try (Writer out = openWriter(output)) {
+			out.write(CSV_HEADER);
+			long id = 1;
+			for (SiteRecord record : records) {
+				out.write(Long.toString(id++));
+				out.write(',');
+				writeCsvString(out, record.getName());
+				out.write(',');
+				writeCsvString(out, record.getLaunch());
+				out.write(',');
+				writeCsvString(out, record.getRamp());
+				out.write(',');
+				SqlScriptWriter.writeNumber(out, record.getRamps(), "");
+				out.write(',');
+				SqlScriptWriter.writeNumber(out, record.getDocks(), "");
+				out.write(',');
+				writeCsvString(out, record.getDirections());
+				out.write(',');
+				writeCsvString(out, record.getLake());
+				out.write(',');
+				writeCsvString(out, record.getCounty());
+				out.write(',');
+				SqlScriptWriter.writeNumber(out, record.hasLocation() ? record.getLatitude() : null, "");
+				out.write(',');
+				SqlScriptWriter.writeNumber(out, record.hasLocation() ? record.getLongitude() : null, "");
+				out.write(',');
+				out.write(Integer.toString(record.getRecordNumber()));
+				out.write("\r\n");
+			}
+		}
+	}
+
+	private static void writeCsvString(Writer out, String value) throws IOException {
+
+		if (value == null) return;
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			out.write(value);
+			return;
+		}
+		out.write('"');
+		out.write(value.replace("\"", "\"\""));
+		out.write('"');
+	}
+
+	/**
+	 * Write the search index in the order the application lists the public
+	 * accesses, which is by name, lake and then ID.  The ID of each record is
+	 * its position in the list plus one.
+	 *
+	 * @param records the public accesses in the order they were inserted.
+	 * @param output  the file to write.
+	 * @throws IOException if there is an error writing the file.
+	 */
+	public static void writeIndex(final List<SiteRecord> records, File output) throws IOException {
+
+		Integer[] order = new Integer[records.size()];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+
+				// SQLite sorts NULL first and compares text by its bytes,
+				// which is the same as comparing the characters.
+				int c = compareNullsFirst(records.get(a).getName(), records.get(b).getName());
+				if (c == 0) c = compareNullsFirst(records.get(a).getLake(), records.get(b).getLake());
+				return c != 0 ? c : a.compareTo(b);
+			}
+		});
+
+		long[] ids = new long[order.length];
+		SearchKeys.Builder keys = new SearchKeys.Builder(order.length);
+		SearchIndexFile.Stamp stamp = new SearchIndexFile.Stamp();
+		for (int i = 0; i < order.length; i++) {
+			SiteRecord record = records.get(order[i]);
+			String name = SiteRecord.clean(record.getName());
+			String lake = SiteRecord.clean(record.getLake());
+			ids[i] = order[i] + 1;
+			keys.add(name, lake);
+			stamp.add(ids[i], name, lake);
+		}
+		SearchKeys searchKeys = keys.build();
+		SearchIndexFile.write(output, stamp.get(), ids, searchKeys, TrigramIndex.build(searchKeys));
+	}
+
+	private static int compareNullsFirst(String a, String b) {
+
+		if (a == null) return b == null ? 0 : -1;
+		if (b == null) return 1;
+		return a.compareTo(b);
+	}
+}
@@ -0,0 +1,177 @@
+package com.wheelermarine.publicAccessSites.cli;
+
+import com.wheelermarine.publicAccessSites.dnr.SiteRecord;
+import com.wheelermarine.publicAccessSites.dnr.SourceKeys;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * <p>
+ * This class writes a SQL script which loads public accesses into the
+ * application's table, for example with
+ * <code>sqlite3 wheelermarine &lt; accesses.sql</code>.  The whole script
+ * runs in one transaction and replaces any rows already in the table.  The
+ * records are written with the same source keys and content hashes as the
+ * application's updater, so a later update only changes what differs.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class SqlScriptWriter implements Closeable {
+
+	/**
+	 * The table created by the script.  It must match
+	 * <code>DatabaseHelper</code> in the application.
+	 */
+	private static final String TABLE_NAME = "public_access";
+	private static final String SQL_CREATE =
+			"CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+			"_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+			"name TEXT," +
+			"launch TEXT," +
+			"ramp TEXT," +
+			"ramps INTEGER," +
+			"docks INTEGER," +
+			"directions TEXT," +
+			"lake TEXT," +
+			"county TEXT," +
+			"latitude REAL," +
+			"longitude REAL," +
+			"record_number INTEGER," +
+			"source_key TEXT," +
+			"content_hash INTEGER" +
+			" );\n" +
+			"CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_record_number ON " + TABLE_NAME + " (record_number);\n" +
+			"CREATE UNIQUE INDEX IF NOT EXISTS " + TABLE_NAME + "_source_key ON " + TABLE_NAME + " (source_key);\n";
+	private static final String SQL_INSERT = "INSERT INTO " + TABLE_NAME +
+			" (_id, name, launch, ramp, ramps, docks, directions, lake, county, latitude, longitude, record_number, source_key, content_hash) VALUES (";
+	private static final String SQL_UPDATE_LOCATION = "UPDATE " + TABLE_NAME + " SET latitude=";
+
+	private final Writer out;
+	private final SourceKeys keys = new SourceKeys();
+
+	/**
+	 * Create a script and write the statements which create and clear the
+	 * table.
+	 *
+	 * @param file the file to write.
+	 * @throws IOException if there is an error writing the file.
+	 */
+	public SqlScriptWriter(File file) throws IOException {
+
+		out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 64 * 1024);
+		out.write("BEGIN TRANSACTION;\n");
+		out.write(SQL_CREATE);
+		out.write("DELETE FROM " + TABLE_NAME + ";\n");
+	}
+
+	/**
+	 * Insert a public access along with its location if it has one.
+	 *
+	 * @param id     the row ID, or 0 to let SQLite assign it.
+	 * @param record the public access.
+	 * @throws IOException if there is an error writing the file.
+	 */
+	public void insert(long id, SiteRecord record) throws IOException {
+
+		out.write(SQL_INSERT);
+		out.write(id > 0 ? Long.toString(id) : "NULL");
+		out.write(',');
+		writeString(out, record.getName());
+		out.write(',');
+		writeString(out, record.getLaunch());
+		out.write(',');
+		writeString(out, record.getRamp());
+		out.write(',');
+		writeNumber(out, record.getRamps(), "NULL");
+		out.write(',');
+		writeNumber(out, record.getDocks(), "NULL");
+		out.write(',');
+		writeString(out, record.getDirections());
+		out.write(',');
+		writeString(out, record.getLake());
+		out.write(',');
+		writeString(out, record.getCounty());
+		out.write(',');
+		writeNumber(out, record.hasLocation() ? record.getLatitude() : null, "NULL");
+		out.write(',');
+		writeNumber(out, record.hasLocation() ? record.getLongitude() : null, "NULL");
+		out.write(',');
+		out.write(Integer.toString(record.getRecordNumber()));
+		out.write(',');
+		writeString(out, keys.next(record));
+		out.write(',');
+		out.write(Long.toString(record.getContentHash()));
+		out.write(");\n");
+	}
+
+	/**
+	 * Set the location of the public access with a record number, the way
+	 * the application does once the shape file has been read.
+	 *
+	 * @param recordNumber the record number.
+	 * @param latitude     the latitude.
+	 * @param longitude    the longitude.
+	 * @throws IOException if there is an error writing the file.
+	 */
+	public void updateLocation(int recordNumber, double latitude, double longitude) throws IOException {
+
+		out.write(SQL_UPDATE_LOCATION);
+		out.write(Double.toString(latitude));
+		out.write(", longitude=");
+		out.write(Double.toString(longitude));
+		out.write(" WHERE record_number=");
+		out.write(Integer.toString(recordNumber));
+		out.write(";\n");
+	}
+
+	/**
+	 * Commit the transaction and close the file.
+	 *
+	 * @throws IOException if there is an error writing the file.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		try {
+			out.write("COMMIT;\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeString(Writer out, String value) throws IOException {
+
+		if (value == null) {
+			out.write("NULL");
+			return;
+		}
+		out.write('\'');
+		out.write(value.replace("'", "''"));
+		out.write('\'');
+	}
+
+	/**
+	 * Write a number, whole numbers are written without a fraction the way
+	 * SQLite stores them in an integer column.
+	 */
+	static void writeNumber(Writer out, Double value, String empty) throws IOException {
+
+		if (value == null || value.isNaN()) {
+			out.write(empty);
+		} else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			out.write(Long.toString(value.longValue()));
+		} else {
+			out.write(Double.toString(value));
+		}
+	}
+}
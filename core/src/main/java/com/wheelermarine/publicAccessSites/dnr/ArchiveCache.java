@@ -0,0 +1,168 @@
+package com.wheelermarine.publicAccessSites.dnr;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+
+/**
+ * <p>
+ * This class keeps the last downloaded archive on disk, so it can be opened
+ * through its central directory and read again by later updates.  The
+ * archive is spooled to a temporary file and renamed once it is complete,
+ * so a failed download never replaces a good archive.  A version file next
+ * to the archive holds the URL it was downloaded from and the server's
+ * modification time.
+ * </p>
+ * <p>
+ * Before downloading, the server is asked for the archive's modification
+ * time.  If it matches the cached archive the download is skipped.  If the
+ * server doesn't report modification times the cached archive is reused
+ * until it is older than the maximum age.  Example:
+ * </p>
+ * <p/>
+ * <pre>
+ *     ArchiveCache cache = new ArchiveCache(new File(dir, "shor_waspt3.zip"), ArchiveCache.DAY);
+ *     cache.fetch(url, 60000);
+ *     DnrArchiveReader.read(cache.getFile(), listener);
+ * </pre>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class ArchiveCache {
+
+	public static final long DAY = 24L * 60 * 60 * 1000;
+
+	private final File file;
+	private final File version;
+	private final File spool;
+	private final long maxAge;
+
+	/**
+	 * @param file   where the archive is kept.
+	 * @param maxAge how long, in milliseconds, the archive is reused when
+	 *               the server doesn't report modification times.
+	 */
+	public ArchiveCache(File file, long maxAge) {
+
+		this.file = file;
+		this.version = new File(file.getPath() + ".version");
+		this.spool = new File(file.getPath() + ".part");
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Get the cached archive.  It only exists once it has been fetched.
+	 *
+	 * @return the archive.
+	 */
+	public File getFile() {
+
+		return file;
+	}
+
+	/**
+	 * Make sure the cached archive is the current version on the server,
+	 * downloading it if it isn't.
+	 *
+	 * @param url     the <code>ftp:</code> URL of the archive.
+	 * @param timeout how long to wait, in milliseconds, to connect or for
+	 *                the server to send more data before giving up.
+	 * @return <code>true</code> if the archive was downloaded,
+	 *         <code>false</code> if the cached archive was reused.
+	 * @throws IOException if the archive can't be downloaded.
+	 */
+	public boolean fetch(URL url, int timeout) throws IOException {
+
+		FtpArchiveDownload download = FtpArchiveDownload.connect(url, timeout);
+		try {
+			String modified = download.getModificationTime();
+			if (isCurrent(url, modified)) return false;
+			store(download, url + " " + (modified == null ? "" : modified));
+			return true;
+		} finally {
+			download.close();
+		}
+	}
+
+	/**
+	 * Check if the cached archive was downloaded from a URL and is still the
+	 * current version.
+	 *
+	 * @param url      the URL of the archive.
+	 * @param modified the server's modification time, or <code>null</code>
+	 *                 if it isn't known.
+	 * @return <code>true</code> if the cached archive can be used.
+	 */
+	private boolean isCurrent(URL url, String modified) throws IOException {
+
+		if (!file.isFile() || !version.isFile()) return false;
+		String cached;
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(version), "UTF-8"));
+		try {
+			cached = in.readLine();
+		} finally {
+			in.close();
+		}
+		if (cached == null) return false;
+		if (modified != null) return cached.equals(url + " " + modified);
+		return cached.startsWith(url + " ") && System.currentTimeMillis() - file.lastModified() < maxAge;
+	}
+
+	/**
+	 * Spool an archive to disk and replace the cached archive with it.
+	 */
+	private void store(FtpArchiveDownload download, String versionLine) throws IOException {
+
+		FileOutputStream out = new FileOutputStream(spool);
+		try {
+			InputStream in = download.getInputStream();
+			byte[] buffer = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+			download.complete();
+			out.getFD().sync();
+		} catch (IOException | RuntimeException e) {
+			out.close();
+			spool.delete();
+			throw e;
+		}
+		out.close();
+
+		// The version is written last so an interrupted rename can't make an
+		// old archive look current.
+		clear();
+		if (!spool.renameTo(file)) {
+			spool.delete();
+			throw new IOException("Unable to rename " + spool + " to " + file);
+		}
+		Writer writer = new OutputStreamWriter(new FileOutputStream(version), "UTF-8");
+		try {
+			writer.write(versionLine);
+			writer.write('\n');
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Delete the cached archive, so the next fetch downloads it again.  This
+	 * should be called if the archive can't be read.
+	 */
+	public void clear() {
+
+		version.delete();
+		file.delete();
+	}
+}
@@ -0,0 +1,416 @@
+package com.wheelermarine.publicAccessSites.dnr;
+
+import com.wheelermarine.publicAccessSites.dbase.DBaseReader;
+import com.wheelermarine.publicAccessSites.dbase.Header;
+import com.wheelermarine.publicAccessSites.dbase.Record;
+import com.wheelermarine.publicAccessSites.geo.Utm;
+import org.nocrala.tools.gis.data.esri.shapefile.ShapeFileReader;
+import org.nocrala.tools.gis.data.esri.shapefile.exception.InvalidShapeFileException;
+import org.nocrala.tools.gis.data.esri.shapefile.header.ShapeFileHeader;
+import org.nocrala.tools.gis.data.esri.shapefile.shape.AbstractShape;
+import org.nocrala.tools.gis.data.esri.shapefile.shape.ShapeType;
+import org.nocrala.tools.gis.data.esri.shapefile.shape.shapes.PointShape;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * <p>
+ * This class reads the public access ZIP archive published by the MN DNR.
+ * The archive holds a DBase file with the details of every public access and
+ * a shape file with their locations in UTM coordinates.  The records are
+ * passed to a listener as soon as they are read, and the locations, converted
+ * to latitude and longitude, are passed along once the whole archive has been
+ * read.
+ * </p>
+ * <p>
+ * An archive on disk is opened through its central directory, so the shape
+ * file is inflated and parsed on a second thread while the DBase file is
+ * read, and the projection file, if there is one, is read first to find the
+ * UTM zone.  An archive can also be read as a stream, so it can be parsed
+ * while it is being downloaded, but then its entries are read one after the
+ * other in the order they are stored.  Example:
+ * </p>
+ * <p/>
+ * <pre>
+ *     List&lt;SiteRecord&gt; records = DnrArchiveReader.readAll(new File("shor_waspt3.zip"));
+ *     // Process records...
+ * </pre>
+ * <p/>
+ * <p>
+ * Nothing in this class depends on Android, so the same code which updates
+ * the application's database can be run and profiled on a plain JVM.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class DnrArchiveReader {
+
+	public static final String DBASE_ENTRY = "shor_waspt3.dbf";
+	public static final String SHAPE_ENTRY = "shor_waspt3.shp";
+	public static final String PROJECTION_ENTRY = "shor_waspt3.prj";
+
+	private static final Pattern UTM_ZONE = Pattern.compile("UTM[ _]?Zone[ _]?(\\d{1,2})N", Pattern.CASE_INSENSITIVE);
+
+	private DnrArchiveReader() {
+
+	}
+
+	/**
+	 * This interface receives the contents of an archive as it is read.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called before the first record is read.
+		 *
+		 * @param header the header of the DBase file.
+		 */
+		void onHeader(Header header);
+
+		/**
+		 * Called for each record in the DBase file, in the order they are
+		 * stored.
+		 *
+		 * @param record the record.
+		 * @throws IOException if the record can't be stored.
+		 */
+		void onRecord(SiteRecord record) throws IOException;
+
+		/**
+		 * Called once the whole archive has been read if it contained a
+		 * shape file.  It is called on the same thread as the other methods.
+		 *
+		 * @param locations the location of each record number.
+		 * @throws IOException if the locations can't be stored.
+		 */
+		void onLocations(Locations locations) throws IOException;
+	}
+
+	/**
+	 * This class holds the locations read from the shape file in primitive
+	 * arrays.
+	 */
+	public static class Locations {
+
+		private int size;
+		private int[] recordNumbers = new int[1024];
+		private double[] latitudes = new double[1024];
+		private double[] longitudes = new double[1024];
+
+		public int size() {
+
+			return size;
+		}
+
+		public int getRecordNumber(int i) {
+
+			return recordNumbers[i];
+		}
+
+		public double getLatitude(int i) {
+
+			return latitudes[i];
+		}
+
+		public double getLongitude(int i) {
+
+			return longitudes[i];
+		}
+
+		private void add(int recordNumber, double latitude, double longitude) {
+
+			if (size == recordNumbers.length) {
+				recordNumbers = Arrays.copyOf(recordNumbers, size * 2);
+				latitudes = Arrays.copyOf(latitudes, size * 2);
+				longitudes = Arrays.copyOf(longitudes, size * 2);
+			}
+			recordNumbers[size] = recordNumber;
+			latitudes[size] = latitude;
+			longitudes[size] = longitude;
+			size++;
+		}
+	}
+
+	/**
+	 * Read an archive and pass its contents to a listener.
+	 *
+	 * @param in       the ZIP archive.
+	 * @param listener the listener.
+	 * @throws IOException if there is an error reading the archive.
+	 */
+	public static void read(InputStream in, Listener listener) throws IOException {
+
+		Locations locations = null;
+		ZipInputStream zin = new ZipInputStream(in);
+		ZipEntry entry;
+		while ((entry = zin.getNextEntry()) != null) {
+			if (entry.getName().endsWith(DBASE_ENTRY)) {
+				readDBaseFile(zin, listener);
+			} else if (entry.getName().endsWith(SHAPE_ENTRY)) {
+				locations = readShapeFile(zin, Utm.MINNESOTA_ZONE);
+			}
+		}
+		if (locations != null) listener.onLocations(locations);
+	}
+
+	/**
+	 * Read an archive on disk and pass its contents to a listener.  The shape
+	 * file is parsed on another thread while the DBase file is read, but the
+	 * listener is only called on the calling thread.
+	 *
+	 * @param archive  the ZIP archive.
+	 * @param listener the listener.
+	 * @throws IOException if there is an error reading the archive.
+	 */
+	public static void read(File archive, Listener listener) throws IOException {
+
+		final ZipFile zip = new ZipFile(archive);
+		try {
+			ZipEntry dbase = null;
+			ZipEntry shape = null;
+			ZipEntry projection = null;
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (entry.getName().endsWith(DBASE_ENTRY)) {
+					dbase = entry;
+				} else if (entry.getName().endsWith(SHAPE_ENTRY)) {
+					shape = entry;
+				} else if (entry.getName().endsWith(PROJECTION_ENTRY)) {
+					projection = entry;
+				}
+			}
+
+			FutureTask<Locations> locations = null;
+			if (shape != null) {
+				final ZipEntry entry = shape;
+				final int zone = projection == null ? Utm.MINNESOTA_ZONE : readZone(zip.getInputStream(projection));
+				locations = new FutureTask<Locations>(new Callable<Locations>() {
+					@Override
+					public Locations call() throws IOException {
+
+						InputStream in = new BufferedInputStream(zip.getInputStream(entry), 64 * 1024);
+						try {
+							return readShapeFile(in, zone);
+						} finally {
+							in.close();
+						}
+					}
+				});
+				Thread thread = new Thread(locations, "DnrArchiveReader shapes");
+				thread.setDaemon(true);
+				thread.start();
+			}
+
+			try {
+				if (dbase != null) {
+					InputStream in = new BufferedInputStream(zip.getInputStream(dbase), 64 * 1024);
+					try {
+						readDBaseFile(in, listener);
+					} finally {
+						in.close();
+					}
+				}
+				if (locations != null) listener.onLocations(get(locations));
+			} finally {
+				// Closing the archive stops the shape file if it is still
+				// being read.
+				if (locations != null) locations.cancel(true);
+			}
+		} finally {
+			zip.close();
+		}
+	}
+
+	/**
+	 * Wait for the locations and rethrow the error if they couldn't be read.
+	 */
+	private static Locations get(FutureTask<Locations> locations) throws IOException {
+
+		try {
+			return locations.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading the shape file.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * This class collects the records of an archive and joins them to their
+	 * locations.
+	 */
+	private static class RecordCollector implements Listener {
+
+		final ArrayList<SiteRecord> records = new ArrayList<SiteRecord>();
+
+		@Override
+		public void onHeader(Header header) {
+
+			records.clear();
+			records.ensureCapacity(header.getNumberOfRecords());
+		}
+
+		@Override
+		public void onRecord(SiteRecord record) {
+
+			records.add(record);
+		}
+
+		@Override
+		public void onLocations(Locations locations) {
+
+			join(records, locations);
+		}
+	}
+
+	/**
+	 * Read an archive and join every record to its location.
+	 *
+	 * @param in the ZIP archive.
+	 * @return the records in the order they are stored.
+	 * @throws IOException if there is an error reading the archive.
+	 */
+	public static List<SiteRecord> readAll(InputStream in) throws IOException {
+
+		RecordCollector collector = new RecordCollector();
+		read(in, collector);
+		return collector.records;
+	}
+
+	/**
+	 * Read an archive on disk and join every record to its location.
+	 *
+	 * @param archive the ZIP archive.
+	 * @return the records in the order they are stored.
+	 * @throws IOException if there is an error reading the archive.
+	 */
+	public static List<SiteRecord> readAll(File archive) throws IOException {
+
+		RecordCollector collector = new RecordCollector();
+		read(archive, collector);
+		return collector.records;
+	}
+
+	/**
+	 * Fill in the location of each record.  Records are numbered in the order
+	 * they are stored starting at 1, so the record number is used as an index
+	 * rather than being looked up.
+	 *
+	 * @param records   the records in the order they were read.
+	 * @param locations the locations.
+	 */
+	public static void join(List<SiteRecord> records, Locations locations) {
+
+		for (int i = 0; i < locations.size(); i++) {
+			int index = locations.getRecordNumber(i) - 1;
+			if (index < 0 || index >= records.size()) continue;
+			SiteRecord record = records.get(index);
+			if (record.getRecordNumber() == index + 1) record.setLocation(locations.getLatitude(i), locations.getLongitude(i));
+		}
+	}
+
+	private static void readDBaseFile(InputStream in, Listener listener) throws IOException {
+
+		DBaseReader reader = new DBaseReader(in);
+		listener.onHeader(reader.getHeader());
+		int index = 0;
+		try {
+			for (Record access : reader) {
+				String lake = (String) access.getValue("LAKENAME");
+				if (lake == null || lake.isEmpty())
+					lake = (String) access.getValue("LAKE_NAME");
+				if (lake == null || lake.isEmpty())
+					lake = (String) access.getValue("ALT_NAME");
+
+				listener.onRecord(new SiteRecord(index + 1,
+						(String) access.getValue("FAC_NAME"),
+						(String) access.getValue("LAUNCHTYPE"),
+						(String) access.getValue("RAMPTYPE"),
+						(Double) access.getValue("NUMRAMPS"),
+						(Double) access.getValue("NUMDOCKS"),
+						(String) access.getValue("DIRECTIONS"),
+						lake,
+						(String) access.getValue("COUNTYNAME")));
+				index++;
+			}
+		} catch (RuntimeException e) {
+			// The reader's iterator can only throw unchecked exceptions.
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Find the UTM zone in a projection file.  The DNR's data is in the
+	 * Minnesota zone, which is assumed if the zone can't be found.
+	 */
+	private static int readZone(InputStream in) throws IOException {
+
+		StringBuilder projection = new StringBuilder();
+		Reader reader = new InputStreamReader(in, "US-ASCII");
+		try {
+			char[] buffer = new char[1024];
+			int n;
+			while ((n = reader.read(buffer)) > 0 && projection.length() < 64 * 1024) {
+				projection.append(buffer, 0, n);
+			}
+		} finally {
+			reader.close();
+		}
+		Matcher matcher = UTM_ZONE.matcher(projection);
+		if (!matcher.find()) return Utm.MINNESOTA_ZONE;
+		int zone = Integer.parseInt(matcher.group(1));
+		return zone >= 1 && zone <= 60 ? zone : Utm.MINNESOTA_ZONE;
+	}
+
+	private static Locations readShapeFile(InputStream in, int zone) throws IOException {
+
+		try {
+			ShapeFileReader reader = new ShapeFileReader(in);
+			ShapeFileHeader header = reader.getHeader();
+			if (header.getShapeType() != ShapeType.POINT)
+				throw new InvalidShapeFileException("Unable to read " + header.getShapeType() + " shape files.");
+
+			Locations locations = new Locations();
+			double[] latLon = new double[2];
+			AbstractShape s;
+			while ((s = reader.next()) != null) {
+				// Anything other than a point has no single location.
+				if (s.getShapeType() != ShapeType.POINT) continue;
+				PointShape point = (PointShape) s;
+				Utm.toLatLon(point.getY(), point.getX(), zone, latLon);
+				locations.add(point.getHeader().getRecordNumber(), latLon[0], latLon[1]);
+			}
+			return locations;
+		} catch (InvalidShapeFileException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+}
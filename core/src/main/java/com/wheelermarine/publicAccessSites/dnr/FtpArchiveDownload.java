@@ -0,0 +1,155 @@
+package com.wheelermarine.publicAccessSites.dnr;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * <p>
+ * This class downloads the public access archive from the MN DNR's FTP
+ * server.  The archive is returned as a stream so it can be parsed while it
+ * is being downloaded or spooled to disk.  The download can also be
+ * connected without retrieving anything, to ask for the archive's
+ * modification time first.  Example:
+ * </p>
+ * <p/>
+ * <pre>
+ *     FtpArchiveDownload download = FtpArchiveDownload.open(url, 60000);
+ *     try {
+ *         DnrArchiveReader.read(download.getInputStream(), listener);
+ *     } finally {
+ *         download.close();
+ *     }
+ * </pre>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class FtpArchiveDownload implements Closeable {
+
+	private final FTPClient client;
+	private final URL url;
+	private InputStream in;
+
+	private FtpArchiveDownload(FTPClient client, URL url) {
+
+		this.client = client;
+		this.url = url;
+	}
+
+	/**
+	 * Connect to the FTP server and start downloading a file.
+	 *
+	 * @param url     the <code>ftp:</code> URL of the file.
+	 * @param timeout how long to wait, in milliseconds, to connect or for
+	 *                the server to send more data before giving up.
+	 * @return the download, which must be closed.
+	 * @throws IOException if the file can't be downloaded.
+	 */
+	public static FtpArchiveDownload open(URL url, int timeout) throws IOException {
+
+		FtpArchiveDownload download = connect(url, timeout);
+		try {
+			download.getInputStream();
+			return download;
+		} catch (IOException | RuntimeException e) {
+			download.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Connect and log in to the FTP server without downloading anything yet.
+	 *
+	 * @param url     the <code>ftp:</code> URL of the file.
+	 * @param timeout how long to wait, in milliseconds, to connect or for
+	 *                the server to send more data before giving up.
+	 * @return the download, which must be closed.
+	 * @throws IOException if the server can't be reached.
+	 */
+	public static FtpArchiveDownload connect(URL url, int timeout) throws IOException {
+
+		FTPClient client = new FTPClient();
+		client.setConnectTimeout(timeout);
+		client.setDefaultTimeout(timeout);
+		client.setDataTimeout(timeout);
+		int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+		client.connect(url.getHost(), port);
+		try {
+			client.setSoTimeout(timeout);
+			client.login("anonymous", "");
+			client.enterLocalPassiveMode();
+			client.setFileType(FTP.BINARY_FILE_TYPE);
+			return new FtpArchiveDownload(client, url);
+		} catch (IOException | RuntimeException e) {
+			client.disconnect();
+			throw e;
+		}
+	}
+
+	/**
+	 * Ask the server when the file was last modified.
+	 *
+	 * @return the modification time as the server sent it, or
+	 *         <code>null</code> if the server doesn't support it.
+	 * @throws IOException if there is an error talking to the server.
+	 */
+	public String getModificationTime() throws IOException {
+
+		if (!FTPReply.isPositiveCompletion(client.mdtm(url.getFile()))) return null;
+		String reply = client.getReplyStrings()[0];
+		return reply.length() > 4 ? reply.substring(4).trim() : null;
+	}
+
+	/**
+	 * Get the contents of the file, starting the download the first time
+	 * this is called.
+	 *
+	 * @return the stream, which is closed with the download.
+	 * @throws IOException if the file can't be downloaded.
+	 */
+	public InputStream getInputStream() throws IOException {
+
+		if (in == null) {
+			in = client.retrieveFileStream(url.getFile());
+			if (in == null) throw new FileNotFoundException(url.getFile() + " was not found! (" + client.getReplyString().trim() + ")");
+		}
+		return in;
+	}
+
+	/**
+	 * Check that the whole file was received.  This must only be called
+	 * once the stream has been read to the end.
+	 *
+	 * @throws IOException if the server didn't confirm the transfer.
+	 */
+	public void complete() throws IOException {
+
+		getInputStream().close();
+		if (!client.completePendingCommand())
+			throw new IOException("The download of " + url.getFile() + " was incomplete! (" + client.getReplyString().trim() + ")");
+	}
+
+	/**
+	 * Stop the download and disconnect from the server.
+	 *
+	 * @throws IOException if there is an error disconnecting.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		try {
+			if (in != null) in.close();
+		} finally {
+			client.disconnect();
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package com.wheelermarine.publicAccessSites.dnr;
+
+/**
+ * <p>
+ * This class holds one public access as it is read from the MN DNR's
+ * DBase file.  The location comes from the shape file and is only filled in
+ * once the two files have been joined, until then it is <code>NaN</code>.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class SiteRecord {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final int recordNumber;
+	private final String name;
+	private final String launch;
+	private final String ramp;
+	private final Double ramps;
+	private final Double docks;
+	private final String directions;
+	private final String lake;
+	private final String county;
+	private double latitude = Double.NaN;
+	private double longitude = Double.NaN;
+
+	public SiteRecord(int recordNumber, String name, String launch, String ramp, Double ramps, Double docks,
+	                  String directions, String lake, String county) {
+
+		this.recordNumber = recordNumber;
+		this.name = name;
+		this.launch = launch;
+		this.ramp = ramp;
+		this.ramps = ramps;
+		this.docks = docks;
+		this.directions = directions;
+		this.lake = lake;
+		this.county = county;
+	}
+
+	/**
+	 * Get the record number which joins this record to its shape.  Record
+	 * numbers start at 1.
+	 *
+	 * @return the record number.
+	 */
+	public int getRecordNumber() {
+
+		return recordNumber;
+	}
+
+	public String getName() {
+
+		return name;
+	}
+
+	public String getLaunch() {
+
+		return launch;
+	}
+
+	public String getRamp() {
+
+		return ramp;
+	}
+
+	public Double getRamps() {
+
+		return ramps;
+	}
+
+	public Double getDocks() {
+
+		return docks;
+	}
+
+	public String getDirections() {
+
+		return directions;
+	}
+
+	/**
+	 * Get the name of the lake.  A record without one has an empty lake,
+	 * which is stored and hashed the same way by every import.
+	 *
+	 * @return the lake, never <code>null</code>.
+	 */
+	public String getLake() {
+
+		return hasLake() ? lake : "";
+	}
+
+	/**
+	 * Check if the record has the name of its lake.
+	 *
+	 * @return <code>true</code> if the DBase file has the lake.
+	 */
+	public boolean hasLake() {
+
+		return lake != null && !lake.isEmpty();
+	}
+
+	public String getCounty() {
+
+		return county;
+	}
+
+	public double getLatitude() {
+
+		return latitude;
+	}
+
+	public double getLongitude() {
+
+		return longitude;
+	}
+
+	/**
+	 * Clean up a value from the DNR's data for display and searching.
+	 * Leading and trailing white space is removed and placeholder values are
+	 * replaced with an empty string.
+	 *
+	 * @param o the value to clean.
+	 * @return the cleaned value, never <code>null</code>.
+	 */
+	public static String clean(Object o) {
+
+		if (o == null) return "";
+		String s = String.valueOf(o).trim();
+		if (s.equalsIgnoreCase("Unknown")) s = "";
+		if (s.equalsIgnoreCase("Other")) s = "";
+		return s;
+	}
+
+	/**
+	 * Get a 64 bit FNV-1a hash of the fields which are stored for a public
+	 * access.  The record number and location aren't included, the location
+	 * is only known once the shape file has been read and is compared on
+	 * its own.
+	 *
+	 * @return the hash.
+	 */
+	public long getContentHash() {
+
+		long hash = FNV_OFFSET;
+		hash = hash(hash, name);
+		hash = hash(hash, launch);
+		hash = hash(hash, ramp);
+		hash = hash(hash, ramps == null ? null : ramps.toString());
+		hash = hash(hash, docks == null ? null : docks.toString());
+		hash = hash(hash, directions);
+		hash = hash(hash, getLake());
+		hash = hash(hash, county);
+		return hash;
+	}
+
+	private static long hash(long hash, String value) {
+
+		// A null is hashed differently from an empty string, and every value
+		// is terminated so moving text between fields changes the hash.
+		if (value == null) return (hash ^ 0xffff) * FNV_PRIME;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+			hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+		}
+		return (hash ^ 0xfffe) * FNV_PRIME;
+	}
+
+	/**
+	 * Check if the record has been joined to a location.
+	 *
+	 * @return <code>true</code> if the record has a location.
+	 */
+	public boolean hasLocation() {
+
+		return !Double.isNaN(latitude);
+	}
+
+	void setLocation(double latitude, double longitude) {
+
+		this.latitude = latitude;
+		this.longitude = longitude;
+	}
+}
@@ -0,0 +1,47 @@
+package com.wheelermarine.publicAccessSites.dnr;
+
+import com.wheelermarine.publicAccessSites.search.SearchKeys;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * This class assigns a stable key to every record of an archive so a public
+ * access can be matched with the same public access from an earlier
+ * archive.  The DNR's file doesn't have an ID for a public access, and the
+ * record numbers shift whenever a record is added or removed, so the key is
+ * made from the normalized name, lake and county.  A record without a lake
+ * has an empty lake in its key, so nothing in the key depends on its
+ * position.  Records with the same name, lake and county are numbered in the
+ * order they appear.
+ * </p>
+ * <p>
+ * A new instance must be used for every archive.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class SourceKeys {
+
+	private final Map<String, Integer> counts = new HashMap<String, Integer>();
+
+	/**
+	 * Get the key of the next record of the archive.
+	 *
+	 * @param record the record.
+	 * @return the key, unique within the archive.
+	 */
+	public String next(SiteRecord record) {
+
+		String key = SearchKeys.normalize(record.getName()) + SearchKeys.SEPARATOR +
+				SearchKeys.normalize(record.getLake()) + SearchKeys.SEPARATOR +
+				SearchKeys.normalize(record.getCounty());
+		Integer count = counts.get(key);
+		counts.put(key, count == null ? 1 : count + 1);
+		return count == null ? key : key + SearchKeys.SEPARATOR + (count + 1);
+	}
+}
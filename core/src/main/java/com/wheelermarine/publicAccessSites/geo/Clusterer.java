@@ -0,0 +1,139 @@
+package com.wheelermarine.publicAccessSites.geo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * This class groups nearby public accesses so that a map only needs one
+ * marker for each group.  The rows are bucketed into cells of a fixed size,
+ * which is chosen from the zoom level so that a cell covers roughly the same
+ * area of the screen at every zoom level.  Each non-empty cell becomes a
+ * cluster positioned at the average location of its rows.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class Clusterer {
+
+	private Clusterer() {
+	}
+
+	/**
+	 * A group of nearby public accesses.
+	 */
+	public static class Cluster {
+
+		private final int row;
+		private int size;
+		private double latitude;
+		private double longitude;
+		private double south;
+		private double west;
+		private double north;
+		private double east;
+
+		Cluster(int row, double latitude, double longitude) {
+
+			this.row = row;
+			this.size = 1;
+			this.latitude = latitude;
+			this.longitude = longitude;
+			south = north = latitude;
+			west = east = longitude;
+		}
+
+		void add(double lat, double lon) {
+
+			size++;
+			latitude += (lat - latitude) / size;
+			longitude += (lon - longitude) / size;
+			south = Math.min(south, lat);
+			north = Math.max(north, lat);
+			west = Math.min(west, lon);
+			east = Math.max(east, lon);
+		}
+
+		/**
+		 * Get the row of the first public access in the cluster.  This is
+		 * the only public access when the size is one.
+		 *
+		 * @return the row.
+		 */
+		public int getRow() {
+
+			return row;
+		}
+
+		public int getSize() {
+
+			return size;
+		}
+
+		public double getLatitude() {
+
+			return latitude;
+		}
+
+		public double getLongitude() {
+
+			return longitude;
+		}
+
+		public double getSouth() {
+
+			return south;
+		}
+
+		public double getWest() {
+
+			return west;
+		}
+
+		public double getNorth() {
+
+			return north;
+		}
+
+		public double getEast() {
+
+			return east;
+		}
+	}
+
+	/**
+	 * Cluster a set of rows.
+	 *
+	 * @param grid          the grid holding the coordinates of the rows.
+	 * @param rows          the rows to cluster.
+	 * @param count         the number of rows.
+	 * @param cellLatitude  the height of a cluster cell in degrees.
+	 * @param cellLongitude the width of a cluster cell in degrees.
+	 * @return the clusters.
+	 */
+	public static List<Cluster> cluster(SpatialGrid grid, int[] rows, int count, double cellLatitude, double cellLongitude) {
+
+		Map<Long, Cluster> cells = new HashMap<Long, Cluster>();
+		List<Cluster> clusters = new ArrayList<Cluster>();
+		for (int i = 0; i < count; i++) {
+			int row = rows[i];
+			double latitude = grid.getLatitude(row);
+			double longitude = grid.getLongitude(row);
+			long key = ((long) Math.floor(latitude / cellLatitude) << 32) ^ (Math.round(Math.floor(longitude / cellLongitude)) & 0xffffffffL);
+			Cluster cluster = cells.get(key);
+			if (cluster == null) {
+				cluster = new Cluster(row, latitude, longitude);
+				cells.put(key, cluster);
+				clusters.add(cluster);
+			} else {
+				cluster.add(latitude, longitude);
+			}
+		}
+		return clusters;
+	}
+}
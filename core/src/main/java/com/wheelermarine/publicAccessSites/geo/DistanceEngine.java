@@ -0,0 +1,219 @@
+package com.wheelermarine.publicAccessSites.geo;
+
+import java.util.BitSet;
+
+/**
+ * <p>
+ * This class computes the distance and bearing from a location to every
+ * public access at once.  The coordinates are kept in primitive arrays along
+ * with their radians and the sine and cosine of their latitudes, which are
+ * computed once when the engine is built, so a batch only evaluates the
+ * trigonometry which depends on the location.
+ * </p>
+ * <p>
+ * Nearby public accesses use the equirectangular approximation, which is
+ * accurate to about 0.1% within <code>EQUIRECTANGULAR_LIMIT</code> of the
+ * location and only needs a square root.  Public accesses farther away use
+ * the haversine formula.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class DistanceEngine {
+
+	/**
+	 * The largest difference in latitude or longitude, in radians, which is
+	 * measured with the equirectangular approximation.  This is about 55 km.
+	 */
+	private static final double EQUIRECTANGULAR_LIMIT = Math.toRadians(0.5);
+
+	private static final String[] DIRECTIONS = {"N", "NE", "E", "SE", "S", "SW", "W", "NW"};
+
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final double[] sinLatitudes;
+	private final double[] cosLatitudes;
+	private final boolean[] valid;
+
+	/**
+	 * Build the engine for a set of coordinates.
+	 *
+	 * @param latitudes  the latitude of every row in degrees.
+	 * @param longitudes the longitude of every row in degrees.
+	 */
+	public DistanceEngine(double[] latitudes, double[] longitudes) {
+
+		this(latitudes.length);
+		for (int i = 0; i < latitudes.length; i++) {
+			set(i, latitudes[i], longitudes[i]);
+		}
+	}
+
+	private DistanceEngine(int n) {
+
+		latitudes = new double[n];
+		longitudes = new double[n];
+		sinLatitudes = new double[n];
+		cosLatitudes = new double[n];
+		valid = new boolean[n];
+	}
+
+	/**
+	 * Update an engine after rows have been added, removed or moved.  The
+	 * precomputed values of the rows which didn't move are copied, so only
+	 * the relocated rows are computed.
+	 *
+	 * @param previous   the previous engine.
+	 * @param latitudes  the latitude of every new row in degrees.
+	 * @param longitudes the longitude of every new row in degrees.
+	 * @param rowMap     the new row of every previous row, or -1 if it was
+	 *                   removed.
+	 * @param relocated  the new rows whose coordinates didn't come from the
+	 *                   previous engine.
+	 * @return the engine.
+	 */
+	public static DistanceEngine update(DistanceEngine previous, double[] latitudes, double[] longitudes, int[] rowMap, BitSet relocated) {
+
+		DistanceEngine engine = new DistanceEngine(latitudes.length);
+		for (int i = 0; i < rowMap.length; i++) {
+			int row = rowMap[i];
+			if (row < 0 || relocated.get(row)) continue;
+			engine.valid[row] = previous.valid[i];
+			engine.latitudes[row] = previous.latitudes[i];
+			engine.longitudes[row] = previous.longitudes[i];
+			engine.sinLatitudes[row] = previous.sinLatitudes[i];
+			engine.cosLatitudes[row] = previous.cosLatitudes[i];
+		}
+		for (int row = relocated.nextSetBit(0); row >= 0; row = relocated.nextSetBit(row + 1)) {
+			engine.set(row, latitudes[row], longitudes[row]);
+		}
+		return engine;
+	}
+
+	private void set(int i, double latitude, double longitude) {
+
+		valid[i] = SpatialGrid.isValid(latitude, longitude);
+		latitudes[i] = Math.toRadians(latitude);
+		longitudes[i] = Math.toRadians(longitude);
+		sinLatitudes[i] = Math.sin(latitudes[i]);
+		cosLatitudes[i] = Math.cos(latitudes[i]);
+	}
+
+	public int size() {
+
+		return latitudes.length;
+	}
+
+	/**
+	 * Compute the distance and initial bearing from a location to every row.
+	 * Rows without coordinates get a distance of <code>NaN</code>.
+	 *
+	 * @param latitude  the latitude of the location in degrees.
+	 * @param longitude the longitude of the location in degrees.
+	 * @param distances receives the distance to each row in meters.
+	 * @param bearings  receives the bearing to each row in degrees from north.
+	 */
+	public void compute(double latitude, double longitude, float[] distances, float[] bearings) {
+
+		double lat = Math.toRadians(latitude);
+		double lon = Math.toRadians(longitude);
+		double sinLat = Math.sin(lat);
+		double cosLat = Math.cos(lat);
+		for (int i = 0; i < latitudes.length; i++) {
+			if (!valid[i]) {
+				distances[i] = Float.NaN;
+				bearings[i] = Float.NaN;
+				continue;
+			}
+			double dLat = latitudes[i] - lat;
+			double dLon = longitudes[i] - lon;
+			if (Math.abs(dLat) < EQUIRECTANGULAR_LIMIT && Math.abs(dLon) < EQUIRECTANGULAR_LIMIT) {
+				// The mean of the cosines is within a fraction of a percent of
+				// the cosine of the mean latitude over this range.
+				double x = dLon * (cosLat + cosLatitudes[i]) / 2;
+				distances[i] = (float) (SpatialGrid.EARTH_RADIUS * Math.sqrt(x * x + dLat * dLat));
+				bearings[i] = (float) Math.toDegrees(Math.atan2(x, dLat));
+			} else {
+				double sinHalfLat = Math.sin(dLat / 2);
+				double sinHalfLon = Math.sin(dLon / 2);
+				double h = sinHalfLat * sinHalfLat + cosLat * cosLatitudes[i] * sinHalfLon * sinHalfLon;
+				distances[i] = (float) (2 * SpatialGrid.EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h))));
+				bearings[i] = (float) Math.toDegrees(Math.atan2(Math.sin(dLon) * cosLatitudes[i],
+						cosLat * sinLatitudes[i] - sinLat * cosLatitudes[i] * Math.cos(dLon)));
+			}
+			if (bearings[i] < 0) bearings[i] += 360;
+		}
+	}
+
+	/**
+	 * Get the step of a distance as it is displayed.  Two distances with the
+	 * same step are displayed the same way.
+	 *
+	 * @param meters the distance in meters.
+	 * @return the step.
+	 */
+	public static int distanceStep(double meters) {
+
+		double miles = meters * 0.00062137;
+		if (miles <= 0.25) {
+			return 0;
+		} else if (miles <= 0.5) {
+			return 1;
+		} else if (miles <= 0.75) {
+			return 2;
+		} else if (miles <= 1) {
+			return 3;
+		}
+		return 3 + (int) miles;
+	}
+
+	/**
+	 * Format a distance for display.
+	 *
+	 * @param meters the distance in meters.
+	 * @return the distance in miles.
+	 */
+	public static String formatDistance(double meters) {
+
+		int step = distanceStep(meters);
+		switch (step) {
+			case 0:
+				return "< 1/4 mile";
+			case 1:
+				return "< 1/2 mile";
+			case 2:
+				return "< 3/4 mile";
+			case 3:
+				return "< 1 mile";
+			default:
+				return (step - 3) + " miles";
+		}
+	}
+
+	/**
+	 * Get the compass direction of a bearing as an index into the eight
+	 * directions, starting with north and going clockwise.
+	 *
+	 * @param degrees the bearing in degrees from north.
+	 * @return the direction.
+	 */
+	public static int bearingStep(double degrees) {
+
+		double d = (360 + degrees % 360) % 360;
+		return (int) Math.round(d / 45) % 8;
+	}
+
+	/**
+	 * Format a bearing as a compass direction.
+	 *
+	 * @param degrees the bearing in degrees from north.
+	 * @return the nearest of the eight compass directions.
+	 */
+	public static String formatBearing(double degrees) {
+
+		return DIRECTIONS[bearingStep(degrees)];
+	}
+}
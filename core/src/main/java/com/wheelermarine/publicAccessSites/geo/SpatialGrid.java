@@ -0,0 +1,331 @@
+package com.wheelermarine.publicAccessSites.geo;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * <p>
+ * This class is a uniform grid over the coordinates of the public accesses.
+ * Each cell lists the rows inside it, so the nearest public accesses to a
+ * point are found by searching rings of cells outward from the point's cell
+ * and stopping once no unsearched cell can be closer than the public
+ * accesses already found.  Only the cells around the point are visited
+ * instead of every public access, and a bounding box only visits the cells
+ * it overlaps.
+ * </p>
+ * <p>
+ * Rows without coordinates are left out of the grid.  The cell contents are
+ * stored back to back in a single array with the start of each cell in a
+ * separate offset array.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class SpatialGrid {
+
+	/**
+	 * The mean radius of the earth in meters.
+	 */
+	public static final double EARTH_RADIUS = 6371009;
+
+	/**
+	 * The height of a cell in degrees of latitude, about 5.5 km.
+	 */
+	private static final double CELL_DEGREES = 0.05;
+	private static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final double south;
+	private final double west;
+	private final double cellHeight;
+	private final double cellWidth;
+	private final int rows;
+	private final int columns;
+	private final int[] offsets;
+	private final int[] cells;
+
+	private SpatialGrid(double[] latitudes, double[] longitudes, double south, double west, double cellHeight,
+	                    double cellWidth, int rows, int columns, int[] offsets, int[] cells) {
+
+		this.latitudes = latitudes;
+		this.longitudes = longitudes;
+		this.south = south;
+		this.west = west;
+		this.cellHeight = cellHeight;
+		this.cellWidth = cellWidth;
+		this.rows = rows;
+		this.columns = columns;
+		this.offsets = offsets;
+		this.cells = cells;
+	}
+
+	/**
+	 * Check if a row has coordinates.  Missing coordinates are stored as zero.
+	 *
+	 * @param latitude  the latitude of the row.
+	 * @param longitude the longitude of the row.
+	 * @return <code>true</code> if the coordinates are usable.
+	 */
+	public static boolean isValid(double latitude, double longitude) {
+
+		return !Double.isNaN(latitude) && !Double.isNaN(longitude) && (latitude != 0 || longitude != 0);
+	}
+
+	/**
+	 * Build the grid.  The arrays are kept by the grid and must not be
+	 * modified afterwards.
+	 *
+	 * @param latitudes  the latitude of every row.
+	 * @param longitudes the longitude of every row.
+	 * @return the grid.
+	 */
+	public static SpatialGrid build(double[] latitudes, double[] longitudes) {
+
+		double south = Double.POSITIVE_INFINITY, north = Double.NEGATIVE_INFINITY;
+		double west = Double.POSITIVE_INFINITY, east = Double.NEGATIVE_INFINITY;
+		int count = 0;
+		for (int i = 0; i < latitudes.length; i++) {
+			if (!isValid(latitudes[i], longitudes[i])) continue;
+			south = Math.min(south, latitudes[i]);
+			north = Math.max(north, latitudes[i]);
+			west = Math.min(west, longitudes[i]);
+			east = Math.max(east, longitudes[i]);
+			count++;
+		}
+		if (count == 0) {
+			south = north = west = east = 0;
+		}
+
+		// Make the cells roughly square at the middle of the grid.
+		double cosMiddle = Math.cos(Math.toRadians((south + north) / 2));
+		double cellHeight = CELL_DEGREES;
+		double cellWidth = CELL_DEGREES / Math.max(cosMiddle, 0.01);
+		int rows = (int) ((north - south) / cellHeight) + 1;
+		int columns = (int) ((east - west) / cellWidth) + 1;
+
+		// Count the rows in each cell, then fill in the cells.
+		int[] offsets = new int[rows * columns + 1];
+		int[] cellOf = new int[latitudes.length];
+		for (int i = 0; i < latitudes.length; i++) {
+			if (!isValid(latitudes[i], longitudes[i])) {
+				cellOf[i] = -1;
+				continue;
+			}
+			int row = (int) ((latitudes[i] - south) / cellHeight);
+			int column = (int) ((longitudes[i] - west) / cellWidth);
+			cellOf[i] = row * columns + column;
+			offsets[cellOf[i] + 1]++;
+		}
+		for (int c = 0; c < rows * columns; c++) {
+			offsets[c + 1] += offsets[c];
+		}
+		int[] cells = new int[count];
+		int[] next = new int[rows * columns];
+		System.arraycopy(offsets, 0, next, 0, next.length);
+		for (int i = 0; i < latitudes.length; i++) {
+			if (cellOf[i] >= 0) cells[next[cellOf[i]]++] = i;
+		}
+		return new SpatialGrid(latitudes, longitudes, south, west, cellHeight, cellWidth, rows, columns, offsets, cells);
+	}
+
+	/**
+	 * Update a grid after rows have been added, removed or moved.  The cells
+	 * of the previous grid are kept and their rows renumbered, and only the
+	 * relocated rows are placed in cells.  If a relocated row is outside the
+	 * previous grid a new grid is built instead.
+	 *
+	 * @param previous   the previous grid.
+	 * @param latitudes  the latitude of every new row.
+	 * @param longitudes the longitude of every new row.
+	 * @param rowMap     the new row of every previous row, or -1 if it was
+	 *                   removed.
+	 * @param relocated  the new rows whose coordinates didn't come from the
+	 *                   previous grid.
+	 * @return the grid.
+	 */
+	public static SpatialGrid update(SpatialGrid previous, double[] latitudes, double[] longitudes, int[] rowMap, BitSet relocated) {
+
+		int cellCount = previous.rows * previous.columns;
+		int[] counts = new int[cellCount + 1];
+		for (int row = relocated.nextSetBit(0); row >= 0; row = relocated.nextSetBit(row + 1)) {
+			if (!isValid(latitudes[row], longitudes[row])) continue;
+			int cell = previous.cellOf(latitudes[row], longitudes[row]);
+			if (cell < 0) return build(latitudes, longitudes);
+			counts[cell + 1]++;
+		}
+
+		// Keep the rows of every cell which haven't moved, then add the
+		// relocated rows.  The order of the rows within a cell doesn't matter.
+		int[] offsets = new int[cellCount + 1];
+		int[] cells = new int[previous.cells.length + relocated.cardinality()];
+		int n = 0;
+		for (int cell = 0; cell < cellCount; cell++) {
+			for (int i = previous.offsets[cell]; i < previous.offsets[cell + 1]; i++) {
+				int row = rowMap[previous.cells[i]];
+				if (row >= 0 && !relocated.get(row)) cells[n++] = row;
+			}
+			n += counts[cell + 1];
+			offsets[cell + 1] = n;
+		}
+		int[] next = new int[cellCount];
+		for (int cell = 0; cell < cellCount; cell++) {
+			next[cell] = offsets[cell + 1] - counts[cell + 1];
+		}
+		for (int row = relocated.nextSetBit(0); row >= 0; row = relocated.nextSetBit(row + 1)) {
+			if (isValid(latitudes[row], longitudes[row])) cells[next[previous.cellOf(latitudes[row], longitudes[row])]++] = row;
+		}
+		return new SpatialGrid(latitudes, longitudes, previous.south, previous.west, previous.cellHeight, previous.cellWidth,
+				previous.rows, previous.columns, offsets, Arrays.copyOf(cells, n));
+	}
+
+	/**
+	 * Get the cell which holds a point.
+	 *
+	 * @return the cell, or -1 if the point is outside the grid.
+	 */
+	private int cellOf(double latitude, double longitude) {
+
+		if (latitude < south || longitude < west) return -1;
+		int row = (int) ((latitude - south) / cellHeight);
+		int column = (int) ((longitude - west) / cellWidth);
+		return row < rows && column < columns ? row * columns + column : -1;
+	}
+
+	/**
+	 * Get the number of rows in the grid, which excludes the rows without
+	 * coordinates.
+	 *
+	 * @return the number of rows in the grid.
+	 */
+	public int size() {
+
+		return cells.length;
+	}
+
+	public double getLatitude(int row) {
+
+		return latitudes[row];
+	}
+
+	public double getLongitude(int row) {
+
+		return longitudes[row];
+	}
+
+	/**
+	 * Find the rows closest to a point.
+	 *
+	 * @param latitude  the latitude of the point.
+	 * @param longitude the longitude of the point.
+	 * @param allowed   the rows which may be returned, or <code>null</code> to
+	 *                  allow every row.
+	 * @param out       receives the closest rows, nearest first.  At most
+	 *                  <code>out.length</code> rows are found.
+	 * @param distances receives the distance to each row in meters, it must
+	 *                  be at least as long as <code>out</code>.
+	 * @return the number of rows found.
+	 */
+	public int nearest(double latitude, double longitude, BitSet allowed, int[] out, double[] distances) {
+
+		int k = out.length;
+		if (k == 0 || cells.length == 0) return 0;
+		int row = clamp((int) Math.floor((latitude - south) / cellHeight), rows);
+		int column = clamp((int) Math.floor((longitude - west) / cellWidth), columns);
+		double cosLatitude = Math.cos(Math.toRadians(latitude));
+		double cellSize = METERS_PER_DEGREE * Math.min(cellHeight, cellWidth * cosLatitude);
+
+		int found = 0;
+		int maxRing = Math.max(Math.max(row, rows - 1 - row), Math.max(column, columns - 1 - column));
+		for (int ring = 0; ring <= maxRing; ring++) {
+			// Every cell in this ring is at least this far from the point.
+			if (found == k && (ring - 1) * cellSize > distances[k - 1]) break;
+			for (int r = row - ring; r <= row + ring; r++) {
+				if (r < 0 || r >= rows) continue;
+				boolean edge = r == row - ring || r == row + ring;
+				int step = edge ? 1 : Math.max(2 * ring, 1);
+				for (int c = column - ring; c <= column + ring; c += step) {
+					if (c < 0 || c >= columns) continue;
+					int cell = r * columns + c;
+					for (int i = offsets[cell]; i < offsets[cell + 1]; i++) {
+						int candidate = cells[i];
+						if (allowed != null && !allowed.get(candidate)) continue;
+						double d = distance(latitude, longitude, cosLatitude, candidate);
+						if (found == k && d >= distances[k - 1]) continue;
+						// Insert the candidate in order, dropping the farthest.
+						int p = found == k ? k - 1 : found++;
+						while (p > 0 && distances[p - 1] > d) {
+							out[p] = out[p - 1];
+							distances[p] = distances[p - 1];
+							p--;
+						}
+						out[p] = candidate;
+						distances[p] = d;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Find the rows inside a bounding box.
+	 *
+	 * @param south the southern edge of the box.
+	 * @param west  the western edge of the box.
+	 * @param north the northern edge of the box.
+	 * @param east  the eastern edge of the box.
+	 * @param out   receives the rows, it must be at least as long as the
+	 *              number of rows in the grid.
+	 * @return the number of rows found.
+	 */
+	public int within(double south, double west, double north, double east, int[] out) {
+
+		if (cells.length == 0 || north < this.south || east < this.west) return 0;
+		int firstRow = (int) Math.floor((south - this.south) / cellHeight);
+		int lastRow = (int) Math.floor((north - this.south) / cellHeight);
+		int firstColumn = (int) Math.floor((west - this.west) / cellWidth);
+		int lastColumn = (int) Math.floor((east - this.west) / cellWidth);
+		if (firstRow >= rows || firstColumn >= columns) return 0;
+		firstRow = clamp(firstRow, rows);
+		lastRow = clamp(lastRow, rows);
+		firstColumn = clamp(firstColumn, columns);
+		lastColumn = clamp(lastColumn, columns);
+
+		int count = 0;
+		for (int r = firstRow; r <= lastRow; r++) {
+			for (int c = firstColumn; c <= lastColumn; c++) {
+				int cell = r * columns + c;
+				// Only the cells on the edge of the box can hold rows outside it.
+				boolean inside = r > firstRow && r < lastRow && c > firstColumn && c < lastColumn;
+				for (int i = offsets[cell]; i < offsets[cell + 1]; i++) {
+					int row = cells[i];
+					if (inside || (latitudes[row] >= south && latitudes[row] <= north &&
+							longitudes[row] >= west && longitudes[row] <= east)) {
+						out[count++] = row;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * The equirectangular distance from a point to a row in meters.  It is
+	 * accurate to well under a percent over the distances searched.
+	 */
+	private double distance(double latitude, double longitude, double cosLatitude, int row) {
+
+		double x = (longitudes[row] - longitude) * cosLatitude;
+		double y = latitudes[row] - latitude;
+		return METERS_PER_DEGREE * Math.sqrt(x * x + y * y);
+	}
+
+	private static int clamp(int value, int size) {
+
+		return value < 0 ? 0 : value >= size ? size - 1 : value;
+	}
+}
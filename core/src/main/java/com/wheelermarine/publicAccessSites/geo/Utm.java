@@ -0,0 +1,50 @@
+package com.wheelermarine.publicAccessSites.geo;
+
+/**
+ * <p>
+ * This class converts UTM coordinates, which the MN DNR publishes its
+ * locations in, to latitude and longitude.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class Utm {
+
+	/**
+	 * The UTM zone which covers Minnesota.
+	 */
+	public static final int MINNESOTA_ZONE = 15;
+
+	private Utm() {
+
+	}
+
+	/**
+	 * Convert a UTM location to a latitude and longitude.
+	 *
+	 * @param north the northing value.
+	 * @param east  the easting value.
+	 * @param zone  the UTM zone.
+	 * @param out   receives the latitude and then the longitude in degrees.
+	 */
+	public static void toLatLon(double north, double east, double zone, double[] out) {
+
+		double d = 0.99960000000000004;
+		double d1 = 6378137;
+		double d2 = 0.0066943799999999998;
+		double d4 = (1 - Math.sqrt(1 - d2)) / (1 + Math.sqrt(1 - d2));
+		double d3 = d2 / (1 - d2);
+		double d12 = (north / d) / (d1 * (1 - d2 / 4 - (3 * d2 * d2) / 64 - (5 * Math.pow(d2, 3)) / 256));
+		double d14 = d12 + ((3 * d4) / 2 - (27 * Math.pow(d4, 3)) / 32) * Math.sin(2 * d12) + ((21 * d4 * d4) / 16 - (55 * Math.pow(d4, 4)) / 32) * Math.sin(4 * d12) + ((151 * Math.pow(d4, 3)) / 96) * Math.sin(6 * d12);
+		double d5 = d1 / Math.sqrt(1 - d2 * Math.sin(d14) * Math.sin(d14));
+		double d6 = Math.tan(d14) * Math.tan(d14);
+		double d7 = d3 * Math.cos(d14) * Math.cos(d14);
+		double d8 = (d1 * (1 - d2)) / Math.pow(1 - d2 * Math.sin(d14) * Math.sin(d14), 1.5);
+		double d9 = (east - 500000) / (d5 * d);
+		out[0] = (d14 - ((d5 * Math.tan(d14)) / d8) * (((d9 * d9) / 2 - (((5 + 3 * d6 + 10 * d7) - 4 * d7 * d7 - 9 * d3) * Math.pow(d9, 4)) / 24) + (((61 + 90 * d6 + 298 * d7 + 45 * d6 * d6) - 252 * d3 - 3 * d7 * d7) * Math.pow(d9, 6)) / 720)) * 180 / Math.PI;
+		out[1] = (((zone - 1) * 6 - 180) + 3) + (((d9 - ((1 + 2 * d6 + d7) * Math.pow(d9, 3)) / 6) + (((((5 - 2 * d7) + 28 * d6) - 3 * d7 * d7) + 8 * d3 + 24 * d6 * d6) * Math.pow(d9, 5)) / 120) / Math.cos(d14)) * 180 / Math.PI;
+	}
+}
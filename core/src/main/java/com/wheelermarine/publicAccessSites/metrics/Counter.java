@@ -0,0 +1,49 @@
+package com.wheelermarine.publicAccessSites.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * This class counts events.  It is safe to use from any thread.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class Counter {
+
+	private final String name;
+	private final AtomicLong count = new AtomicLong();
+
+	Counter(String name) {
+
+		this.name = name;
+	}
+
+	public String getName() {
+
+		return name;
+	}
+
+	public void increment() {
+
+		count.incrementAndGet();
+	}
+
+	public void add(long n) {
+
+		count.addAndGet(n);
+	}
+
+	public long getCount() {
+
+		return count.get();
+	}
+
+	void reset() {
+
+		count.set(0);
+	}
+}
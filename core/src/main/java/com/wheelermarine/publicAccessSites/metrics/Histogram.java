@@ -0,0 +1,133 @@
+package com.wheelermarine.publicAccessSites.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * This class records the distribution of a value, such as a duration or a
+ * number of results, so its percentiles can be reported.  Values are
+ * counted in fixed buckets rather than being kept: every power of two is
+ * split into eight buckets, so a percentile is accurate to within about 12%
+ * and recording a value doesn't allocate or lock.  Negative values are
+ * recorded as 0.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Values below this each have their own bucket.
+	 */
+	private static final int LINEAR = 2 * SUB_BUCKETS;
+	private static final int BUCKETS = LINEAR + (64 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+	private final String name;
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	Histogram(String name) {
+
+		this.name = name;
+	}
+
+	public String getName() {
+
+		return name;
+	}
+
+	/**
+	 * Record a value.
+	 *
+	 * @param value the value.
+	 */
+	public void record(long value) {
+
+		if (value < 0) value = 0;
+		buckets.incrementAndGet(bucketOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long m;
+		while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+			// Another thread recorded a value at the same time, try again.
+		}
+	}
+
+	public long getCount() {
+
+		return count.get();
+	}
+
+	public long getMax() {
+
+		return max.get();
+	}
+
+	/**
+	 * Get the mean of the recorded values.
+	 *
+	 * @return the mean, or 0 if nothing has been recorded.
+	 */
+	public double getMean() {
+
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Get a percentile of the recorded values.  The value returned is the
+	 * upper bound of the bucket the percentile falls in, but never more than
+	 * the largest value recorded.
+	 *
+	 * @param percentile the percentile, from 0 to 100.
+	 * @return the value, or 0 if nothing has been recorded.
+	 */
+	public long getPercentile(double percentile) {
+
+		long n = count.get();
+		if (n == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	void reset() {
+
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	static int bucketOf(long value) {
+
+		if (value < LINEAR) return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+	}
+
+	static long upperBound(int bucket) {
+
+		if (bucket < LINEAR) return bucket;
+		int exponent = (bucket - LINEAR) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+		int sub = (bucket - LINEAR) % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return (1L << exponent) + (sub + 1) * width - 1;
+	}
+}
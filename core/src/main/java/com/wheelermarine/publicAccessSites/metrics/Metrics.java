@@ -0,0 +1,155 @@
+package com.wheelermarine.publicAccessSites.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * This class is the registry of the application's counters, timers and
+ * histograms.  A metric is created the first time it is asked for and the
+ * same one is returned afterwards, so callers usually keep it in a static
+ * field:
+ * </p>
+ * <p/>
+ * <pre>
+ *     private static final Timer FILTER = Metrics.timer("search.filter");
+ * </pre>
+ * <p/>
+ * <p>
+ * Recording only updates a few atomic fields, so metrics are always on.
+ * Timers also mark trace sections through the installed
+ * <code>Tracer</code>, which does nothing until the platform installs one.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class Metrics {
+
+	/**
+	 * This interface marks sections of a system trace.
+	 */
+	public interface Tracer {
+
+		void begin(String name);
+
+		void end();
+	}
+
+	private static final Tracer NO_TRACER = new Tracer() {
+		@Override
+		public void begin(String name) {
+		}
+
+		@Override
+		public void end() {
+		}
+	};
+
+	private static final Map<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	private static final Map<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+	private static volatile Tracer tracer = NO_TRACER;
+
+	private Metrics() {
+
+	}
+
+	public static Counter counter(String name) {
+
+		Counter counter = counters.get(name);
+		if (counter != null) return counter;
+		synchronized (counters) {
+			counter = counters.get(name);
+			if (counter == null) counters.put(name, counter = new Counter(name));
+			return counter;
+		}
+	}
+
+	public static Histogram histogram(String name) {
+
+		return histogram(name, false);
+	}
+
+	public static Timer timer(String name) {
+
+		return (Timer) histogram(name, true);
+	}
+
+	private static Histogram histogram(String name, boolean timer) {
+
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			synchronized (histograms) {
+				histogram = histograms.get(name);
+				if (histogram == null) histograms.put(name, histogram = timer ? new Timer(name) : new Histogram(name));
+			}
+		}
+		if ((histogram instanceof Timer) != timer)
+			throw new IllegalArgumentException(name + " is already registered as a " + (timer ? "histogram" : "timer"));
+		return histogram;
+	}
+
+	static Tracer getTracer() {
+
+		return tracer;
+	}
+
+	/**
+	 * Install the tracer used by the timers.
+	 *
+	 * @param tracer the tracer, or <code>null</code> to stop tracing.
+	 */
+	public static void setTracer(Tracer tracer) {
+
+		Metrics.tracer = tracer == null ? NO_TRACER : tracer;
+	}
+
+	/**
+	 * Clear every metric.  The metrics stay registered.
+	 */
+	public static void reset() {
+
+		for (Counter counter : counters.values()) {
+			counter.reset();
+		}
+		for (Histogram histogram : histograms.values()) {
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * Describe every metric which has been recorded, sorted by name.  Timers
+	 * are shown in milliseconds.
+	 *
+	 * @return one line per metric.
+	 */
+	public static String dump() {
+
+		StringBuilder out = new StringBuilder();
+		List<String> names = new ArrayList<String>(counters.keySet());
+		Collections.sort(names);
+		for (String name : names) {
+			long count = counters.get(name).getCount();
+			if (count > 0) out.append(String.format(Locale.US, "%s: %d\n", name, count));
+		}
+
+		names = new ArrayList<String>(histograms.keySet());
+		Collections.sort(names);
+		for (String name : names) {
+			Histogram h = histograms.get(name);
+			if (h.getCount() == 0) continue;
+			double scale = h instanceof Timer ? 1e6 : 1;
+			out.append(String.format(Locale.US, "%s: n=%d mean=%.2f p50=%.2f p90=%.2f p99=%.2f max=%.2f%s\n",
+					name, h.getCount(), h.getMean() / scale,
+					h.getPercentile(50) / scale, h.getPercentile(90) / scale, h.getPercentile(99) / scale,
+					h.getMax() / scale, h instanceof Timer ? " ms" : ""));
+		}
+		return out.toString();
+	}
+}
@@ -0,0 +1,81 @@
+package com.wheelermarine.publicAccessSites.metrics;
+
+/**
+ * <p>
+ * This class records how long an operation takes, in nanoseconds, and marks
+ * it as a section of the system trace.  Example:
+ * </p>
+ * <p/>
+ * <pre>
+ *     long start = timer.start();
+ *     try {
+ *         // Do the work...
+ *     } finally {
+ *         timer.stop(start);
+ *     }
+ * </pre>
+ * <p/>
+ * <p>
+ * <code>start</code> and <code>stop</code> must be called on the same thread
+ * since trace sections are per thread.  An operation which finishes on
+ * another thread, such as a background load, should use <code>now</code>
+ * and <code>record</code> instead, which aren't traced.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class Timer extends Histogram {
+
+	Timer(String name) {
+
+		super(name);
+	}
+
+	/**
+	 * Start timing and begin a trace section.
+	 *
+	 * @return the start time to pass to <code>stop</code>.
+	 */
+	public long start() {
+
+		Metrics.getTracer().begin(getName());
+		return System.nanoTime();
+	}
+
+	/**
+	 * Stop timing and end the trace section.
+	 *
+	 * @param start the time returned by <code>start</code>.
+	 * @return the elapsed time in nanoseconds.
+	 */
+	public long stop(long start) {
+
+		long elapsed = System.nanoTime() - start;
+		record(elapsed);
+		Metrics.getTracer().end();
+		return elapsed;
+	}
+
+	/**
+	 * Get the current time for an operation which isn't traced.
+	 *
+	 * @return the time in nanoseconds.
+	 */
+	public static long now() {
+
+		return System.nanoTime();
+	}
+
+	/**
+	 * Record the time since an untraced start.
+	 *
+	 * @param start the time returned by <code>now</code>.
+	 */
+	public void recordSince(long start) {
+
+		record(System.nanoTime() - start);
+	}
+}
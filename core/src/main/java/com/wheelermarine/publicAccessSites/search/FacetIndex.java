@@ -0,0 +1,196 @@
+package com.wheelermarine.publicAccessSites.search;
+
+import com.wheelermarine.publicAccessSites.store.SiteStore;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * This class indexes the public accesses by county, ramp type, launch type
+ * and whether they have ramps or docks.  Every value of every facet has a
+ * bit set of the rows with that value, so a selection is answered by
+ * combining bit sets: values of the same facet are combined with OR and
+ * different facets with AND.  The number of rows with each value is
+ * available without a search.  After an update the bit sets of the previous
+ * index are renumbered and only the new and changed rows are added.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class FacetIndex {
+
+	/**
+	 * The only value of the facets which describe whether a public access
+	 * has something.
+	 */
+	public static final String YES = "Yes";
+
+	/**
+	 * The facets which public accesses can be filtered by, in the order they
+	 * are displayed.
+	 */
+	public static enum Facet {
+		HAS_RAMPS,
+		HAS_DOCKS,
+		RAMP,
+		LAUNCH,
+		COUNTY
+	}
+
+	private final int size;
+	private final Map<Facet, Map<String, BitSet>> values;
+
+	private FacetIndex(int size, Map<Facet, Map<String, BitSet>> values) {
+
+		this.size = size;
+		this.values = values;
+	}
+
+	/**
+	 * Update an index after rows have been added, removed or changed.  The
+	 * bit sets of the previous index are renumbered, and only the values of
+	 * the new and changed rows are read.
+	 *
+	 * @param previous the index of the previous rows.
+	 * @param sites    the new rows.
+	 * @param rowMap   the new row of every previous row, or -1 if it was
+	 *                 removed or changed.
+	 * @param changed  the new rows which weren't kept from the previous rows.
+	 * @return the index of the new rows.
+	 */
+	public static FacetIndex update(FacetIndex previous, SiteStore sites, int[] rowMap, BitSet changed) {
+
+		Builder builder = new Builder();
+		for (Map.Entry<Facet, Map<String, BitSet>> facet : previous.values.entrySet()) {
+			Map<String, BitSet> values = builder.values.get(facet.getKey());
+			for (Map.Entry<String, BitSet> value : facet.getValue().entrySet()) {
+				BitSet old = value.getValue();
+				BitSet rows = new BitSet(sites.size());
+				for (int row = old.nextSetBit(0); row >= 0; row = old.nextSetBit(row + 1)) {
+					if (rowMap[row] >= 0) rows.set(rowMap[row]);
+				}
+				// A value whose rows were all removed isn't listed any more.
+				if (!rows.isEmpty()) values.put(value.getKey(), rows);
+			}
+		}
+		for (int row = changed.nextSetBit(0); row >= 0; row = changed.nextSetBit(row + 1)) {
+			builder.set(row, sites.getCounty(row), sites.getRamp(row), sites.getLaunch(row), sites.getRamps(row), sites.getDocks(row));
+		}
+		builder.size = sites.size();
+		return builder.build();
+	}
+
+	/**
+	 * Get the values of a facet in alphabetical order.
+	 *
+	 * @param facet the facet.
+	 * @return the values of the facet.
+	 */
+	public List<String> getValues(Facet facet) {
+
+		return Collections.unmodifiableList(new ArrayList<String>(values.get(facet).keySet()));
+	}
+
+	/**
+	 * Get the number of rows with a facet value.
+	 *
+	 * @param facet the facet.
+	 * @param value the value.
+	 * @return the number of rows with the value.
+	 */
+	public int getCount(Facet facet, String value) {
+
+		BitSet rows = values.get(facet).get(value);
+		return rows == null ? 0 : rows.cardinality();
+	}
+
+	/**
+	 * Find the rows matching a selection.  A row matches if, for every facet
+	 * in the selection, it has one of the selected values.
+	 *
+	 * @param selection the selected values of each facet.
+	 * @return the matching rows, or <code>null</code> if nothing is selected.
+	 */
+	public BitSet select(Map<Facet, Set<String>> selection) {
+
+		BitSet result = null;
+		for (Map.Entry<Facet, Set<String>> facet : selection.entrySet()) {
+			if (facet.getValue().isEmpty()) continue;
+			BitSet any = new BitSet(size);
+			for (String value : facet.getValue()) {
+				BitSet rows = values.get(facet.getKey()).get(value);
+				if (rows != null) any.or(rows);
+			}
+			if (result == null) {
+				result = any;
+			} else {
+				result.and(any);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * This class collects the facet values while the public accesses are
+	 * loaded.
+	 */
+	public static class Builder {
+
+		private final Map<Facet, Map<String, BitSet>> values = new EnumMap<Facet, Map<String, BitSet>>(Facet.class);
+		private int size;
+
+		public Builder() {
+
+			for (Facet facet : Facet.values()) {
+				values.put(facet, new TreeMap<String, BitSet>(String.CASE_INSENSITIVE_ORDER));
+			}
+		}
+
+		/**
+		 * Add the facet values of the next row.  Empty values are ignored.
+		 *
+		 * @param county the county.
+		 * @param ramp   the ramp type.
+		 * @param launch the launch type.
+		 * @param ramps  the number of ramps.
+		 * @param docks  the number of docks.
+		 */
+		public void add(String county, String ramp, String launch, int ramps, int docks) {
+
+			set(size++, county, ramp, launch, ramps, docks);
+		}
+
+		private void set(int row, String county, String ramp, String launch, int ramps, int docks) {
+
+			add(Facet.COUNTY, county, row);
+			add(Facet.RAMP, ramp, row);
+			add(Facet.LAUNCH, launch, row);
+			if (ramps > 0) add(Facet.HAS_RAMPS, YES, row);
+			if (docks > 0) add(Facet.HAS_DOCKS, YES, row);
+		}
+
+		private void add(Facet facet, String value, int row) {
+
+			if (value == null || value.isEmpty()) return;
+			Map<String, BitSet> facetValues = values.get(facet);
+			BitSet rows = facetValues.get(value);
+			if (rows == null) facetValues.put(value, rows = new BitSet());
+			rows.set(row);
+		}
+
+		public FacetIndex build() {
+
+			return new FacetIndex(size, values);
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package com.wheelermarine.publicAccessSites.search;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * This class finds public accesses whose name or lake is within a small edit
+ * distance of a query, so misspelled names still find something.  The
+ * distinct normalized names and lakes are stored in a BK-tree, which uses the
+ * triangle inequality to skip most of the names without computing their
+ * distance to the query.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class FuzzyIndex {
+
+	/**
+	 * The shortest query which is searched for, shorter queries match too
+	 * many unrelated names.
+	 */
+	public static final int MIN_QUERY_LENGTH = 4;
+
+	/**
+	 * Queries at least this long allow two edits instead of one.
+	 */
+	private static final int TWO_EDIT_LENGTH = 8;
+
+	private final Node root;
+
+	private FuzzyIndex(Node root) {
+
+		this.root = root;
+	}
+
+	/**
+	 * Build the index from the names and lakes in a set of search keys.
+	 *
+	 * @param keys the keys to index.
+	 * @return the index.
+	 */
+	public static FuzzyIndex build(SearchKeys keys) {
+
+		// Collect the rows for every distinct name and lake.
+		Map<String, int[]> terms = new HashMap<String, int[]>();
+		CharBuffer chars = keys.chars();
+		for (int row = 0; row < keys.size(); row++) {
+			int start = keys.start(row);
+			int end = keys.end(row);
+			int separator = start;
+			while (separator < end && chars.get(separator) != SearchKeys.SEPARATOR) separator++;
+			addTerm(terms, chars.subSequence(start, separator).toString(), row);
+			if (separator < end) addTerm(terms, chars.subSequence(separator + 1, end).toString(), row);
+		}
+
+		Node root = null;
+		for (Map.Entry<String, int[]> term : terms.entrySet()) {
+			int[] rows = term.getValue();
+			Node node = new Node(term.getKey(), Arrays.copyOfRange(rows, 1, rows[0] + 1));
+			if (root == null) {
+				root = node;
+			} else {
+				root.add(node);
+			}
+		}
+		return new FuzzyIndex(root);
+	}
+
+	private static void addTerm(Map<String, int[]> terms, String term, int row) {
+
+		if (term.isEmpty()) return;
+		// The first element of the array is the number of rows.
+		int[] rows = terms.get(term);
+		if (rows == null) {
+			rows = new int[4];
+		} else if (rows[rows[0]] == row) {
+			return;
+		} else if (rows[0] + 1 == rows.length) {
+			rows = Arrays.copyOf(rows, rows.length * 2);
+		}
+		rows[++rows[0]] = row;
+		terms.put(term, rows);
+	}
+
+	/**
+	 * Find the rows with a name or lake close to a normalized query.  Rows are
+	 * ordered by edit distance and then by their position in the list.
+	 *
+	 * @param query the normalized query.
+	 * @return the matching rows, empty if the query is too short.
+	 */
+	public int[] search(String query) {
+
+		if (root == null || query.length() < MIN_QUERY_LENGTH) return new int[0];
+		int maxDistance = query.length() >= TWO_EDIT_LENGTH ? 2 : 1;
+
+		// Keep the smallest distance found for each row.
+		Map<Integer, Integer> distances = new HashMap<Integer, Integer>();
+		List<Node> pending = new ArrayList<Node>();
+		pending.add(root);
+		int[] previous = new int[query.length() + 1];
+		int[] current = new int[query.length() + 1];
+		while (!pending.isEmpty()) {
+			Node node = pending.remove(pending.size() - 1);
+			int d = distance(query, node.term, previous, current);
+			if (d <= maxDistance) {
+				for (int row : node.rows) {
+					Integer best = distances.get(row);
+					if (best == null || d < best) distances.put(row, d);
+				}
+			}
+			for (int i = 0; i < node.size; i++) {
+				if (Math.abs(node.distances[i] - d) <= maxDistance) pending.add(node.children[i]);
+			}
+		}
+
+		// Sort by distance, then by row.  Both fit in a single long.
+		long[] sorted = new long[distances.size()];
+		int n = 0;
+		for (Map.Entry<Integer, Integer> entry : distances.entrySet()) {
+			sorted[n++] = ((long) entry.getValue() << 32) | entry.getKey();
+		}
+		Arrays.sort(sorted);
+		int[] rows = new int[n];
+		for (int i = 0; i < n; i++) {
+			rows[i] = (int) sorted[i];
+		}
+		return rows;
+	}
+
+	/**
+	 * Compute the Levenshtein distance between two strings using the provided
+	 * rows of the distance matrix.
+	 */
+	private static int distance(String a, String b, int[] previous, int[] current) {
+
+		int n = a.length();
+		for (int i = 0; i <= n; i++) {
+			previous[i] = i;
+		}
+		for (int j = 1; j <= b.length(); j++) {
+			current[0] = j;
+			char c = b.charAt(j - 1);
+			for (int i = 1; i <= n; i++) {
+				int cost = a.charAt(i - 1) == c ? 0 : 1;
+				current[i] = Math.min(Math.min(current[i - 1] + 1, previous[i] + 1), previous[i - 1] + cost);
+			}
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return previous[n];
+	}
+
+	/**
+	 * A node in the BK-tree.  Every child is at a distinct distance from its
+	 * parent.
+	 */
+	private static class Node {
+
+		final String term;
+		final int[] rows;
+		int[] distances = new int[0];
+		Node[] children = new Node[0];
+		int size;
+
+		Node(String term, int[] rows) {
+
+			this.term = term;
+			this.rows = rows;
+		}
+
+		void add(Node node) {
+
+			int[] previous = new int[node.term.length() + 1];
+			int[] current = new int[node.term.length() + 1];
+			Node parent = this;
+			while (true) {
+				int d = distance(node.term, parent.term, previous, current);
+				Node child = parent.child(d);
+				if (child == null) {
+					parent.put(d, node);
+					return;
+				}
+				parent = child;
+			}
+		}
+
+		Node child(int distance) {
+
+			for (int i = 0; i < size; i++) {
+				if (distances[i] == distance) return children[i];
+			}
+			return null;
+		}
+
+		void put(int distance, Node child) {
+
+			if (size == distances.length) {
+				distances = Arrays.copyOf(distances, Math.max(4, size * 2));
+				children = Arrays.copyOf(children, distances.length);
+			}
+			distances[size] = distance;
+			children[size++] = child;
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package com.wheelermarine.publicAccessSites.search;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * This class reads and writes the search index file.  The file holds the
+ * search keys, the trigram index and the ID of every row so that the index
+ * can be memory mapped at startup and used without being parsed or rebuilt.
+ * The mapped pages belong to the file cache rather than the Java heap.
+ * </p>
+ * <p>
+ * The stamp is a hash of the ID, name and lake of every row in order, which
+ * are what the keys are built from.  The reader compares it to a stamp of
+ * the rows it loaded, so an index written for other data is never used even
+ * if it has the same number of rows.
+ * </p>
+ * <p>
+ * The file is a header followed by each section, all values are big endian:
+ * </p>
+ * <pre>
+ *     int    magic
+ *     int    version
+ *     long   stamp
+ *     int    number of rows (n)
+ *     int    number of key characters (c)
+ *     int    number of postings (p)
+ *     long[n]     row IDs
+ *     int[n + 1]  key offsets
+ *     char[c]     keys
+ *     int[t + 1]  trigram offsets, t is the number of trigrams
+ *     int[p]      postings
+ * </pre>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class SearchIndexFile {
+
+	private static final int MAGIC = 0x50415349;
+	// Version 2 builds the keys from the cleaned names and lakes, version 3
+	// adds the stamp.  A file of an older version is rebuilt.
+	private static final int VERSION = 3;
+	private static final int HEADER_LENGTH = 5 * 4 + 8;
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final long stamp;
+	private final LongBuffer ids;
+	private final SearchKeys keys;
+	private final TrigramIndex index;
+
+	private SearchIndexFile(long stamp, LongBuffer ids, SearchKeys keys, TrigramIndex index) {
+
+		this.stamp = stamp;
+		this.ids = ids;
+		this.keys = keys;
+		this.index = index;
+	}
+
+	/**
+	 * Get the number of rows in the index.
+	 *
+	 * @return the number of rows.
+	 */
+	public int size() {
+
+		return keys.size();
+	}
+
+	/**
+	 * Get the stamp of the rows the index was written for.
+	 *
+	 * @return the stamp.
+	 * @see Stamp
+	 */
+	public long getStamp() {
+
+		return stamp;
+	}
+
+	/**
+	 * Get the ID of a row.
+	 *
+	 * @param row the row.
+	 * @return the ID stored for the row.
+	 */
+	public long getId(int row) {
+
+		return ids.get(row);
+	}
+
+	public SearchKeys getKeys() {
+
+		return keys;
+	}
+
+	public TrigramIndex getIndex() {
+
+		return index;
+	}
+
+	/**
+	 * Write a search index file.  The file is written to a temporary file
+	 * first and then renamed so a partially written index is never read.
+	 *
+	 * @param file  the file to write.
+	 * @param stamp the stamp of the rows.
+	 * @param ids   the ID of every row.
+	 * @param keys  the search keys.
+	 * @param index the trigram index built from the keys.
+	 * @throws IOException if there is an error writing the file.
+	 */
+	public static void write(File file, long stamp, long[] ids, SearchKeys keys, TrigramIndex index) throws IOException {
+
+		if (ids.length != keys.size()) throw new IllegalArgumentException("Expected " + keys.size() + " IDs, found " + ids.length);
+
+		int chars = keys.chars().limit();
+		int postings = index.postings().limit();
+		int length = HEADER_LENGTH + 8 * ids.length + 4 * (ids.length + 1) + 2 * chars +
+				4 * (TrigramIndex.TRIGRAMS + 1) + 4 * postings;
+
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(stamp);
+		buffer.putInt(ids.length);
+		buffer.putInt(chars);
+		buffer.putInt(postings);
+		buffer.asLongBuffer().put(ids);
+		buffer.position(buffer.position() + 8 * ids.length);
+		buffer.asIntBuffer().put(keys.offsets().duplicate());
+		buffer.position(buffer.position() + 4 * (ids.length + 1));
+		buffer.asCharBuffer().put(keys.chars().duplicate());
+		buffer.position(buffer.position() + 2 * chars);
+		buffer.asIntBuffer().put(index.offsets().duplicate());
+		buffer.position(buffer.position() + 4 * (TrigramIndex.TRIGRAMS + 1));
+		buffer.asIntBuffer().put(index.postings().duplicate());
+
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			out.write(buffer.array());
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) throw new IOException("Unable to rename " + tmp + " to " + file);
+	}
+
+	/**
+	 * Memory map a search index file.
+	 *
+	 * @param file the file to map.
+	 * @return the mapped index.
+	 * @throws IOException if the file can't be read or isn't a search index.
+	 */
+	public static SearchIndexFile map(File file) throws IOException {
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer buffer;
+		try {
+			// The mapping remains valid after the channel is closed.
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+
+		if (buffer.limit() < HEADER_LENGTH || buffer.getInt() != MAGIC) throw new IOException(file + " is not a search index.");
+		int version = buffer.getInt();
+		if (version != VERSION) throw new IOException("Unsupported search index version: " + version);
+		long stamp = buffer.getLong();
+		int rows = buffer.getInt();
+		int chars = buffer.getInt();
+		int postings = buffer.getInt();
+		int length = HEADER_LENGTH + 8 * rows + 4 * (rows + 1) + 2 * chars + 4 * (TrigramIndex.TRIGRAMS + 1) + 4 * postings;
+		if (buffer.limit() != length) throw new IOException(file + " is truncated.");
+
+		LongBuffer ids = slice(buffer, 8 * rows).asLongBuffer();
+		IntBuffer keyOffsets = slice(buffer, 4 * (rows + 1)).asIntBuffer();
+		CharBuffer keyChars = slice(buffer, 2 * chars).asCharBuffer();
+		IntBuffer trigramOffsets = slice(buffer, 4 * (TrigramIndex.TRIGRAMS + 1)).asIntBuffer();
+		IntBuffer trigramPostings = slice(buffer, 4 * postings).asIntBuffer();
+
+		SearchKeys keys = new SearchKeys(keyChars, keyOffsets);
+		return new SearchIndexFile(stamp, ids, keys, new TrigramIndex(keys, trigramOffsets, trigramPostings));
+	}
+
+	/**
+	 * Slice the next section of the buffer.
+	 */
+	private static ByteBuffer slice(ByteBuffer buffer, int length) {
+
+		ByteBuffer slice = buffer.slice();
+		slice.limit(length);
+		buffer.position(buffer.position() + length);
+		return slice;
+	}
+
+	/**
+	 * This class computes the stamp of a list of rows.  The rows must be
+	 * added in the order they are written to the index.
+	 */
+	public static class Stamp {
+
+		private long hash = FNV_OFFSET;
+
+		/**
+		 * Add the next row.
+		 *
+		 * @param id   the ID of the row.
+		 * @param name the name the search key is built from.
+		 * @param lake the lake the search key is built from.
+		 */
+		public void add(long id, String name, String lake) {
+
+			for (int shift = 0; shift < 64; shift += 8) hash = (hash ^ ((id >>> shift) & 0xff)) * FNV_PRIME;
+			add(name);
+			add(lake);
+		}
+
+		private void add(String value) {
+
+			// Every value is terminated so moving text between the name and
+			// the lake changes the stamp.
+			if (value == null) {
+				hash = (hash ^ 0xffff) * FNV_PRIME;
+				return;
+			}
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+				hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+			}
+			hash = (hash ^ 0xfffe) * FNV_PRIME;
+		}
+
+		/**
+		 * Get the stamp of the rows added so far.
+		 *
+		 * @return the stamp.
+		 */
+		public long get() {
+
+			return hash;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package com.wheelermarine.publicAccessSites.search;
+
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * This class holds the normalized search key of every public access in a
+ * single character array.  A key contains the lower case letters and digits
+ * of the name followed by a separator and the letters and digits of the lake,
+ * so a normalized query can never match across the two.  The keys are built
+ * once when the public accesses are loaded and searching them doesn't
+ * allocate any objects.  The keys may be held in arrays or in a memory
+ * mapped search index file.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class SearchKeys {
+
+	/**
+	 * Separates the name and lake in a key.  It is never part of a normalized
+	 * query.
+	 */
+	public static final char SEPARATOR = '|';
+
+	private final CharBuffer chars;
+	private final IntBuffer offsets;
+
+	SearchKeys(CharBuffer chars, IntBuffer offsets) {
+
+		this.chars = chars;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Get the number of keys.
+	 *
+	 * @return the number of keys.
+	 */
+	public int size() {
+
+		return offsets.limit() - 1;
+	}
+
+	CharBuffer chars() {
+
+		return chars;
+	}
+
+	IntBuffer offsets() {
+
+		return offsets;
+	}
+
+	int start(int row) {
+
+		return offsets.get(row);
+	}
+
+	int end(int row) {
+
+		return offsets.get(row + 1);
+	}
+
+	/**
+	 * Check if a key contains a normalized query.
+	 *
+	 * @param row    the index of the key.
+	 * @param query  the normalized query.
+	 * @param length the number of characters in the query.
+	 * @return <code>true</code> if the key contains the query.
+	 */
+	public boolean contains(int row, char[] query, int length) {
+
+		if (length == 0) return true;
+		int start = offsets.get(row);
+		int last = offsets.get(row + 1) - length;
+		char first = query[0];
+		for (int i = start; i <= last; i++) {
+			if (chars.get(i) != first) continue;
+			int j = 1;
+			while (j < length && chars.get(i + j) == query[j]) j++;
+			if (j == length) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Normalize a string for searching.  Only letters and digits are kept
+	 * and letters are converted to lower case.
+	 *
+	 * @param str the string to normalize.
+	 * @return the normalized string, never <code>null</code>.
+	 */
+	public static String normalize(CharSequence str) {
+
+		if (str == null) return "";
+		char[] out = new char[str.length()];
+		return new String(out, 0, normalize(str, out, 0));
+	}
+
+	/**
+	 * Normalize a string into a character array.
+	 *
+	 * @param str    the string to normalize.
+	 * @param out    the array to write the normalized characters to.
+	 * @param offset the position in <code>out</code> to start writing.
+	 * @return the number of characters written.
+	 */
+	private static int normalize(CharSequence str, char[] out, int offset) {
+
+		int n = offset;
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c >= 'A' && c <= 'Z') {
+				out[n++] = (char) (c + ('a' - 'A'));
+			} else if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+				out[n++] = c;
+			}
+		}
+		return n - offset;
+	}
+
+	/**
+	 * This class collects the keys while the public accesses are loaded.
+	 */
+	public static class Builder {
+
+		private char[] chars;
+		private int[] offsets;
+		private int size;
+		private int length;
+
+		public Builder(int expectedSize) {
+
+			chars = new char[Math.max(16, expectedSize * 32)];
+			offsets = new int[Math.max(1, expectedSize) + 1];
+		}
+
+		/**
+		 * Add the key for the next public access.
+		 *
+		 * @param name the name of the public access.
+		 * @param lake the name of the lake.
+		 */
+		public void add(String name, String lake) {
+
+			int nameLength = name == null ? 0 : name.length();
+			int lakeLength = lake == null ? 0 : lake.length();
+			if (length + nameLength + lakeLength + 1 > chars.length) {
+				chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + nameLength + lakeLength + 1));
+			}
+			if (size + 2 > offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+
+			if (name != null) length += normalize(name, chars, length);
+			chars[length++] = SEPARATOR;
+			if (lake != null) length += normalize(lake, chars, length);
+			offsets[++size] = length;
+		}
+
+		/**
+		 * Add the key of a row of other keys as the next key, without
+		 * normalizing it again.
+		 *
+		 * @param from the keys to copy from.
+		 * @param row  the row to copy.
+		 */
+		public void copy(SearchKeys from, int row) {
+
+			int start = from.start(row);
+			int n = from.end(row) - start;
+			if (length + n > chars.length) chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + n));
+			if (size + 2 > offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+
+			CharBuffer source = from.chars().duplicate();
+			source.position(start);
+			source.get(chars, length, n);
+			length += n;
+			offsets[++size] = length;
+		}
+
+		public SearchKeys build() {
+
+			return new SearchKeys(CharBuffer.wrap(Arrays.copyOf(chars, length)), IntBuffer.wrap(Arrays.copyOf(offsets, size + 1)));
+		}
+	}
+}
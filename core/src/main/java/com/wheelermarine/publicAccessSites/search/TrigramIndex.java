@@ -0,0 +1,265 @@
+package com.wheelermarine.publicAccessSites.search;
+
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * <p>
+ * This class is an inverted index from every three character sequence in the
+ * search keys to the rows which contain it.  A query of three or more
+ * characters can only match rows which contain all of its trigrams, so the
+ * candidates are found by intersecting the posting lists of the query's
+ * trigrams and then verified against the keys.  Searching takes time
+ * proportional to the size of the posting lists rather than the number of
+ * rows.
+ * </p>
+ * <p>
+ * The posting lists are stored back to back in a single buffer, ordered by
+ * trigram, with the start of each list in a separate offset buffer.  Rows
+ * are listed in increasing order so that the results are in list order.  The
+ * buffers may be arrays or part of a memory mapped search index file.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class TrigramIndex {
+
+	/**
+	 * The shortest query which can be answered by the index.
+	 */
+	public static final int MIN_QUERY_LENGTH = 3;
+
+	// Normalized keys only contain digits and lower case letters.
+	private static final int ALPHABET = 36;
+	static final int TRIGRAMS = ALPHABET * ALPHABET * ALPHABET;
+
+	private final SearchKeys keys;
+	private final IntBuffer offsets;
+	private final IntBuffer postings;
+
+	TrigramIndex(SearchKeys keys, IntBuffer offsets, IntBuffer postings) {
+
+		this.keys = keys;
+		this.offsets = offsets;
+		this.postings = postings;
+	}
+
+	/**
+	 * Build the index for a set of search keys.
+	 *
+	 * @param keys the keys to index.
+	 * @return the index.
+	 */
+	public static TrigramIndex build(SearchKeys keys) {
+
+		// Count the rows for each trigram, then fill in the posting lists.  A
+		// trigram repeated within one key is only counted once because rows
+		// are visited in order and a repeat always follows the same row.
+		int[] counts = new int[TRIGRAMS + 1];
+		int[] lastRow = new int[TRIGRAMS];
+		Arrays.fill(lastRow, -1);
+		int total = 0;
+		for (int row = 0; row < keys.size(); row++) {
+			for (int i = keys.start(row); i + 2 < keys.end(row); i++) {
+				int t = trigram(keys.chars(), i);
+				if (t < 0 || lastRow[t] == row) continue;
+				lastRow[t] = row;
+				counts[t + 1]++;
+				total++;
+			}
+		}
+
+		int[] offsets = new int[TRIGRAMS + 1];
+		for (int t = 0; t < TRIGRAMS; t++) {
+			offsets[t + 1] = offsets[t] + counts[t + 1];
+		}
+
+		int[] postings = new int[total];
+		int[] next = new int[TRIGRAMS];
+		System.arraycopy(offsets, 0, next, 0, TRIGRAMS);
+		Arrays.fill(lastRow, -1);
+		for (int row = 0; row < keys.size(); row++) {
+			for (int i = keys.start(row); i + 2 < keys.end(row); i++) {
+				int t = trigram(keys.chars(), i);
+				if (t < 0 || lastRow[t] == row) continue;
+				lastRow[t] = row;
+				postings[next[t]++] = row;
+			}
+		}
+		return new TrigramIndex(keys, IntBuffer.wrap(offsets), IntBuffer.wrap(postings));
+	}
+
+	/**
+	 * Update an index after rows have been added, removed or changed.  The
+	 * posting lists of the previous index are renumbered, and only the keys
+	 * of the new and changed rows are read.  The rows which are kept must
+	 * stay in the same order.
+	 *
+	 * @param previous the index of the previous keys.
+	 * @param keys     the new keys.
+	 * @param rowMap   the new row of every previous row, or -1 if it was
+	 *                 removed or changed.
+	 * @param changed  the new rows which weren't kept from the previous keys.
+	 * @return the index of the new keys.
+	 */
+	public static TrigramIndex update(TrigramIndex previous, SearchKeys keys, int[] rowMap, BitSet changed) {
+
+		// Collect the posting lists of the changed rows the same way the
+		// index is built.
+		int[] changedOffsets = new int[TRIGRAMS + 1];
+		int[] lastRow = new int[TRIGRAMS];
+		Arrays.fill(lastRow, -1);
+		for (int row = changed.nextSetBit(0); row >= 0; row = changed.nextSetBit(row + 1)) {
+			for (int i = keys.start(row); i + 2 < keys.end(row); i++) {
+				int t = trigram(keys.chars(), i);
+				if (t < 0 || lastRow[t] == row) continue;
+				lastRow[t] = row;
+				changedOffsets[t + 1]++;
+			}
+		}
+		for (int t = 0; t < TRIGRAMS; t++) {
+			changedOffsets[t + 1] += changedOffsets[t];
+		}
+		int[] changedPostings = new int[changedOffsets[TRIGRAMS]];
+		int[] next = new int[TRIGRAMS];
+		System.arraycopy(changedOffsets, 0, next, 0, TRIGRAMS);
+		Arrays.fill(lastRow, -1);
+		for (int row = changed.nextSetBit(0); row >= 0; row = changed.nextSetBit(row + 1)) {
+			for (int i = keys.start(row); i + 2 < keys.end(row); i++) {
+				int t = trigram(keys.chars(), i);
+				if (t < 0 || lastRow[t] == row) continue;
+				lastRow[t] = row;
+				changedPostings[next[t]++] = row;
+			}
+		}
+
+		// Merge the renumbered rows which were kept with the changed rows, so
+		// every posting list stays in increasing order.
+		IntBuffer oldOffsets = previous.offsets;
+		IntBuffer oldPostings = previous.postings;
+		int[] offsets = new int[TRIGRAMS + 1];
+		int[] postings = new int[oldPostings.limit() + changedPostings.length];
+		int n = 0;
+		for (int t = 0; t < TRIGRAMS; t++) {
+			int c = changedOffsets[t];
+			int changedEnd = changedOffsets[t + 1];
+			for (int p = oldOffsets.get(t), end = oldOffsets.get(t + 1); p < end; p++) {
+				int row = rowMap[oldPostings.get(p)];
+				if (row < 0) continue;
+				while (c < changedEnd && changedPostings[c] < row) postings[n++] = changedPostings[c++];
+				postings[n++] = row;
+			}
+			while (c < changedEnd) postings[n++] = changedPostings[c++];
+			offsets[t + 1] = n;
+		}
+		return new TrigramIndex(keys, IntBuffer.wrap(offsets), IntBuffer.wrap(Arrays.copyOf(postings, n)));
+	}
+
+	/**
+	 * Find the rows whose keys contain a normalized query.  The query must be
+	 * at least <code>MIN_QUERY_LENGTH</code> characters long.
+	 *
+	 * @param query  the normalized query.
+	 * @param length the number of characters in the query.
+	 * @param out    receives the matching rows in increasing order, it must
+	 *               be at least as long as the number of keys.
+	 * @return the number of matching rows.
+	 */
+	public int search(char[] query, int length, int[] out) {
+
+		if (length < MIN_QUERY_LENGTH) throw new IllegalArgumentException("Query is too short: " + length);
+
+		// Start with the shortest posting list since the result can't be
+		// longer than it.
+		int shortest = -1;
+		for (int i = 0; i + 2 < length; i++) {
+			int t = trigram(query, i);
+			if (t < 0) return 0;
+			if (shortest < 0 || size(t) < size(shortest)) shortest = t;
+		}
+		int count = size(shortest);
+		IntBuffer list = postings.duplicate();
+		list.position(offsets.get(shortest));
+		list.get(out, 0, count);
+
+		for (int i = 0; i + 2 < length && count > 0; i++) {
+			int t = trigram(query, i);
+			if (t != shortest) count = intersect(out, count, t);
+		}
+
+		// Every trigram of the query is in the remaining rows, but not
+		// necessarily in the same order, so verify the actual matches.
+		int matches = 0;
+		for (int i = 0; i < count; i++) {
+			if (keys.contains(out[i], query, length)) out[matches++] = out[i];
+		}
+		return matches;
+	}
+
+	/**
+	 * Intersect the rows in <code>rows</code> with the posting list of a
+	 * trigram, keeping the result in <code>rows</code>.
+	 */
+	private int intersect(int[] rows, int count, int t) {
+
+		int p = offsets.get(t);
+		int end = offsets.get(t + 1);
+		int n = 0;
+		for (int i = 0; i < count && p < end; i++) {
+			int row = rows[i];
+			while (p < end && postings.get(p) < row) p++;
+			if (p < end && postings.get(p) == row) rows[n++] = row;
+		}
+		return n;
+	}
+
+	private int size(int t) {
+
+		return offsets.get(t + 1) - offsets.get(t);
+	}
+
+	IntBuffer offsets() {
+
+		return offsets;
+	}
+
+	IntBuffer postings() {
+
+		return postings;
+	}
+
+	/**
+	 * Encode the three characters starting at <code>i</code> as a trigram
+	 * number, or return -1 if they contain a character which isn't indexed.
+	 */
+	private static int trigram(char[] chars, int i) {
+
+		return trigram(chars[i], chars[i + 1], chars[i + 2]);
+	}
+
+	private static int trigram(CharBuffer chars, int i) {
+
+		return trigram(chars.get(i), chars.get(i + 1), chars.get(i + 2));
+	}
+
+	private static int trigram(char x, char y, char z) {
+
+		int a = code(x);
+		int b = code(y);
+		int c = code(z);
+		if (a < 0 || b < 0 || c < 0) return -1;
+		return (a * ALPHABET + b) * ALPHABET + c;
+	}
+
+	private static int code(char c) {
+
+		if (c >= 'a' && c <= 'z') return c - 'a';
+		if (c >= '0' && c <= '9') return 26 + c - '0';
+		return -1;
+	}
+}
@@ -0,0 +1,238 @@
+package com.wheelermarine.publicAccessSites.store;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * This class describes what an update changed in the database: the IDs of
+ * the public accesses which were added, modified or removed, the new
+ * coordinates of the ones which moved, and the ones which only got a new
+ * record number.  It is produced by the import and applied by everything
+ * which holds public accesses in memory, so they only touch the affected
+ * rows instead of loading everything again.
+ * </p>
+ * <p>
+ * The IDs of each kind are sorted.  A change set is immutable once it has
+ * been built.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class ChangeSet {
+
+	/**
+	 * A change set which doesn't change anything.
+	 */
+	public static final ChangeSet EMPTY = new Builder().build();
+
+	private final long[] added;
+	private final long[] modified;
+	private final long[] removed;
+	private final long[] renumbered;
+	private final long[] moved;
+	private final double[] latitudes;
+	private final double[] longitudes;
+
+	private ChangeSet(Builder builder) {
+
+		added = builder.added.toSortedArray();
+		modified = builder.modified.toSortedArray();
+		removed = builder.removed.toSortedArray();
+		renumbered = builder.renumbered.toSortedArray();
+		int n = builder.moved.size();
+		moved = new long[n];
+		latitudes = new double[n];
+		longitudes = new double[n];
+		int i = 0;
+		for (Map.Entry<Long, double[]> entry : builder.moved.entrySet()) {
+			moved[i] = entry.getKey();
+			latitudes[i] = entry.getValue()[0];
+			longitudes[i] = entry.getValue()[1];
+			i++;
+		}
+	}
+
+	/**
+	 * Check if anything which is displayed changed.  Rows which only got a
+	 * new record number don't count.
+	 *
+	 * @return <code>true</code> if nothing was added, modified, removed or
+	 * moved.
+	 */
+	public boolean isEmpty() {
+
+		return added.length == 0 && modified.length == 0 && removed.length == 0 && moved.length == 0;
+	}
+
+	/**
+	 * Get the number of rows which have to be loaded from the database to
+	 * apply the changes, which are the added and modified ones.
+	 *
+	 * @return the number of rows to load.
+	 */
+	public int getLoadCount() {
+
+		return added.length + modified.length;
+	}
+
+	/**
+	 * Get the IDs of the added public accesses.  The array is shared with the
+	 * change set and must not be modified, the same goes for the other
+	 * arrays of IDs.
+	 *
+	 * @return the sorted IDs.
+	 */
+	public long[] getAdded() {
+
+		return added;
+	}
+
+	public long[] getModified() {
+
+		return modified;
+	}
+
+	public long[] getRemoved() {
+
+		return removed;
+	}
+
+	/**
+	 * Get the IDs of the public accesses which didn't change except for
+	 * their record number.
+	 *
+	 * @return the sorted IDs.
+	 */
+	public long[] getRenumbered() {
+
+		return renumbered;
+	}
+
+	public long[] getMoved() {
+
+		return moved;
+	}
+
+	public boolean isAdded(long id) {
+
+		return Arrays.binarySearch(added, id) >= 0;
+	}
+
+	public boolean isModified(long id) {
+
+		return Arrays.binarySearch(modified, id) >= 0;
+	}
+
+	public boolean isRemoved(long id) {
+
+		return Arrays.binarySearch(removed, id) >= 0;
+	}
+
+	/**
+	 * Find the new coordinates of a public access.
+	 *
+	 * @param id the ID of the public access.
+	 * @return the index of the coordinates, or a negative number if the
+	 * public access didn't move.
+	 */
+	public int indexOfMoved(long id) {
+
+		return Arrays.binarySearch(moved, id);
+	}
+
+	public double getMovedLatitude(int index) {
+
+		return latitudes[index];
+	}
+
+	public double getMovedLongitude(int index) {
+
+		return longitudes[index];
+	}
+
+	@Override
+	public String toString() {
+
+		return String.format(Locale.US, "%d added, %d modified, %d moved, %d removed, %d renumbered",
+				added.length, modified.length, moved.length, removed.length, renumbered.length);
+	}
+
+	/**
+	 * This class collects the changes while an update is imported.
+	 */
+	public static class Builder {
+
+		private final Ids added = new Ids();
+		private final Ids modified = new Ids();
+		private final Ids removed = new Ids();
+		private final Ids renumbered = new Ids();
+		private final Map<Long, double[]> moved = new TreeMap<Long, double[]>();
+
+		public void added(long id) {
+
+			added.add(id);
+		}
+
+		public void modified(long id) {
+
+			modified.add(id);
+		}
+
+		public void removed(long id) {
+
+			removed.add(id);
+		}
+
+		public void renumbered(long id) {
+
+			renumbered.add(id);
+		}
+
+		/**
+		 * Record the new coordinates of a public access which was already in
+		 * the database.  If it moves more than once the last coordinates are
+		 * kept.
+		 *
+		 * @param id        the ID of the public access.
+		 * @param latitude  the new latitude.
+		 * @param longitude the new longitude.
+		 */
+		public void moved(long id, double latitude, double longitude) {
+
+			moved.put(id, new double[]{latitude, longitude});
+		}
+
+		public ChangeSet build() {
+
+			return new ChangeSet(this);
+		}
+	}
+
+	/**
+	 * A growable array of IDs.
+	 */
+	private static class Ids {
+
+		private long[] ids = new long[16];
+		private int size;
+
+		void add(long id) {
+
+			if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+			ids[size++] = id;
+		}
+
+		long[] toSortedArray() {
+
+			long[] sorted = Arrays.copyOf(ids, size);
+			Arrays.sort(sorted);
+			return sorted;
+		}
+	}
+}
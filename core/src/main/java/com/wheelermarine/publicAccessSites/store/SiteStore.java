@@ -0,0 +1,335 @@
+package com.wheelermarine.publicAccessSites.store;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * This class holds the loaded public accesses column by column instead of as
+ * one object per public access.  The IDs, ramps, docks and locations are
+ * primitive arrays, the county, launch type and ramp type are codes into a
+ * dictionary of their distinct values, and the name, lake and start of the
+ * directions of every row share one array of UTF-8 bytes, which is one byte
+ * per character for the DNR's text.  A store of a few thousand rows is a
+ * handful of arrays, and scanning a column reads consecutive memory.  The
+ * full directions are not kept, they are loaded with the rest of the details
+ * when they are needed.
+ * </p>
+ * <p>
+ * Rows are identified by their position.  The store is immutable once it has
+ * been built, so it can be read by any number of threads.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class SiteStore {
+
+	// The strings of every row in the text array, in this order.
+	private static final int NAME = 0;
+	private static final int LAKE = 1;
+	private static final int DIRECTIONS = 2;
+	private static final int STRINGS = 3;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final int size;
+	private final long[] ids;
+	private final int[] ramps;
+	private final int[] docks;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final short[] counties;
+	private final short[] launches;
+	private final short[] rampTypes;
+	private final String[] values;
+	private final byte[] text;
+	private final int[] offsets;
+
+	private SiteStore(Builder builder) {
+
+		size = builder.size;
+		ids = Arrays.copyOf(builder.ids, size);
+		ramps = Arrays.copyOf(builder.ramps, size);
+		docks = Arrays.copyOf(builder.docks, size);
+		latitudes = Arrays.copyOf(builder.latitudes, size);
+		longitudes = Arrays.copyOf(builder.longitudes, size);
+		counties = Arrays.copyOf(builder.counties, size);
+		launches = Arrays.copyOf(builder.launches, size);
+		rampTypes = Arrays.copyOf(builder.rampTypes, size);
+		values = builder.values.toArray();
+		text = Arrays.copyOf(builder.text, builder.length);
+		offsets = Arrays.copyOf(builder.offsets, size * STRINGS + 1);
+	}
+
+	/**
+	 * Get the number of rows.
+	 *
+	 * @return the number of rows.
+	 */
+	public int size() {
+
+		return size;
+	}
+
+	public long getId(int row) {
+
+		return ids[row];
+	}
+
+	public int getRamps(int row) {
+
+		return ramps[row];
+	}
+
+	public int getDocks(int row) {
+
+		return docks[row];
+	}
+
+	public double getLatitude(int row) {
+
+		return latitudes[row];
+	}
+
+	public double getLongitude(int row) {
+
+		return longitudes[row];
+	}
+
+	/**
+	 * Get the latitude of every row.  The array is shared with the store and
+	 * must not be modified, it can be passed to the spatial grid and the
+	 * distance engine without a copy.
+	 *
+	 * @return the latitudes.
+	 */
+	public double[] getLatitudes() {
+
+		return latitudes;
+	}
+
+	/**
+	 * Get the longitude of every row.  The array is shared with the store and
+	 * must not be modified.
+	 *
+	 * @return the longitudes.
+	 */
+	public double[] getLongitudes() {
+
+		return longitudes;
+	}
+
+	/**
+	 * Get the county of a row.  The dictionary's string is returned so this
+	 * doesn't allocate.
+	 *
+	 * @param row the row.
+	 * @return the county.
+	 */
+	public String getCounty(int row) {
+
+		return values[counties[row]];
+	}
+
+	public String getLaunch(int row) {
+
+		return values[launches[row]];
+	}
+
+	public String getRamp(int row) {
+
+		return values[rampTypes[row]];
+	}
+
+	public String getName(int row) {
+
+		return getString(row, NAME);
+	}
+
+	public String getLake(int row) {
+
+		return getString(row, LAKE);
+	}
+
+	/**
+	 * Get the start of the directions of a row, as much as was added to the
+	 * store.
+	 *
+	 * @param row the row.
+	 * @return the start of the directions.
+	 */
+	public String getDirections(int row) {
+
+		return getString(row, DIRECTIONS);
+	}
+
+	private String getString(int row, int string) {
+
+		int i = row * STRINGS + string;
+		return new String(text, offsets[i], offsets[i + 1] - offsets[i], UTF8);
+	}
+
+	/**
+	 * This class collects the rows while the public accesses are loaded.
+	 * Missing strings are stored as empty strings.
+	 */
+	public static class Builder {
+
+		private static final byte[] EMPTY = new byte[0];
+
+		private int size;
+		private long[] ids;
+		private int[] ramps;
+		private int[] docks;
+		private double[] latitudes;
+		private double[] longitudes;
+		private short[] counties;
+		private short[] launches;
+		private short[] rampTypes;
+		private final Dictionary values = new Dictionary();
+		private byte[] text;
+		private int[] offsets;
+		private int length;
+
+		public Builder(int expectedSize) {
+
+			int capacity = Math.max(1, expectedSize);
+			ids = new long[capacity];
+			ramps = new int[capacity];
+			docks = new int[capacity];
+			latitudes = new double[capacity];
+			longitudes = new double[capacity];
+			counties = new short[capacity];
+			launches = new short[capacity];
+			rampTypes = new short[capacity];
+			text = new byte[capacity * 64];
+			offsets = new int[capacity * STRINGS + 1];
+		}
+
+		/**
+		 * Add the next row.
+		 *
+		 * @return the position of the row.
+		 */
+		public int add(long id, String name, String lake, String county, String launch, String ramp,
+		               int ramps, int docks, double latitude, double longitude, String directions) {
+
+			if (size == ids.length) grow();
+			int row = size++;
+			ids[row] = id;
+			this.ramps[row] = ramps;
+			this.docks[row] = docks;
+			latitudes[row] = latitude;
+			longitudes[row] = longitude;
+			counties[row] = values.code(county);
+			launches[row] = values.code(launch);
+			rampTypes[row] = values.code(ramp);
+			addString(row, NAME, name);
+			addString(row, LAKE, lake);
+			addString(row, DIRECTIONS, directions);
+			return row;
+		}
+
+		/**
+		 * Add a row of another store as the next row.  The strings are copied
+		 * as bytes without being decoded.
+		 *
+		 * @param from the store to copy from.
+		 * @param row  the row to copy.
+		 * @return the position of the row.
+		 */
+		public int copy(SiteStore from, int row) {
+
+			if (size == ids.length) grow();
+			int to = size++;
+			ids[to] = from.ids[row];
+			ramps[to] = from.ramps[row];
+			docks[to] = from.docks[row];
+			latitudes[to] = from.latitudes[row];
+			longitudes[to] = from.longitudes[row];
+			counties[to] = values.code(from.values[from.counties[row]]);
+			launches[to] = values.code(from.values[from.launches[row]]);
+			rampTypes[to] = values.code(from.values[from.rampTypes[row]]);
+			int start = from.offsets[row * STRINGS];
+			int n = from.offsets[(row + 1) * STRINGS] - start;
+			if (length + n > text.length) text = Arrays.copyOf(text, Math.max(text.length * 2, length + n));
+			System.arraycopy(from.text, start, text, length, n);
+			for (int string = 1; string <= STRINGS; string++) {
+				offsets[to * STRINGS + string] = length + from.offsets[row * STRINGS + string] - start;
+			}
+			length += n;
+			return to;
+		}
+
+		/**
+		 * Replace the location of a row which has already been added.
+		 */
+		public void setLocation(int row, double latitude, double longitude) {
+
+			latitudes[row] = latitude;
+			longitudes[row] = longitude;
+		}
+
+		private void addString(int row, int string, String value) {
+
+			byte[] bytes = value == null ? EMPTY : value.getBytes(UTF8);
+			int n = bytes.length;
+			if (length + n > text.length) text = Arrays.copyOf(text, Math.max(text.length * 2, length + n));
+			System.arraycopy(bytes, 0, text, length, n);
+			length += n;
+			offsets[row * STRINGS + string + 1] = length;
+		}
+
+		private void grow() {
+
+			int capacity = ids.length * 2;
+			ids = Arrays.copyOf(ids, capacity);
+			ramps = Arrays.copyOf(ramps, capacity);
+			docks = Arrays.copyOf(docks, capacity);
+			latitudes = Arrays.copyOf(latitudes, capacity);
+			longitudes = Arrays.copyOf(longitudes, capacity);
+			counties = Arrays.copyOf(counties, capacity);
+			launches = Arrays.copyOf(launches, capacity);
+			rampTypes = Arrays.copyOf(rampTypes, capacity);
+			offsets = Arrays.copyOf(offsets, capacity * STRINGS + 1);
+		}
+
+		public SiteStore build() {
+
+			return new SiteStore(this);
+		}
+	}
+
+	/**
+	 * This class assigns a code to every distinct string.  The county, launch
+	 * and ramp types share one dictionary since there are only a few dozen
+	 * values between them.
+	 */
+	private static class Dictionary {
+
+		private final Map<String, Short> codes = new HashMap<String, Short>();
+		private String[] values = new String[16];
+
+		short code(String value) {
+
+			if (value == null) value = "";
+			Short code = codes.get(value);
+			if (code != null) return code;
+			int next = codes.size();
+			if (next > Short.MAX_VALUE) throw new IllegalStateException("Too many distinct values: " + next);
+			if (next == values.length) values = Arrays.copyOf(values, next * 2);
+			values[next] = value;
+			codes.put(value, (short) next);
+			return (short) next;
+		}
+
+		String[] toArray() {
+
+			return Arrays.copyOf(values, codes.size());
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package com.wheelermarine.publicAccessSites.dnr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * <p>
+ * Checks that source keys identify a record regardless of its position in
+ * the archive.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class SourceKeysTest {
+
+	@Test
+	public void duplicatesAreNumberedInOrder() {
+
+		SourceKeys keys = new SourceKeys();
+		assertEquals("northaccess|cass|aitkin", keys.next(record(1, "North Access", "Cass", "Aitkin")));
+		assertEquals("southaccess|cass|aitkin", keys.next(record(2, "South Access", "Cass", "Aitkin")));
+		assertEquals("northaccess|cass|aitkin|2", keys.next(record(3, "North Access", "Cass", "Aitkin")));
+		assertEquals("northaccess|cass|aitkin|3", keys.next(record(4, "north access", "CASS", "Aitkin")));
+	}
+
+	@Test
+	public void keysAreNormalized() {
+
+		SourceKeys keys = new SourceKeys();
+		assertEquals(keys.next(record(1, "Lake Shore (Public)", "Big Sandy", "Aitkin")),
+				new SourceKeys().next(record(9, "lake shore public", "BIG SANDY", "aitkin")));
+	}
+
+	@Test
+	public void keysDontDependOnPosition() {
+
+		SourceKeys before = new SourceKeys();
+		before.next(record(1, "North Access", "Cass", "Aitkin"));
+		String key = before.next(record(2, "Landing", null, "Polk"));
+
+		// The first record was removed, so the record without a lake moved.
+		SiteRecord moved = record(1, "Landing", null, "Polk");
+		assertEquals("", moved.getLake());
+		assertEquals(key, new SourceKeys().next(moved));
+		assertEquals(record(2, "Landing", "", "Polk").getContentHash(), moved.getContentHash());
+	}
+
+	@Test
+	public void recordsWithoutLakesAreNumbered() {
+
+		SourceKeys keys = new SourceKeys();
+		assertEquals("landing||polk", keys.next(record(1, "Landing", null, "Polk")));
+		assertEquals("landing||polk|2", keys.next(record(2, "Landing", "", "Polk")));
+	}
+
+	private static SiteRecord record(int recordNumber, String name, String lake, String county) {
+
+		return new SiteRecord(recordNumber, name, "Concrete", "Ramp", 1.0, 0.0, "", lake, county);
+	}
+}
@@ -0,0 +1,206 @@
+package com.wheelermarine.publicAccessSites.geo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * <p>
+ * Checks the nearest neighbour and bounding box searches of the grid against
+ * a scan of every row, and that an updated grid answers them the same way as
+ * one built from the new coordinates.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class SpatialGridTest {
+
+	private static final double METERS_PER_DEGREE = SpatialGrid.EARTH_RADIUS * Math.PI / 180;
+
+	private final Random random = new Random(1);
+
+	@Test
+	public void nearestMatchesBruteForce() {
+
+		for (int round = 0; round < 50; round++) {
+			int n = random.nextInt(500);
+			double[] latitudes = new double[n];
+			double[] longitudes = new double[n];
+			for (int i = 0; i < n; i++) place(latitudes, longitudes, i);
+			SpatialGrid grid = SpatialGrid.build(latitudes, longitudes);
+
+			for (int q = 0; q < 50; q++) {
+				double latitude = 43 + random.nextDouble() * 7;
+				double longitude = -98 + random.nextDouble() * 10;
+				BitSet allowed = random.nextBoolean() ? null : randomRows(n);
+				int k = 1 + random.nextInt(10);
+				assertNearest(latitudes, longitudes, allowed, latitude, longitude, k, grid);
+			}
+		}
+	}
+
+	@Test
+	public void withinMatchesBruteForce() {
+
+		int n = 1000;
+		double[] latitudes = new double[n];
+		double[] longitudes = new double[n];
+		for (int i = 0; i < n; i++) place(latitudes, longitudes, i);
+		SpatialGrid grid = SpatialGrid.build(latitudes, longitudes);
+
+		int[] out = new int[n];
+		for (int q = 0; q < 200; q++) {
+			double south = 43 + random.nextDouble() * 7;
+			double west = -98 + random.nextDouble() * 10;
+			double north = south + random.nextDouble() * 2;
+			double east = west + random.nextDouble() * 3;
+			int[] expected = new int[n];
+			int count = 0;
+			for (int i = 0; i < n; i++) {
+				if (SpatialGrid.isValid(latitudes[i], longitudes[i]) && latitudes[i] >= south && latitudes[i] <= north &&
+						longitudes[i] >= west && longitudes[i] <= east) expected[count++] = i;
+			}
+			int found = grid.within(south, west, north, east, out);
+			int[] actual = Arrays.copyOf(out, found);
+			Arrays.sort(actual);
+			assertArrayEquals(Arrays.copyOf(expected, count), actual);
+		}
+	}
+
+	@Test
+	public void updateMatchesBuild() {
+
+		for (int round = 0; round < 100; round++) {
+			int n = random.nextInt(300);
+			double[] previousLatitudes = new double[n];
+			double[] previousLongitudes = new double[n];
+			for (int i = 0; i < n; i++) place(previousLatitudes, previousLongitudes, i);
+			SpatialGrid previousGrid = SpatialGrid.build(previousLatitudes, previousLongitudes);
+			DistanceEngine previousEngine = new DistanceEngine(previousLatitudes, previousLongitudes);
+
+			// Remove, add and move rows, keeping the other rows in order.
+			double[] latitudes = new double[2 * n + 10];
+			double[] longitudes = new double[2 * n + 10];
+			int[] rowMap = new int[n];
+			Arrays.fill(rowMap, -1);
+			BitSet relocated = new BitSet();
+			int row = 0;
+			for (int i = 0; i <= n && row < latitudes.length - 2; i++) {
+				if (random.nextInt(8) == 0) {
+					place(latitudes, longitudes, row);
+					relocated.set(row++);
+				}
+				if (i == n) break;
+				int action = random.nextInt(8);
+				if (action == 0) continue;
+				rowMap[i] = row;
+				if (action == 1) {
+					// Sometimes outside the previous grid.
+					latitudes[row] = 40 + random.nextDouble() * 15;
+					longitudes[row] = -100 + random.nextDouble() * 15;
+					relocated.set(row);
+				} else {
+					latitudes[row] = previousLatitudes[i];
+					longitudes[row] = previousLongitudes[i];
+				}
+				row++;
+			}
+			latitudes = Arrays.copyOf(latitudes, row);
+			longitudes = Arrays.copyOf(longitudes, row);
+
+			SpatialGrid grid = SpatialGrid.update(previousGrid, latitudes, longitudes, rowMap, relocated);
+			assertEquals(SpatialGrid.build(latitudes, longitudes).size(), grid.size());
+			for (int q = 0; q < 20; q++) {
+				double latitude = 43 + random.nextDouble() * 7;
+				double longitude = -98 + random.nextDouble() * 10;
+				assertNearest(latitudes, longitudes, null, latitude, longitude, 1 + random.nextInt(10), grid);
+			}
+
+			DistanceEngine engine = DistanceEngine.update(previousEngine, latitudes, longitudes, rowMap, relocated);
+			DistanceEngine expected = new DistanceEngine(latitudes, longitudes);
+			float[] expectedDistances = new float[row];
+			float[] expectedBearings = new float[row];
+			float[] distances = new float[row];
+			float[] bearings = new float[row];
+			expected.compute(46, -94, expectedDistances, expectedBearings);
+			engine.compute(46, -94, distances, bearings);
+			assertArrayEquals(expectedDistances, distances, 0);
+			assertArrayEquals(expectedBearings, bearings, 0);
+		}
+	}
+
+	/**
+	 * Check the nearest rows found by the grid against a scan of every row
+	 * with the same distance.
+	 */
+	private static void assertNearest(double[] latitudes, double[] longitudes, BitSet allowed,
+	                                  double latitude, double longitude, int k, SpatialGrid grid) {
+
+		int n = latitudes.length;
+		double cosLatitude = Math.cos(Math.toRadians(latitude));
+		Integer[] rows = new Integer[n];
+		final double[] all = new double[n];
+		int candidates = 0;
+		for (int i = 0; i < n; i++) {
+			if (!SpatialGrid.isValid(latitudes[i], longitudes[i]) || (allowed != null && !allowed.get(i))) continue;
+			double x = (longitudes[i] - longitude) * cosLatitude;
+			double y = latitudes[i] - latitude;
+			all[i] = METERS_PER_DEGREE * Math.sqrt(x * x + y * y);
+			rows[candidates++] = i;
+		}
+		Arrays.sort(rows, 0, candidates, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+
+				return Double.compare(all[a], all[b]);
+			}
+		});
+		int expected = Math.min(k, candidates);
+
+		int[] out = new int[k];
+		double[] distances = new double[k];
+		int found = grid.nearest(latitude, longitude, allowed, out, distances);
+		assertEquals(expected, found);
+		for (int i = 0; i < found; i++) {
+			assertEquals(rows[i].intValue(), out[i]);
+			assertEquals(all[rows[i]], distances[i], 1e-6);
+		}
+	}
+
+	/**
+	 * Give a row random coordinates in and around Minnesota.  Some rows have
+	 * no coordinates.
+	 */
+	private void place(double[] latitudes, double[] longitudes, int row) {
+
+		int kind = random.nextInt(20);
+		if (kind == 0) {
+			latitudes[row] = 0;
+			longitudes[row] = 0;
+		} else if (kind == 1) {
+			latitudes[row] = Double.NaN;
+			longitudes[row] = Double.NaN;
+		} else {
+			latitudes[row] = 43.5 + random.nextDouble() * 5.5;
+			longitudes[row] = -97 + random.nextDouble() * 7.5;
+		}
+	}
+
+	private BitSet randomRows(int n) {
+
+		BitSet rows = new BitSet(n);
+		for (int i = 0; i < n; i++) {
+			if (random.nextBoolean()) rows.set(i);
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,97 @@
+package com.wheelermarine.publicAccessSites.search;
+
+import com.wheelermarine.publicAccessSites.search.FacetIndex.Facet;
+import com.wheelermarine.publicAccessSites.store.SiteStore;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * <p>
+ * Checks that an updated facet index selects the same rows as one built from
+ * the new rows.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class FacetIndexTest {
+
+	private static final String[] COUNTIES = {"Aitkin", "Cass", "Hubbard", "Itasca", "Polk", ""};
+	private static final String[] TYPES = {"Concrete", "Gravel", "Carry-in", ""};
+
+	private final Random random = new Random(1);
+
+	@Test
+	public void updateMatchesBuild() {
+
+		for (int round = 0; round < 200; round++) {
+			int n = random.nextInt(100);
+			SiteStore.Builder before = new SiteStore.Builder(n);
+			for (int i = 0; i < n; i++) addRandom(before, i);
+			SiteStore previousSites = before.build();
+			FacetIndex previous = build(previousSites);
+
+			SiteStore.Builder after = new SiteStore.Builder(n);
+			int[] rowMap = new int[n];
+			Arrays.fill(rowMap, -1);
+			BitSet changed = new BitSet();
+			int row = 0;
+			for (int i = 0; i <= n; i++) {
+				while (random.nextInt(8) == 0) changed.set(addRandom(after, row++));
+				if (i == n) break;
+				int action = random.nextInt(8);
+				if (action == 0) continue;
+				if (action == 1) {
+					changed.set(addRandom(after, row++));
+				} else {
+					rowMap[i] = after.copy(previousSites, i);
+					row++;
+				}
+			}
+			SiteStore sites = after.build();
+
+			FacetIndex expected = build(sites);
+			FacetIndex actual = FacetIndex.update(previous, sites, rowMap, changed);
+			for (Facet facet : Facet.values()) {
+				assertEquals(expected.getValues(facet), actual.getValues(facet));
+				for (String value : expected.getValues(facet)) {
+					Map<Facet, Set<String>> selection = new EnumMap<Facet, Set<String>>(Facet.class);
+					selection.put(facet, Collections.singleton(value));
+					assertEquals(expected.select(selection), actual.select(selection));
+					assertEquals(expected.getCount(facet, value), actual.getCount(facet, value));
+				}
+			}
+		}
+	}
+
+	private int addRandom(SiteStore.Builder store, long id) {
+
+		return store.add(id, "Name", "Lake", pick(COUNTIES), pick(TYPES), pick(TYPES),
+				random.nextInt(3), random.nextInt(3), 46, -94, "");
+	}
+
+	private String pick(String[] values) {
+
+		return values[random.nextInt(values.length)];
+	}
+
+	private static FacetIndex build(SiteStore sites) {
+
+		FacetIndex.Builder builder = new FacetIndex.Builder();
+		for (int row = 0; row < sites.size(); row++) {
+			builder.add(sites.getCounty(row), sites.getRamp(row), sites.getLaunch(row), sites.getRamps(row), sites.getDocks(row));
+		}
+		return builder.build();
+	}
+}
@@ -0,0 +1,71 @@
+package com.wheelermarine.publicAccessSites.search;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * <p>
+ * Checks that a search index file is read back as it was written, and that
+ * its stamp changes when any row it was written for changes.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class SearchIndexFileTest {
+
+	@Test
+	public void mapReadsWhatWasWritten() throws IOException {
+
+		long[] ids = {3, 1, 2};
+		String[] names = {"North Access", "Landing", "South Access"};
+		String[] lakes = {"Cass", "", "Cass"};
+		SearchKeys.Builder builder = new SearchKeys.Builder(ids.length);
+		for (int i = 0; i < ids.length; i++) builder.add(names[i], lakes[i]);
+		SearchKeys keys = builder.build();
+		TrigramIndex index = TrigramIndex.build(keys);
+
+		File file = File.createTempFile("search", ".idx");
+		try {
+			SearchIndexFile.write(file, stamp(ids, names, lakes), ids, keys, index);
+			SearchIndexFile mapped = SearchIndexFile.map(file);
+			assertEquals(stamp(ids, names, lakes), mapped.getStamp());
+			assertEquals(ids.length, mapped.size());
+			for (int row = 0; row < ids.length; row++) assertEquals(ids[row], mapped.getId(row));
+			assertEquals(keys.chars(), mapped.getKeys().chars());
+			assertEquals(index.postings(), mapped.getIndex().postings());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void stampCoversEveryRow() {
+
+		long[] ids = {1, 2, 3};
+		String[] names = {"North Access", "Landing", "South Access"};
+		String[] lakes = {"Cass", "", "Cass"};
+		long stamp = stamp(ids, names, lakes);
+
+		assertNotEquals(stamp, stamp(new long[]{1, 4, 3}, names, lakes));
+		assertNotEquals(stamp, stamp(ids, new String[]{"North Access", "Landings", "South Access"}, lakes));
+		assertNotEquals(stamp, stamp(ids, names, new String[]{"Cass", "Leech", "Cass"}));
+		// Moving text from the name to the lake changes the stamp as well.
+		assertNotEquals(stamp, stamp(ids, new String[]{"North", "Landing", "South Access"},
+				new String[]{" AccessCass", "", "Cass"}));
+	}
+
+	private static long stamp(long[] ids, String[] names, String[] lakes) {
+
+		SearchIndexFile.Stamp stamp = new SearchIndexFile.Stamp();
+		for (int i = 0; i < ids.length; i++) stamp.add(ids[i], names[i], lakes[i]);
+		return stamp.get();
+	}
+}
@@ -0,0 +1,100 @@
+package com.wheelermarine.publicAccessSites.search;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * <p>
+ * Checks that an updated trigram index is the same as one built from the
+ * new keys, and that searching it finds the same rows as scanning the keys.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class TrigramIndexTest {
+
+	// A small alphabet so the keys share many trigrams.
+	private static final String LETTERS = "abcde 12";
+
+	private final Random random = new Random(1);
+
+	@Test
+	public void updateMatchesBuild() {
+
+		for (int round = 0; round < 200; round++) {
+			int n = random.nextInt(300);
+			SearchKeys.Builder before = new SearchKeys.Builder(n);
+			for (int i = 0; i < n; i++) before.add(word(), word());
+			SearchKeys previousKeys = before.build();
+			TrigramIndex previous = TrigramIndex.build(previousKeys);
+
+			// Remove, change and insert rows, keeping the other rows in order.
+			SearchKeys.Builder after = new SearchKeys.Builder(n);
+			int[] rowMap = new int[n];
+			Arrays.fill(rowMap, -1);
+			BitSet changed = new BitSet();
+			int row = 0;
+			for (int i = 0; i <= n; i++) {
+				while (random.nextInt(8) == 0) {
+					after.add(word(), word());
+					changed.set(row++);
+				}
+				if (i == n) break;
+				int action = random.nextInt(8);
+				if (action == 0) continue;
+				if (action == 1) {
+					after.add(word(), word());
+					changed.set(row++);
+				} else {
+					after.copy(previousKeys, i);
+					rowMap[i] = row++;
+				}
+			}
+			SearchKeys keys = after.build();
+
+			TrigramIndex expected = TrigramIndex.build(keys);
+			TrigramIndex actual = TrigramIndex.update(previous, keys, rowMap, changed);
+			assertEquals(expected.offsets(), actual.offsets());
+			assertEquals(expected.postings(), actual.postings());
+		}
+	}
+
+	@Test
+	public void searchMatchesScan() {
+
+		int n = 500;
+		SearchKeys.Builder builder = new SearchKeys.Builder(n);
+		for (int i = 0; i < n; i++) builder.add(word(), word());
+		SearchKeys keys = builder.build();
+		TrigramIndex index = TrigramIndex.build(keys);
+
+		int[] out = new int[n];
+		for (int q = 0; q < 500; q++) {
+			char[] query = SearchKeys.normalize(word()).toCharArray();
+			if (query.length < TrigramIndex.MIN_QUERY_LENGTH) continue;
+			int[] expected = new int[n];
+			int count = 0;
+			for (int row = 0; row < n; row++) {
+				if (keys.contains(row, query, query.length)) expected[count++] = row;
+			}
+			int found = index.search(query, query.length, out);
+			assertArrayEquals(Arrays.copyOf(expected, count), Arrays.copyOf(out, found));
+		}
+	}
+
+	private String word() {
+
+		char[] chars = new char[random.nextInt(12)];
+		for (int i = 0; i < chars.length; i++) chars[i] = LETTERS.charAt(random.nextInt(LETTERS.length()));
+		return new String(chars);
+	}
+}
@@ -0,0 +1,83 @@
+package com.wheelermarine.publicAccessSites.store;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>
+ * Checks how a change set records the changes of an update.
+ * </p>
+ * <p/>
+ * <p>
+ * Copyright 2013 Steven Wheeler<br/>
+ * Released under the GPLv3 license, see LICENSE file for details.
+ * </p>
+ */
+public class ChangeSetTest {
+
+	@Test
+	public void idsAreSorted() {
+
+		ChangeSet.Builder builder = new ChangeSet.Builder();
+		builder.added(30);
+		builder.added(10);
+		builder.added(20);
+		builder.removed(7);
+		builder.removed(3);
+		ChangeSet changes = builder.build();
+
+		assertArrayEquals(new long[]{10, 20, 30}, changes.getAdded());
+		assertArrayEquals(new long[]{3, 7}, changes.getRemoved());
+		assertTrue(changes.isAdded(20));
+		assertFalse(changes.isAdded(25));
+		assertTrue(changes.isRemoved(3));
+		assertFalse(changes.isModified(10));
+	}
+
+	@Test
+	public void lastMoveIsKept() {
+
+		ChangeSet.Builder builder = new ChangeSet.Builder();
+		builder.moved(5, 45, -93);
+		builder.moved(2, 47, -95);
+		builder.moved(5, 46, -94);
+		ChangeSet changes = builder.build();
+
+		assertArrayEquals(new long[]{2, 5}, changes.getMoved());
+		int index = changes.indexOfMoved(5);
+		assertEquals(46, changes.getMovedLatitude(index), 0);
+		assertEquals(-94, changes.getMovedLongitude(index), 0);
+		assertTrue(changes.indexOfMoved(3) < 0);
+	}
+
+	@Test
+	public void renumberingIsNotAChange() {
+
+		ChangeSet.Builder builder = new ChangeSet.Builder();
+		builder.renumbered(4);
+		ChangeSet changes = builder.build();
+
+		assertTrue(changes.isEmpty());
+		assertArrayEquals(new long[]{4}, changes.getRenumbered());
+		assertTrue(ChangeSet.EMPTY.isEmpty());
+	}
+
+	@Test
+	public void onlyAddedAndModifiedRowsAreLoaded() {
+
+		ChangeSet.Builder builder = new ChangeSet.Builder();
+		builder.added(1);
+		builder.modified(2);
+		builder.modified(3);
+		builder.removed(4);
+		builder.moved(5, 46, -94);
+		ChangeSet changes = builder.build();
+
+		assertFalse(changes.isEmpty());
+		assertEquals(3, changes.getLoadCount());
+	}
+}
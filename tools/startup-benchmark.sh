@@ -0,0 +1,101 @@
+#!/bin/sh
+#
+# Measures how long the public access list takes to start on the connected
+# device or emulator.  A cold start kills the process first, a warm start
+# only finishes the activity so the process is already running.  Every run
+# records the time to the first frame reported by "am start -W" and the time
+# until the list was populated, which the activity logs and also reports to
+# the system as fully drawn.  The median, fastest and slowest run of each
+# mode are printed, and every run is appended to a CSV file along with the
+# build's git revision so launch times can be compared between builds.
+#
+# Install the build to measure and open it once so the database has been
+# downloaded, otherwise the first cold start includes the download:
+#
+#     tools/startup-benchmark.sh [-n runs] [-o results.csv] [cold] [warm]
+#
+# Copyright 2013 Steven Wheeler
+# Released under the GPLv3 license, see LICENSE file for details.
+
+PACKAGE=com.wheelermarine.publicAccessSites
+ACTIVITY=$PACKAGE/.PublicAccessListActivity
+TAG=MNPAS.ListActivity
+RUNS=10
+OUTPUT=startup-benchmark.csv
+MODES=
+
+usage() {
+	echo "Usage: $0 [-n runs] [-o results.csv] [cold] [warm]" >&2
+	exit 2
+}
+
+while [ $# -gt 0 ]; do
+	case "$1" in
+		-n) [ $# -gt 1 ] || usage; RUNS=$2; shift ;;
+		-o) [ $# -gt 1 ] || usage; OUTPUT=$2; shift ;;
+		cold|warm) MODES="$MODES $1" ;;
+		*) usage ;;
+	esac
+	shift
+done
+[ -n "$MODES" ] || MODES="cold warm"
+
+adb get-state > /dev/null || exit 1
+REVISION=$(git describe --always --dirty 2> /dev/null || echo unknown)
+DEVICE=$(adb shell getprop ro.product.model | tr -d '\r')
+RELEASE=$(adb shell getprop ro.build.version.release | tr -d '\r')
+[ -f "$OUTPUT" ] || echo "revision,device,release,mode,run,first_frame_ms,populated_ms" > "$OUTPUT"
+
+# Wait for the activity to log the populated list and print its time.  A cold
+# start is measured from when the process was created.
+populated() {
+	for i in $(seq 1 60); do
+		line=$(adb logcat -d -s "$TAG:I" | grep "Populated" | tail -n 1)
+		if [ -n "$line" ]; then
+			case "$1" in
+				cold) echo "$line" | sed -n 's/.*, \([0-9]*\) ms after the process started.*/\1/p' ;;
+				*) echo "$line" | sed -n 's/.* in \([0-9]*\) ms.*/\1/p' ;;
+			esac
+			return
+		fi
+		sleep 0.5
+	done
+	echo "timeout"
+}
+
+# Print the median, fastest and slowest of the numbers on standard input.
+summary() {
+	sort -n | awk '{ v[NR] = $1 } END {
+		if (NR == 0) { print "no runs"; exit }
+		printf "median %d ms, fastest %d ms, slowest %d ms\n", v[int((NR + 1) / 2)], v[1], v[NR]
+	}'
+}
+
+echo "Benchmarking $ACTIVITY at $REVISION on $DEVICE (Android $RELEASE), $RUNS runs per mode."
+for mode in $MODES; do
+	# Start once so the warm runs have a process and the cold runs start from
+	# the same state.
+	adb shell am start -W -n "$ACTIVITY" > /dev/null
+	sleep 2
+	FIRST_FRAMES=
+	POPULATED=
+	for run in $(seq 1 "$RUNS"); do
+		if [ "$mode" = cold ]; then
+			adb shell am force-stop "$PACKAGE"
+		else
+			adb shell input keyevent KEYCODE_BACK
+		fi
+		sleep 1
+		adb logcat -c
+		first=$(adb shell am start -W -n "$ACTIVITY" | tr -d '\r' | sed -n 's/^TotalTime: //p')
+		list=$(populated "$mode")
+		echo "$mode $run: first frame $first ms, populated $list ms"
+		echo "$REVISION,$DEVICE,$RELEASE,$mode,$run,$first,$list" >> "$OUTPUT"
+		FIRST_FRAMES="$FIRST_FRAMES $first"
+		[ "$list" = timeout ] || POPULATED="$POPULATED $list"
+		sleep 1
+	done
+	echo "$mode first frame: $(echo $FIRST_FRAMES | tr ' ' '\n' | grep . | summary)"
+	echo "$mode populated:   $(echo $POPULATED | tr ' ' '\n' | grep . | summary)"
+done
+echo "Appended the runs to $OUTPUT."